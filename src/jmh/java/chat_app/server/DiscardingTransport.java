@@ -0,0 +1,52 @@
+package chat_app.server;
+
+import chat_app.utility.EncodedMessage;
+import chat_app.utility.FramedCodec;
+import chat_app.utility.WireCodec;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Transport of a member whose writer keeps up with everything.
+ */
+final class DiscardingTransport extends OutboundTransport {
+
+    DiscardingTransport(@NotNull final ServerConfig config) {
+        super(config);
+    }
+
+    @NotNull
+    @Override
+    WireCodec codec() {
+        return FramedCodec.INSTANCE;
+    }
+
+    @NotNull
+    @Override
+    String remoteAddress() {
+        return "nowhere";
+    }
+
+    @Override
+    void onEnqueued() {
+        for (EncodedMessage message = outbound.poll(); message != null; message = outbound.poll()) {
+            try {
+                frame(message);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    @Override
+    public boolean isActive() {
+        return true;
+    }
+
+    @Override
+    public void kill() {
+        // nothing to close
+    }
+}
@@ -0,0 +1,50 @@
+package chat_app.server;
+
+import chat_app.utility.ThreadMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ChatRoom#distributeMessage(String)} to rooms of different sizes. The members write to nowhere and drain
+ * their queue at once, so only the broadcast itself is measured: stamping, encoding once and queueing per member.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DistributeBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int members;
+
+    private ChatRoom room;
+
+    @Setup
+    public void setUp() {
+        final ServerEntity server = new ServerEntity(0, ThreadMode.PLATFORM, new ServerConfig(new Properties()));
+        room = server.getWaitingHall();
+        final ServerConfig config = server.getConfig();
+        for (int i = 0; i < members; ++i) {
+            room.enterChatRoom(new ConnectedClient(server, room, new DiscardingTransport(config), "user" + i));
+        }
+    }
+
+    @Benchmark
+    public void distributeMessage() {
+        room.distributeMessage("user0: hello everybody");
+    }
+}
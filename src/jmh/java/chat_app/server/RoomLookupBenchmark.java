@@ -0,0 +1,69 @@
+package chat_app.server;
+
+import chat_app.utility.ThreadMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ServerEntity#getRoomByName(String)} with many rooms, looked up by names in another case than they were
+ * created with, from several threads at once.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+@State(Scope.Benchmark)
+public class RoomLookupBenchmark {
+
+    @Param({"100", "10000", "50000"})
+    public int rooms;
+
+    private ServerEntity server;
+
+    private String[] names;
+
+    @Setup
+    public void setUp() {
+        server = new ServerEntity(0, ThreadMode.PLATFORM, new ServerConfig(new Properties()));
+        names = new String[rooms];
+        for (int i = 0; i < rooms; ++i) {
+            server.addRoom("Room-" + i);
+            names[i] = ("Room-" + i).toUpperCase(Locale.ROOT);
+        }
+    }
+
+    @Benchmark
+    public ChatRoom getRoomByName(final Cursor cursor) throws ChatRoomNotFoundException {
+        return server.getRoomByName(names[cursor.next(names.length)]);
+    }
+
+    /**
+     * Walks through the names, one per thread.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private int position;
+
+        int next(final int length) {
+            position = (position + 7919) % length;
+            return position;
+        }
+    }
+}
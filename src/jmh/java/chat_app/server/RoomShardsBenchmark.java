@@ -0,0 +1,90 @@
+package chat_app.server;
+
+import chat_app.utility.ThreadMode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Messages per second to many rooms, distributed on the calling thread (0 shards) or by {@link RoomShards}. Each
+ * invocation hands a batch to the rooms and waits until the shards have distributed it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(RoomShardsBenchmark.BATCH)
+@State(Scope.Benchmark)
+public class RoomShardsBenchmark {
+
+    /**
+     * Messages per invocation.
+     */
+    static final int BATCH = 4096;
+
+    private static final int ROOMS = 64;
+
+    private static final int MEMBERS = 100;
+
+    @Param({"0", "1", "2", "4", "8"})
+    public int shards;
+
+    private ServerEntity server;
+
+    private ChatRoom[] rooms;
+
+    @Setup
+    public void setUp() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty(ServerConfig.ROOM_SHARDS, String.valueOf(shards));
+        server = new ServerEntity(0, ThreadMode.PLATFORM, new ServerConfig(properties));
+        final ServerConfig config = server.getConfig();
+        rooms = new ChatRoom[ROOMS];
+        for (int r = 0; r < ROOMS; ++r) {
+            server.addRoom("Room-" + r);
+            rooms[r] = server.getRoomByName("Room-" + r);
+            for (int i = 0; i < MEMBERS; ++i) {
+                rooms[r].enterChatRoom(new ConnectedClient(server, rooms[r], new DiscardingTransport(config),
+                        "user" + i));
+            }
+        }
+        awaitIdle();
+    }
+
+    @TearDown
+    public void tearDown() {
+        final RoomShards roomShards = server.getRoomShards();
+        if (roomShards != null) {
+            roomShards.close();
+        }
+    }
+
+    @Benchmark
+    public void distributeBatch() throws InterruptedException {
+        for (int i = 0; i < BATCH; ++i) {
+            rooms[i % ROOMS].distributeMessage("user0: hello everybody");
+        }
+        awaitIdle();
+    }
+
+    private void awaitIdle() throws InterruptedException {
+        final RoomShards roomShards = server.getRoomShards();
+        if (roomShards != null) {
+            roomShards.awaitIdle();
+        }
+    }
+}
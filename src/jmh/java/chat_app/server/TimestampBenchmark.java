@@ -0,0 +1,60 @@
+package chat_app.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.SimpleDateFormat;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the HH:mm:ss prefix of every room message. Run with {@code gradle jmh --args="TimestampBenchmark -prof gc"}
+ * to see the allocations as well.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TimestampBenchmark {
+
+    private final SimpleDateFormat simpleDateFormat = new SimpleDateFormat("HH:mm:ss");
+
+    private final DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    private final ServerClock clock = new ServerClock();
+
+    /**
+     * How every room used to do it.
+     */
+    @Benchmark
+    public String simpleDateFormat() {
+        return simpleDateFormat.format(new Date());
+    }
+
+    /**
+     * Thread-safe, but still renders every message.
+     */
+    @Benchmark
+    public String dateTimeFormatter() {
+        return dateTimeFormatter.format(LocalTime.now());
+    }
+
+    /**
+     * Renders once per second.
+     */
+    @Benchmark
+    public String serverClock() {
+        return clock.timeOfDay(clock.millis());
+    }
+}
@@ -0,0 +1,80 @@
+package chat_app.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to re-arm the heartbeat timer of one client while the timers of many others are pending, on the
+ * {@link TimingWheel} and, to compare, on a {@link ScheduledThreadPoolExecutor} that removes cancelled tasks.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TimingWheelBenchmark {
+
+    private static final Runnable NOTHING = () -> {
+    };
+
+    @Param({"1000", "100000"})
+    public int clients;
+
+    private TimingWheel wheel;
+
+    private ScheduledThreadPoolExecutor executor;
+
+    private TimingWheel.Timeout timeout;
+
+    private ScheduledFuture<?> future;
+
+    @Setup
+    public void setUp() {
+        wheel = new TimingWheel(100, 512);
+        executor = new ScheduledThreadPoolExecutor(1);
+        executor.setRemoveOnCancelPolicy(true);
+        for (int i = 0; i < clients; ++i) {
+            final long delay = 30000 + ThreadLocalRandom.current().nextLong(30000);
+            wheel.schedule(NOTHING, delay);
+            executor.schedule(NOTHING, delay, TimeUnit.MILLISECONDS);
+        }
+        timeout = wheel.schedule(NOTHING, 30000);
+        future = executor.schedule(NOTHING, 30000, TimeUnit.MILLISECONDS);
+    }
+
+    @TearDown
+    public void tearDown() {
+        wheel.close();
+        executor.shutdownNow();
+    }
+
+    @Benchmark
+    public TimingWheel.Timeout rearmWheel() {
+        timeout.cancel();
+        timeout = wheel.schedule(NOTHING, 30000);
+        return timeout;
+    }
+
+    @Benchmark
+    public ScheduledFuture<?> rearmExecutor() {
+        future.cancel(false);
+        future = executor.schedule(NOTHING, 30000, TimeUnit.MILLISECONDS);
+        return future;
+    }
+}
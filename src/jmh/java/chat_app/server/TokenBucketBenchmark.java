@@ -0,0 +1,52 @@
+package chat_app.server;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to check one message against a {@link TokenBucket}: the bucket of a client, used by its reading thread only,
+ * and the bucket of a room, shared by the reading threads of all members.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class TokenBucketBenchmark {
+
+    /**
+     * High enough that the buckets never run empty, so every check takes the tokens.
+     */
+    private static final int RATE = 1_000_000_000;
+
+    @State(Scope.Thread)
+    public static class Client {
+        final TokenBucket bucket = new TokenBucket(RATE);
+    }
+
+    @State(Scope.Benchmark)
+    public static class Room {
+        final TokenBucket bucket = new TokenBucket(RATE);
+    }
+
+    @Benchmark
+    public boolean clientBucket(final Client client) {
+        return client.bucket.tryTake(1, System.nanoTime());
+    }
+
+    @Benchmark
+    public boolean roomBucket(final Room room) {
+        return room.bucket.tryTake(1, System.nanoTime());
+    }
+}
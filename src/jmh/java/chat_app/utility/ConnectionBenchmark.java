@@ -0,0 +1,76 @@
+package chat_app.utility;
+
+import chat_app.transfer_object.Message;
+import chat_app.transfer_object.MessageType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One message from {@link Connection#send(Message)} to {@link Connection#receive()} over a loopback socket pair,
+ * encoding, the system calls and decoding included.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ConnectionBenchmark {
+
+    /**
+     * Characters of the payload.
+     */
+    @Param({"16", "1024"})
+    public int payloadLength;
+
+    private Connection client;
+
+    private Connection server;
+
+    private Message message;
+
+    @Setup
+    public void setUp() throws Exception {
+        try (ServerSocket listener = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            // both sides wait for the preamble of the other one
+            final CompletableFuture<Connection> accepted = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return Connection.to(listener.accept());
+                } catch (final IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+            client = Connection.to(listener.getInetAddress().getHostAddress(), listener.getLocalPort());
+            server = accepted.get(10, TimeUnit.SECONDS);
+        }
+        message = new Message(MessageType.MESSAGE, "x".repeat(payloadLength), System.currentTimeMillis());
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.kill();
+        server.kill();
+    }
+
+    @Benchmark
+    public Message sendReceive() throws IOException {
+        client.send(message);
+        return server.receive();
+    }
+}
@@ -0,0 +1,56 @@
+package chat_app.utility;
+
+import chat_app.transfer_object.Message;
+import chat_app.transfer_object.MessageType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the JSON mapping that every message of the object stream format goes through.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JSONBenchmark {
+
+    /**
+     * Characters of the payload.
+     */
+    @Param({"16", "1024"})
+    public int payloadLength;
+
+    private Message message;
+
+    private byte[] json;
+
+    @Setup
+    public void setUp() throws IOException {
+        message = new Message(MessageType.MESSAGE, "x".repeat(payloadLength), System.currentTimeMillis());
+        json = JSON.format(message);
+    }
+
+    @Benchmark
+    public byte[] format() throws IOException {
+        return JSON.format(message);
+    }
+
+    @Benchmark
+    public Message parse() throws IOException {
+        return JSON.parse(json, 0, json.length);
+    }
+}
@@ -1,18 +1,19 @@
 package chat_app;
 
 import chat_app.client.ClientMain;
+import chat_app.loadtest.LoadTestMain;
 import chat_app.server.ServerMain;
 
 import java.util.Arrays;
 import java.util.Objects;
 
 /**
- * Main application for server and client.
+ * Main application for server, client and load test.
  */
 public class MainApp {
 
     /**
-     * Starts server and client.
+     * Starts server, client or load test.
      */
     public static void main(String[] args) {
 
@@ -23,6 +24,8 @@ public class MainApp {
                 ServerMain.main(newArgs);
             } else if (Objects.equals(args[0], "Client")) {
                 ClientMain.main(newArgs);
+            } else if (Objects.equals(args[0], "LoadTest")) {
+                LoadTestMain.main(newArgs);
             } else {
                 usage();
             }
@@ -33,11 +36,12 @@ public class MainApp {
     }
 
     /**
-     * Shows full usage format server and client.
+     * Shows full usage format server, client and load test.
      */
     private static void usage() {
         ServerMain.usage();
         ClientMain.usage();
+        LoadTestMain.usage();
     }
 
 }
@@ -1,15 +1,24 @@
 package chat_app.client;
 
+import chat_app.transfer_object.ListPage;
 import chat_app.transfer_object.Message;
+import chat_app.transfer_object.MessageType;
+import chat_app.transfer_object.SessionTicket;
 import chat_app.utility.Connection;
+import chat_app.utility.FramedCodec;
+import chat_app.utility.ThreadMode;
 import com.google.common.base.Preconditions;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
- * Is the chat-client for the user. Connects to the server and can send messages.
+ * Is the chat-client for the user. Connects to the server and can send messages. <br/>
+ * When the connection is lost, the client reconnects with exponential backoff and resumes its session with the
+ * ticket the server sent last, so it only gets the messages it has missed. The backoff is drawn at random up to its
+ * limit, so clients that lost the same server don't come back all at once.
  *
  * @see ServerListener
  */
@@ -17,9 +26,65 @@ class ClientEntity {
     private static final Logger LOG = Logger.getLogger(ClientEntity.class);
 
     /**
-     * Connection.
+     * System property that turns off the offer of compression, e.g. for servers that don't know it yet.
      */
-    Connection connection;
+    static final String COMPRESSION = "chat.client.compression";
+
+    /**
+     * System property with the number of reconnect attempts after the connection was lost, 0 to give up at once.
+     */
+    static final String RECONNECT_ATTEMPTS = "chat.client.reconnect.attempts";
+
+    /**
+     * Limit of the backoff before the first reconnect attempt in milliseconds, doubled with each attempt.
+     */
+    private static final long FIRST_BACKOFF = 500;
+
+    /**
+     * Highest limit of the backoff in milliseconds.
+     */
+    private static final long MAX_BACKOFF = 30000;
+
+    /**
+     * Connection, replaced when the client reconnects.
+     */
+    volatile Connection connection;
+
+    /**
+     * Address of the server.
+     */
+    private String address;
+
+    /**
+     * Port of the server.
+     */
+    private Integer port;
+
+    /**
+     * Resume token of the session, null until the server has sent one.
+     */
+    private volatile String token;
+
+    /**
+     * Name of the room the server has sent the last ticket for, empty until then.
+     */
+    @NotNull
+    private volatile String room = "";
+
+    /**
+     * Sequence number of the last message of the room the client has received.
+     */
+    private volatile long lastSequence;
+
+    /**
+     * True, once the user has logged out.
+     */
+    private volatile boolean loggedOut;
+
+    /**
+     * True, once the user has logged out or the server couldn't be reached again.
+     */
+    private volatile boolean closed;
 
     /**
      * Name of the user.
@@ -27,14 +92,32 @@ class ClientEntity {
     private String username;
 
     /**
-     * Constructor.
+     * Kind of thread the {@link ServerListener} runs on.
+     */
+    @NotNull
+    private ThreadMode threadMode;
+
+    /**
+     * Constructor for a listener on a platform thread.
      *
      * @param username Not null.
      */
     ClientEntity(@NotNull final String username) {
+        this(username, ThreadMode.PLATFORM);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param username   Not null.
+     * @param threadMode Kind of thread the {@link ServerListener} runs on. Not null.
+     */
+    ClientEntity(@NotNull final String username, @NotNull final ThreadMode threadMode) {
         Preconditions.checkNotNull(username, "username must not be null.");
+        Preconditions.checkNotNull(threadMode, "threadMode must not be null.");
 
         this.username = username;
+        this.threadMode = threadMode;
     }
 
     /**
@@ -49,17 +132,17 @@ class ClientEntity {
         Preconditions.checkNotNull(address, "address must not be null.");
         Preconditions.checkNotNull(port, "port must not be null.");
 
+        this.address = address;
+        this.port = port;
         // Try to connect
         try {
-            connection = Connection.to(address, port);
-            LOG.info("Connection accepted " + connection.getServerAddress() + ":" + connection.getPort());
+            connection = open();
         } catch (final IOException e) {
-            connection.kill();
             throw new ServerNotFoundException();
         }
 
         // Receives messages from server
-        new ServerListener(this).start();
+        threadMode.start(new ServerListener(this), "server-listener");
 
         // Send username to the server
         try {
@@ -69,6 +152,71 @@ class ClientEntity {
         }
     }
 
+    /**
+     * Connects again after the connection was lost and resumes the session, waiting a random backoff before each
+     * attempt.
+     *
+     * @return False, if the user has logged out or all attempts failed.
+     */
+    boolean reconnect() {
+        final int attempts = Integer.getInteger(RECONNECT_ATTEMPTS, 10);
+        for (int attempt = 0; attempt < attempts && !loggedOut; ++attempt) {
+            final long backoff = Math.min(MAX_BACKOFF, FIRST_BACKOFF << Math.min(attempt, 16));
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(backoff + 1));
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            final Connection reconnected;
+            try {
+                reconnected = open();
+            } catch (final IOException e) {
+                LOG.debug("Reconnect attempt " + (attempt + 1) + " failed", e);
+                continue;
+            }
+            try {
+                final String current = token;
+                reconnected.send(current == null ? new Message(username)
+                        : new Message(MessageType.RESUME,
+                        new SessionTicket(current, username, room, lastSequence).toJson()));
+            } catch (final IOException e) {
+                reconnected.kill();
+                LOG.debug("Reconnect attempt " + (attempt + 1) + " failed", e);
+                continue;
+            }
+            connection = reconnected;
+            return true;
+        }
+        closed = true;
+        return false;
+    }
+
+    /**
+     * @return True, once the user has logged out or the server couldn't be reached again.
+     */
+    boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * @return True, once the user has logged out.
+     */
+    boolean isLoggedOut() {
+        return loggedOut;
+    }
+
+    /**
+     * Opens a connection to the server.
+     */
+    @NotNull
+    private Connection open() throws IOException {
+        final Connection opened = Connection.to(address, port,
+                Boolean.parseBoolean(System.getProperty(COMPRESSION, "true")) ? FramedCodec.COMPRESSED : null);
+        LOG.info("Connection accepted " + opened.getServerAddress() + ":" + opened.getPort());
+        return opened;
+    }
+
     /**
      * To send transfer_object to serverAddress.
      *
@@ -77,11 +225,46 @@ class ClientEntity {
     void sendMessage(@NotNull final Message message) {
         Preconditions.checkNotNull(message, "message must not be null.");
 
+        if (message.getType() == MessageType.LOGOUT) {
+            loggedOut = true;
+            closed = true;
+        }
         try {
             connection.send(message);
         } catch (IOException e) {
             LOG.error("Error:", e);
+            display("Not connected, the message wasn't sent.");
+        }
+    }
+
+    /**
+     * Answers pings, keeps the ticket and the sequence number of a message from the server and displays it.
+     *
+     * @param message Not null.
+     */
+    void receive(@NotNull final Message message) {
+        Preconditions.checkNotNull(message, "message must not be null.");
+
+        if (message.getType() == MessageType.PING) {
+            sendMessage(new Message(MessageType.PONG));
+            return;
+        }
+        if (message.getType() == MessageType.SESSION) {
+            try {
+                final SessionTicket ticket = SessionTicket.fromJson(message.getPayload());
+                token = ticket.getToken();
+                room = ticket.getRoom();
+                // a new room counts on its own
+                lastSequence = ticket.getSequence();
+            } catch (final IOException e) {
+                LOG.debug("Couldn't read session ticket", e);
+            }
+            return;
         }
+        if (message.getSequence() > lastSequence) {
+            lastSequence = message.getSequence();
+        }
+        display(message);
     }
 
     /**
@@ -103,6 +286,18 @@ class ClientEntity {
     void display(@NotNull final Message message) {
         Preconditions.checkNotNull(message, "message must not be null.");
 
-        System.out.println(message.getPayload());
+        switch (message.getType()) {
+            case WHO_IS_IN:
+            case AVAILABLE_ROOMS:
+                try {
+                    System.out.print(ListPage.fromJson(message.getPayload()).render());
+                } catch (final IOException e) {
+                    LOG.debug("Couldn't read list", e);
+                    System.out.println(message.getPayload());
+                }
+                break;
+            default:
+                System.out.println(message.getPayload());
+        }
     }
 }
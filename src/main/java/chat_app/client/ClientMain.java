@@ -2,6 +2,7 @@ package chat_app.client;
 
 import chat_app.transfer_object.Message;
 import chat_app.transfer_object.MessageType;
+import chat_app.utility.ThreadMode;
 import org.apache.log4j.Logger;
 
 import java.util.Scanner;
@@ -9,16 +10,17 @@ import java.util.Scanner;
 /**
  * <p>
  * To connect the Client in console mode use one of the following command <br />
- * > java ClientEntity [username] [port] [serverAddress]
+ * > java ClientEntity [username] [port] [serverAddress] [threads]
  * </p><p>
  * <b>Defaults:</b>
  * - portNumber is 1500 <br />
  * - address is "localhost" <br />
- * - username is "Anonymous"
+ * - username is "Anonymous" <br />
+ * - threads is "platform", "virtual" runs the listener on a virtual thread
  * </p><p>
  * > java Client <br />
  * is equivalent to <br />
- * > java Client Anonymous 1500 localhost <br />
+ * > java Client Anonymous 1500 localhost platform <br />
  * </p>
  */
 public class ClientMain {
@@ -31,8 +33,17 @@ public class ClientMain {
         int portNumber = 1500;
         String address = "localhost";
         String userName = "Anonymous";
+        ThreadMode threadMode = ThreadMode.PLATFORM;
 
         switch (args.length) {
+            case 4:
+                try {
+                    threadMode = ThreadMode.valueOf(args[3].toUpperCase());
+                } catch (final IllegalArgumentException e) {
+                    LOG.info("Invalid thread mode.");
+                    usage();
+                    return;
+                }
             case 3:
                 address = args[2];
             case 2:
@@ -51,7 +62,7 @@ public class ClientMain {
                 usage();
                 return;
         }
-        ClientEntity client = new ClientEntity(userName);
+        ClientEntity client = new ClientEntity(userName, threadMode);
 
         // Connect to server
         try {
@@ -63,7 +74,7 @@ public class ClientMain {
 
         // wait for messages from user
         Scanner scan = new Scanner(System.in);
-        while (client.connection.isActive()) {
+        while (!client.isClosed()) {
             if (scan.hasNext()) {
                 System.out.print("> ");
                 String msg = scan.nextLine();
@@ -75,13 +86,16 @@ public class ClientMain {
                     command = (msgInWords[0]);
                     nameOfRoom = (msgInWords[1]);
                 }
+                // list commands may be followed by offset=N limit=N prefix=NAME
+                final String[] listCommand = msg.trim().split("\\s+", 2);
+                final String listQuery = listCommand.length == 2 ? listCommand[1] : "";
 
                 if (msg.equalsIgnoreCase("LOGOUT")) {
                     client.sendMessage(new Message(MessageType.LOGOUT));
                     break;
 
-                } else if (msg.equalsIgnoreCase("WHOISIN")) {
-                    client.sendMessage(new Message(MessageType.WHO_IS_IN));
+                } else if (listCommand[0].equalsIgnoreCase("WHOISIN")) {
+                    client.sendMessage(new Message(MessageType.WHO_IS_IN, listQuery));
 
                 } else if (command.equalsIgnoreCase("SWITCH")) {
                     client.sendMessage(new Message(MessageType.SWITCH_ROOM, nameOfRoom));
@@ -92,8 +106,16 @@ public class ClientMain {
                 } else if (msg.equalsIgnoreCase("HELP")) {
                     client.sendMessage(new Message(MessageType.HELP));
 
-                } else if (msg.equalsIgnoreCase("AVAILABLE")) {
-                    client.sendMessage(new Message(MessageType.AVAILABLE_ROOMS));
+                } else if (listCommand[0].equalsIgnoreCase("STATS")) {
+                    // followed by the admin secret
+                    client.sendMessage(new Message(MessageType.STATS, listQuery));
+
+                } else if (listCommand[0].equalsIgnoreCase("AVAILABLE")) {
+                    client.sendMessage(new Message(MessageType.AVAILABLE_ROOMS, listQuery));
+
+                } else if (listCommand[0].equalsIgnoreCase("DM")) {
+                    // username and text
+                    client.sendMessage(new Message(MessageType.DIRECT, listQuery));
 
                 } else {
                     client.sendMessage(new Message(MessageType.MESSAGE, msg));
@@ -103,7 +125,7 @@ public class ClientMain {
     }
 
     public static void usage() {
-        System.out.println("ClientEntity usage: > java Client [username] [port] [address]");
+        System.out.println("ClientEntity usage: > java Client [username] [port] [address] [platform|virtual]");
     }
 
 }
\ No newline at end of file
@@ -4,9 +4,9 @@ import com.google.common.base.Preconditions;
 import org.jetbrains.annotations.NotNull;
 
 /**
- * Listens to the server for incoming messages and displays it to the client.
+ * Listens to the server for incoming messages and displays it to the client. Reconnects when the connection is lost.
  */
-class ServerListener extends Thread {
+class ServerListener implements Runnable {
 
     /**
      * Holds client reference.
@@ -26,15 +26,21 @@ class ServerListener extends Thread {
     }
 
     /**
-     * @see Thread#run()
+     * @see Runnable#run()
      */
     public void run() {
         while (client.connection.isActive()) {
             try {
-                client.display(client.connection.receive());
+                client.receive(client.connection.receive());
             } catch (final Exception e) {
-                client.display("Server has closed the connection!");
                 client.connection.kill();
+                if (client.isLoggedOut()) {
+                    break;
+                }
+                client.display("Lost the connection to the server, reconnecting...");
+                if (!client.reconnect()) {
+                    client.display("Server has closed the connection!");
+                }
             }
         }
     }
@@ -0,0 +1,217 @@
+package chat_app.loadtest;
+
+import chat_app.transfer_object.Message;
+import chat_app.transfer_object.MessageType;
+import chat_app.utility.Connection;
+import chat_app.utility.FramedCodec;
+import com.google.common.base.Preconditions;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Simulated client of a {@link LoadTest}. One thread sends requests at random times with the configured rate, one
+ * reads everything the server sends. <br/>
+ * Each message carries the time it was due, so a delivery latency includes the time a sender fell behind and the
+ * measurement isn't flattered by a slow server holding up the senders.
+ */
+class Bot {
+    private static final Logger LOG = Logger.getLogger(Bot.class);
+
+    /**
+     * Marks the due time in a message payload.
+     */
+    static final String STAMP = "lt:";
+
+    /**
+     * Holds the test the bot belongs to.
+     */
+    @NotNull
+    private final LoadTest test;
+
+    /**
+     * Holds the number of the bot.
+     */
+    private final int id;
+
+    /**
+     * Holds the connection to the server.
+     */
+    @NotNull
+    private final Connection connection;
+
+    /**
+     * Due times of the WHO_IS_IN requests that wait for their answer, in order.
+     */
+    @NotNull
+    private final Queue<Long> pendingWhoIsIn = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Due time of the last room switch. Messages due before it are replays of the room history.
+     */
+    private volatile long enteredAt;
+
+    /**
+     * Constructor. Connects and logs in.
+     *
+     * @param test Test the bot belongs to. Not null.
+     * @param id   Number of the bot.
+     * @throws IOException If the server can't be reached.
+     */
+    Bot(@NotNull final LoadTest test, final int id) throws IOException {
+        Preconditions.checkNotNull(test, "test must not be null.");
+
+        this.test = test;
+        this.id = id;
+        this.connection = Connection.to("localhost", test.getConfig().getPort(),
+                test.getConfig().isCompress() ? FramedCodec.COMPRESSED : null);
+        connection.send("bot-" + id);
+        switchRoom(test.roomName(id), System.nanoTime());
+    }
+
+    /**
+     * Starts the sender and the reader.
+     */
+    void start() {
+        test.getConfig().getThreads().start(this::receive, "bot-reader-" + id);
+        test.getConfig().getThreads().start(this::drive, "bot-" + id);
+    }
+
+    /**
+     * Logs out and closes the connection.
+     */
+    void close() {
+        try {
+            connection.send(new Message(MessageType.LOGOUT));
+        } catch (final IOException ignored) {
+            // the connection is closed anyway
+        }
+        connection.kill();
+    }
+
+    /**
+     * Sends requests until the test ends. The gaps between them are exponentially distributed.
+     */
+    private void drive() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final double meanGap = 1e9 / test.getConfig().getRate();
+        long due = System.nanoTime() + (long) (-Math.log(1 - random.nextDouble()) * meanGap);
+        while (test.isRunning()) {
+            final long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            try {
+                final MessageType type = test.getConfig().nextType(random);
+                switch (type) {
+                    case SWITCH_ROOM:
+                        switchRoom(test.roomName(random.nextInt(test.getConfig().getRooms())), due);
+                        test.countSwitch(due);
+                        break;
+                    case WHO_IS_IN:
+                        pendingWhoIsIn.add(due);
+                        connection.send(new Message(MessageType.WHO_IS_IN));
+                        break;
+                    case DIRECT:
+                        connection.send(new Message(MessageType.DIRECT,
+                                "bot-" + otherBot(random) + " " + STAMP + due + ":" + test.getPadding()));
+                        test.countMessage(due);
+                        break;
+                    default:
+                        connection.send(new Message(MessageType.MESSAGE, STAMP + due + ":" + test.getPadding()));
+                        test.countMessage(due);
+                }
+            } catch (final IOException e) {
+                if (test.isRunning()) {
+                    LOG.debug("bot-" + id + " couldn't send", e);
+                    test.countError();
+                }
+                return;
+            }
+            due += (long) (-Math.log(1 - random.nextDouble()) * meanGap);
+        }
+    }
+
+    /**
+     * Reads until the connection is closed and records the latencies.
+     */
+    private void receive() {
+        try {
+            while (true) {
+                final Message message = connection.receive();
+                final long now = System.nanoTime();
+                if (message.getType() == MessageType.PING) {
+                    connection.send(new Message(MessageType.PONG));
+                } else if (message.getType() == MessageType.WHO_IS_IN) {
+                    final Long due = pendingWhoIsIn.poll();
+                    if (due != null) {
+                        test.recordWhoIsIn(due, now);
+                    }
+                } else if (message.getType() == MessageType.MESSAGE) {
+                    receiveMessage(message.getPayload(), now, enteredAt);
+                } else if (message.getType() == MessageType.DIRECT
+                        && !message.getPayload().contains(" bot-" + id + " -> ")) {
+                    // the echo of an own direct message is no delivery, room switches don't matter
+                    receiveMessage(message.getPayload(), now, Long.MIN_VALUE);
+                }
+            }
+        } catch (final IOException e) {
+            if (test.isRunning()) {
+                LOG.debug("bot-" + id + " lost the connection", e);
+                test.countError();
+            }
+        }
+    }
+
+    /**
+     * Records the delivery of a stamped message or counts a complaint of the server.
+     *
+     * @param since Messages due before are not recorded, they were sent to a room the bot has left since.
+     */
+    private void receiveMessage(@NotNull final String payload, final long now, final long since) {
+        final int stamp = payload.indexOf(STAMP);
+        if (stamp < 0) {
+            if (payload.startsWith("Sorry")) {
+                test.countError();
+            }
+            return;
+        }
+        final int start = stamp + STAMP.length();
+        final int end = payload.indexOf(':', start);
+        if (end < 0) {
+            return;
+        }
+        final long due;
+        try {
+            due = Long.parseLong(payload, start, end, 10);
+        } catch (final NumberFormatException e) {
+            return;
+        }
+        if (due >= since) {
+            test.recordDelivery(due, now);
+        }
+    }
+
+    /**
+     * @return Id of a random bot other than this one, unless it is the only one.
+     */
+    private int otherBot(@NotNull final ThreadLocalRandom random) {
+        final int clients = test.getConfig().getClients();
+        final int other = random.nextInt(clients);
+        return other == id ? (other + 1) % clients : other;
+    }
+
+    /**
+     * Enters another room.
+     */
+    private void switchRoom(@NotNull final String room, final long due) throws IOException {
+        enteredAt = due;
+        connection.send(new Message(MessageType.SWITCH_ROOM, room));
+    }
+}
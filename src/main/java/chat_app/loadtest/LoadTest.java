@@ -0,0 +1,273 @@
+package chat_app.loadtest;
+
+import chat_app.transfer_object.Message;
+import chat_app.transfer_object.MessageType;
+import chat_app.utility.Connection;
+import chat_app.utility.LatencyHistogram;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drives {@link Bot bots} against a server on localhost and reports what they measured. <br/>
+ * Rooms are created first, then the bots connect one after the other, so the handshake slots of the server aren't
+ * exceeded. All bots then send for the warmup and the duration; only requests due after the warmup are counted.
+ */
+class LoadTest {
+    private static final Logger LOG = Logger.getLogger(LoadTest.class);
+
+    /**
+     * Seconds between two progress lines.
+     */
+    private static final int PROGRESS_INTERVAL = 5;
+
+    /**
+     * Milliseconds the bots may still receive after the last request.
+     */
+    private static final long DRAIN_TIME = 1000;
+
+    /**
+     * Holds the settings.
+     */
+    @NotNull
+    private final LoadTestConfig config;
+
+    /**
+     * Holds where the report goes.
+     */
+    @NotNull
+    private final PrintStream out;
+
+    /**
+     * Holds the padding of each message.
+     */
+    @NotNull
+    private final String padding;
+
+    /**
+     * Time from which on requests are counted.
+     */
+    private volatile long recordFrom = Long.MAX_VALUE;
+
+    /**
+     * Will be turned off to stop the bots.
+     */
+    private volatile boolean running;
+
+    @NotNull
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+
+    @NotNull
+    private final LatencyHistogram whoIsInLatency = new LatencyHistogram();
+
+    @NotNull
+    private final LongAdder messages = new LongAdder();
+
+    @NotNull
+    private final LongAdder switches = new LongAdder();
+
+    @NotNull
+    private final LongAdder deliveries = new LongAdder();
+
+    @NotNull
+    private final LongAdder errors = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param config Settings. Not null.
+     * @param out    Where the report goes. Not null.
+     */
+    LoadTest(@NotNull final LoadTestConfig config, @NotNull final PrintStream out) {
+        Preconditions.checkNotNull(config, "config must not be null.");
+        Preconditions.checkNotNull(out, "out must not be null.");
+
+        this.config = config;
+        this.out = out;
+        this.padding = Strings.repeat("x", config.getSize());
+    }
+
+    /**
+     * Runs the test and prints the report. Blocks until it is done.
+     */
+    void run() throws InterruptedException {
+        out.println("Load test with " + config);
+        try {
+            createRooms();
+        } catch (final IOException e) {
+            out.println("Can't reach the server on localhost:" + config.getPort() + ": " + e.getMessage());
+            return;
+        }
+
+        final List<Bot> bots = new ArrayList<>(config.getClients());
+        final long connectStart = System.nanoTime();
+        for (int i = 0; i < config.getClients(); ++i) {
+            try {
+                bots.add(new Bot(this, i));
+            } catch (final IOException e) {
+                LOG.debug("bot-" + i + " couldn't connect", e);
+                errors.increment();
+            }
+        }
+        out.printf("Connected %d bots in %d ms, %d failed%n", bots.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - connectStart), config.getClients() - bots.size());
+        if (bots.isEmpty()) {
+            return;
+        }
+
+        running = true;
+        recordFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(config.getWarmup());
+        for (final Bot bot : bots) {
+            bot.start();
+        }
+        final long end = recordFrom + TimeUnit.SECONDS.toNanos(config.getDuration());
+        long lastMessages = 0;
+        long lastDeliveries = 0;
+        while (System.nanoTime() < end) {
+            TimeUnit.NANOSECONDS.sleep(Math.min(TimeUnit.SECONDS.toNanos(PROGRESS_INTERVAL), end - System.nanoTime()));
+            final long sent = messages.sum();
+            final long delivered = deliveries.sum();
+            out.printf("... %d messages sent, %d delivered, %d errors%s%n", sent - lastMessages,
+                    delivered - lastDeliveries, errors.sum(), System.nanoTime() < recordFrom ? " (warmup)" : "");
+            lastMessages = sent;
+            lastDeliveries = delivered;
+        }
+
+        running = false;
+        Thread.sleep(DRAIN_TIME);
+        for (final Bot bot : bots) {
+            bot.close();
+        }
+        report();
+    }
+
+    /**
+     * @return Name of a room the bots use. Not null.
+     */
+    @NotNull
+    String roomName(final int index) {
+        return "load-" + (index % config.getRooms());
+    }
+
+    /**
+     * @return Settings. Not null.
+     */
+    @NotNull
+    LoadTestConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return Padding of each message. Not null.
+     */
+    @NotNull
+    String getPadding() {
+        return padding;
+    }
+
+    /**
+     * @return True, while the bots should send.
+     */
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Counts a sent message.
+     *
+     * @param due Time the message was due.
+     */
+    void countMessage(final long due) {
+        if (due >= recordFrom) {
+            messages.increment();
+        }
+    }
+
+    /**
+     * Counts a room switch.
+     *
+     * @param due Time the switch was due.
+     */
+    void countSwitch(final long due) {
+        if (due >= recordFrom) {
+            switches.increment();
+        }
+    }
+
+    /**
+     * Counts a failure: a lost connection or a complaint of the server.
+     */
+    void countError() {
+        errors.increment();
+    }
+
+    /**
+     * Records a message that reached a bot.
+     *
+     * @param due      Time the message was due.
+     * @param received Time it arrived.
+     */
+    void recordDelivery(final long due, final long received) {
+        if (due >= recordFrom) {
+            deliveries.increment();
+            deliveryLatency.record(received - due);
+        }
+    }
+
+    /**
+     * Records an answer to WHO_IS_IN.
+     *
+     * @param due      Time the request was due.
+     * @param received Time the answer arrived.
+     */
+    void recordWhoIsIn(final long due, final long received) {
+        if (due >= recordFrom) {
+            whoIsInLatency.record(received - due);
+        }
+    }
+
+    /**
+     * Creates the rooms on a connection of its own and waits for the answers.
+     */
+    private void createRooms() throws IOException {
+        final Connection connection = Connection.to("localhost", config.getPort());
+        try {
+            connection.send("load-test");
+            for (int i = 0; i < config.getRooms(); ++i) {
+                connection.send(new Message(MessageType.CREATE_ROOM, roomName(i)));
+            }
+            int answers = 0;
+            while (answers < config.getRooms()) {
+                final String payload = connection.receive().getPayload();
+                if (payload.startsWith("Created Room ") || payload.endsWith(" exists already")) {
+                    ++answers;
+                }
+            }
+            connection.send(new Message(MessageType.LOGOUT));
+        } finally {
+            connection.kill();
+        }
+    }
+
+    /**
+     * Prints the counts and latencies of the measured period.
+     */
+    private void report() {
+        final double seconds = config.getDuration();
+        out.println("Results of " + config.getDuration() + " s after " + config.getWarmup() + " s warmup:");
+        out.printf("Sent:      %d messages (%.1f/s), %d room switches, %d who-is-in%n",
+                messages.sum(), messages.sum() / seconds, switches.sum(), whoIsInLatency.getCount());
+        out.printf("Delivered: %d messages (%.1f/s)%n", deliveries.sum(), deliveries.sum() / seconds);
+        out.println("Delivery latency:   " + deliveryLatency.summary());
+        out.println("Who-is-in latency:  " + whoIsInLatency.summary());
+        out.println("Errors:    " + errors.sum());
+    }
+}
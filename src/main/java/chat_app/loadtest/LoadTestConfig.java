@@ -0,0 +1,292 @@
+package chat_app.loadtest;
+
+import chat_app.transfer_object.MessageType;
+import chat_app.utility.ThreadMode;
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Settings of a load test, given as {@code name=value} arguments, e.g.
+ * {@code clients=2000 rooms=20 rate=2 mix=message:90,switch_room:5,who_is_in:5}. Missing ones get their default.
+ */
+class LoadTestConfig {
+
+    /**
+     * Message types a bot sends.
+     */
+    private static final MessageType[] MIXABLE = {
+            MessageType.MESSAGE, MessageType.SWITCH_ROOM, MessageType.WHO_IS_IN, MessageType.DIRECT};
+
+    /**
+     * Port of the server on localhost.
+     */
+    private int port = 1500;
+
+    /**
+     * Number of bots.
+     */
+    private int clients = 1000;
+
+    /**
+     * Number of rooms the bots spread over.
+     */
+    private int rooms = 10;
+
+    /**
+     * Requests per second of each bot.
+     */
+    private double rate = 1;
+
+    /**
+     * Seconds the test runs after the warmup.
+     */
+    private int duration = 60;
+
+    /**
+     * Seconds of traffic before latencies are recorded.
+     */
+    private int warmup = 5;
+
+    /**
+     * Bytes of padding in each message.
+     */
+    private int size = 64;
+
+    /**
+     * Kind of thread each bot runs on.
+     */
+    @NotNull
+    private ThreadMode threads = ThreadMode.VIRTUAL;
+
+    /**
+     * Whether the bots offer compression.
+     */
+    private boolean compress;
+
+    /**
+     * Weight of each message type.
+     */
+    @NotNull
+    private final Map<MessageType, Integer> mix = new EnumMap<>(MessageType.class);
+
+    /**
+     * Sum of the weights.
+     */
+    private int totalWeight;
+
+    private LoadTestConfig() {
+        mix.put(MessageType.MESSAGE, 90);
+        mix.put(MessageType.SWITCH_ROOM, 5);
+        mix.put(MessageType.WHO_IS_IN, 5);
+        totalWeight = 100;
+    }
+
+    /**
+     * Reads the settings.
+     *
+     * @param args Settings as {@code name=value}. Not null.
+     * @return Not null.
+     * @throws IllegalArgumentException If a setting is unknown or invalid.
+     */
+    @NotNull
+    static LoadTestConfig parse(@NotNull final String[] args) {
+        Preconditions.checkNotNull(args, "args must not be null.");
+
+        final LoadTestConfig config = new LoadTestConfig();
+        for (final String setting : args) {
+            final int separator = setting.indexOf('=');
+            Preconditions.checkArgument(separator > 0, "expected name=value instead of %s", setting);
+            final String name = setting.substring(0, separator).toLowerCase(Locale.ROOT);
+            final String value = setting.substring(separator + 1);
+            switch (name) {
+                case "port":
+                    config.port = number(name, value, 1);
+                    break;
+                case "clients":
+                    config.clients = number(name, value, 1);
+                    break;
+                case "rooms":
+                    config.rooms = number(name, value, 1);
+                    break;
+                case "rate":
+                    try {
+                        config.rate = Double.parseDouble(value);
+                    } catch (final NumberFormatException e) {
+                        throw new IllegalArgumentException("rate is not a number: " + value, e);
+                    }
+                    Preconditions.checkArgument(config.rate > 0, "rate must be positive: %s", value);
+                    break;
+                case "duration":
+                    config.duration = number(name, value, 1);
+                    break;
+                case "warmup":
+                    config.warmup = number(name, value, 0);
+                    break;
+                case "size":
+                    config.size = number(name, value, 0);
+                    break;
+                case "threads":
+                    try {
+                        config.threads = ThreadMode.valueOf(value.toUpperCase(Locale.ROOT));
+                    } catch (final IllegalArgumentException e) {
+                        throw new IllegalArgumentException("threads must be platform or virtual: " + value, e);
+                    }
+                    break;
+                case "compress":
+                    Preconditions.checkArgument(value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false"),
+                            "compress must be true or false: %s", value);
+                    config.compress = Boolean.parseBoolean(value);
+                    break;
+                case "mix":
+                    config.parseMix(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown setting " + name);
+            }
+        }
+        return config;
+    }
+
+    /**
+     * Draws the type of the next request by the weights of the mix.
+     *
+     * @param random Not null.
+     * @return MESSAGE, SWITCH_ROOM, WHO_IS_IN or DIRECT. Not null.
+     */
+    @NotNull
+    MessageType nextType(@NotNull final Random random) {
+        int draw = random.nextInt(totalWeight);
+        for (final Map.Entry<MessageType, Integer> entry : mix.entrySet()) {
+            draw -= entry.getValue();
+            if (draw < 0) {
+                return entry.getKey();
+            }
+        }
+        return MessageType.MESSAGE;
+    }
+
+    /**
+     * @return Port of the server on localhost.
+     */
+    int getPort() {
+        return port;
+    }
+
+    /**
+     * @return Number of bots.
+     */
+    int getClients() {
+        return clients;
+    }
+
+    /**
+     * @return Number of rooms the bots spread over.
+     */
+    int getRooms() {
+        return rooms;
+    }
+
+    /**
+     * @return Requests per second of each bot.
+     */
+    double getRate() {
+        return rate;
+    }
+
+    /**
+     * @return Seconds the test runs after the warmup.
+     */
+    int getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return Seconds of traffic before latencies are recorded.
+     */
+    int getWarmup() {
+        return warmup;
+    }
+
+    /**
+     * @return Bytes of padding in each message.
+     */
+    int getSize() {
+        return size;
+    }
+
+    /**
+     * @return Kind of thread each bot runs on. Not null.
+     */
+    @NotNull
+    ThreadMode getThreads() {
+        return threads;
+    }
+
+    /**
+     * @return True, if the bots offer compression.
+     */
+    boolean isCompress() {
+        return compress;
+    }
+
+    @Override
+    public String toString() {
+        return "port=" + port + " clients=" + clients + " rooms=" + rooms + " rate=" + rate
+                + " duration=" + duration + " warmup=" + warmup + " size=" + size
+                + " threads=" + threads.name().toLowerCase(Locale.ROOT) + " compress=" + compress + " mix=" + mix;
+    }
+
+    /**
+     * Reads weights like {@code message:90,who_is_in:10}. Types that aren't named get 0.
+     */
+    private void parseMix(@NotNull final String value) {
+        mix.clear();
+        totalWeight = 0;
+        for (final String part : value.split(",")) {
+            final String[] typeAndWeight = part.split(":");
+            Preconditions.checkArgument(typeAndWeight.length == 2, "expected type:weight instead of %s", part);
+            final MessageType type;
+            try {
+                type = MessageType.valueOf(typeAndWeight[0].trim().toUpperCase(Locale.ROOT));
+            } catch (final IllegalArgumentException e) {
+                throw new IllegalArgumentException("unknown message type " + typeAndWeight[0], e);
+            }
+            Preconditions.checkArgument(isMixable(type), "%s can't be mixed", type);
+            final int weight = number("mix", typeAndWeight[1].trim(), 0);
+            mix.put(type, weight);
+            totalWeight += weight;
+        }
+        Preconditions.checkArgument(totalWeight > 0, "mix needs a positive weight");
+    }
+
+    /**
+     * @return True, if bots send this type.
+     */
+    private static boolean isMixable(@NotNull final MessageType type) {
+        for (final MessageType mixable : MIXABLE) {
+            if (mixable == type) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return Number setting of at least the minimum.
+     */
+    private static int number(@NotNull final String name, @NotNull final String value, final int min) {
+        final int parsed;
+        try {
+            parsed = Integer.parseInt(value);
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException(name + " is not a number: " + value, e);
+        }
+        Preconditions.checkArgument(parsed >= min, "%s must be at least %s: %s", name, min, value);
+        return parsed;
+    }
+}
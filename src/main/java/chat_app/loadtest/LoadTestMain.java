@@ -0,0 +1,50 @@
+package chat_app.loadtest;
+
+/**
+ * Runs with:
+ * <p>> java LoadTest [name=value ...]</p>
+ * Simulates many clients against a server on localhost and reports latencies, throughput and errors. Settings:
+ * <ul>
+ * <li>port: port of the server, 1500</li>
+ * <li>clients: number of bots, 1000</li>
+ * <li>rooms: rooms the bots spread over, 10</li>
+ * <li>rate: requests per second of each bot, 1</li>
+ * <li>duration: seconds to measure, 60</li>
+ * <li>warmup: seconds before measuring, 5</li>
+ * <li>size: bytes of padding per message, 64</li>
+ * <li>threads: "platform" or "virtual" threads for the bots, virtual</li>
+ * <li>compress: whether the bots offer compression, false</li>
+ * <li>mix: weights of the requests of message, switch_room, who_is_in and direct, message:90,switch_room:5,who_is_in:5.
+ * direct sends direct messages to random bots.</li>
+ * </ul>
+ */
+public class LoadTestMain {
+
+    /**
+     * @see LoadTestMain
+     */
+    public static void main(String[] args) {
+        final LoadTestConfig config;
+        try {
+            config = LoadTestConfig.parse(args);
+        } catch (final IllegalArgumentException e) {
+            System.out.println("Invalid setting: " + e.getMessage());
+            usage();
+            return;
+        }
+
+        try {
+            new LoadTest(config, System.out).run();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // bots that are still blocked on their sockets don't hold up the exit
+        System.exit(0);
+    }
+
+    public static void usage() {
+        System.out.println("LoadTest usage: > java LoadTest [port=1500] [clients=1000] [rooms=10] [rate=1] "
+                + "[duration=60] [warmup=5] [size=64] [threads=platform|virtual] [compress=false] "
+                + "[mix=message:90,switch_room:5,who_is_in:5] (mix types: message, switch_room, who_is_in, direct)");
+    }
+}
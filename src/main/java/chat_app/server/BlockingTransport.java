@@ -0,0 +1,192 @@
+package chat_app.server;
+
+import chat_app.transfer_object.Message;
+import chat_app.utility.Connection;
+import chat_app.utility.ReceivingTransport;
+import chat_app.utility.EncodedMessage;
+import chat_app.utility.ThreadMode;
+import chat_app.utility.WireCodec;
+import com.google.common.base.Preconditions;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Queued connection for the blocking engine. The reader is the thread of the {@link ConnectedClient}, an own
+ * writer thread drains the {@link OutboundQueue} into the socket. <br/>
+ * The writer collects the queued messages and flushes them together, when the queue is empty, when
+ * {@link ServerConfig#getFlushBytes() enough bytes} are collected or when the
+ * {@link ServerConfig#getFlushDelay() flush delay} after the first message is over.
+ */
+class BlockingTransport extends OutboundTransport implements ReceivingTransport, Runnable {
+    private static final Logger LOG = Logger.getLogger(BlockingTransport.class);
+
+    /**
+     * Holds the blocking connection.
+     */
+    @NotNull
+    private final Connection connection;
+
+    /**
+     * Bytes collected at most before a flush.
+     */
+    private final int flushBytes;
+
+    /**
+     * Nanoseconds to wait for more messages before a flush.
+     */
+    private final long flushDelay;
+
+    /**
+     * Holds the metrics of the server.
+     */
+    @NotNull
+    private final ServerMetrics metrics;
+
+    /**
+     * Bytes read until the last message. Only used by the reader.
+     */
+    private long bytesRead;
+
+    /**
+     * Thread that writes the queued messages.
+     */
+    private volatile Thread writer;
+
+    /**
+     * Constructor.
+     *
+     * @param connection Blocking connection to the client. Not null.
+     * @param config     Server config with the queue settings. Not null.
+     * @param metrics    Metrics that count the bytes. Not null.
+     */
+    BlockingTransport(@NotNull final Connection connection,
+                      @NotNull final ServerConfig config,
+                      @NotNull final ServerMetrics metrics) {
+        this(connection, config, metrics, config.getOutboundCapacity(), config.getOverflowPolicy());
+    }
+
+    /**
+     * Constructor with queue settings of its own, e.g. for the link to another node.
+     *
+     * @param connection     Blocking connection to the peer. Not null.
+     * @param config         Server config with the flush settings. Not null.
+     * @param metrics        Metrics that count the bytes. Not null.
+     * @param capacity       Maximal number of queued messages.
+     * @param overflowPolicy Not null.
+     */
+    BlockingTransport(@NotNull final Connection connection,
+                      @NotNull final ServerConfig config,
+                      @NotNull final ServerMetrics metrics,
+                      final int capacity,
+                      @NotNull final OverflowPolicy overflowPolicy) {
+        super(capacity, overflowPolicy);
+        Preconditions.checkNotNull(connection, "connection must not be null.");
+        Preconditions.checkNotNull(metrics, "metrics must not be null.");
+
+        this.connection = connection;
+        this.metrics = metrics;
+        this.flushBytes = config.getFlushBytes();
+        this.flushDelay = TimeUnit.MICROSECONDS.toNanos(config.getFlushDelay());
+    }
+
+    /**
+     * Starts the writer.
+     *
+     * @param threadMode Kind of thread to write on. Not null.
+     * @param name       Name of the thread. Not null.
+     */
+    void startWriter(@NotNull final ThreadMode threadMode, @NotNull final String name) {
+        writer = threadMode.start(this, name);
+    }
+
+    /**
+     * Writes queued messages until the connection is closed.
+     *
+     * @see Runnable#run()
+     */
+    @Override
+    public void run() {
+        try {
+            while (connection.isActive()) {
+                writeBatch();
+                if (closing && outbound.size() == 0) {
+                    kill();
+                }
+            }
+        } catch (final InterruptedException ignored) {
+            // killed
+        } catch (final IOException e) {
+            LOG.debug("Couldn't write transfer_object to stream", e);
+            kill();
+        }
+    }
+
+    /**
+     * Waits for a message, writes it and all that follow in time and flushes them at once.
+     */
+    private void writeBatch() throws InterruptedException, IOException {
+        EncodedMessage message = outbound.take();
+        final long deadline = System.nanoTime() + flushDelay;
+        int collected = 0;
+        while (message != null) {
+            final byte[] frame = frame(message);
+            connection.writeFrame(frame);
+            collected += frame.length;
+            if (collected >= flushBytes) {
+                break;
+            }
+            final long remaining = deadline - System.nanoTime();
+            message = remaining > 0 ? outbound.poll(remaining) : outbound.poll();
+        }
+        connection.flush();
+        metrics.countBytesOut(collected);
+    }
+
+    @NotNull
+    @Override
+    public Message receive() throws IOException {
+        final Message message = connection.receive();
+        final long read = connection.getBytesRead();
+        metrics.countBytesIn(read - bytesRead);
+        bytesRead = read;
+        return message;
+    }
+
+    @Override
+    public boolean isActive() {
+        return connection.isActive();
+    }
+
+    /**
+     * Closes the connection and stops the writer.
+     */
+    @Override
+    public void kill() {
+        connection.kill();
+        final Thread writer = this.writer;
+        if (writer != null && writer != Thread.currentThread()) {
+            writer.interrupt();
+        }
+        outbound.clear();
+    }
+
+    @NotNull
+    @Override
+    WireCodec codec() {
+        return connection.getCodec();
+    }
+
+    @NotNull
+    @Override
+    String remoteAddress() {
+        return connection.getServerAddress() + ":" + connection.getPort();
+    }
+
+    @Override
+    void onEnqueued() {
+        // the writer waits on the queue
+    }
+}
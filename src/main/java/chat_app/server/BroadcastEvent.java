@@ -0,0 +1,36 @@
+package chat_app.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Threshold;
+
+/**
+ * Flight recorder event of a message a {@link ChatRoom} distributes to its members. <br/>
+ * Only fan-outs of a millisecond or longer are recorded by default, so a busy server can record all the time. Lower
+ * the threshold of the recording to see every message.
+ */
+@Name("chat_app.Broadcast")
+@Label("Broadcast")
+@Category({"Chat App", "Rooms"})
+@Description("Message queued for all members of a room")
+@Threshold("1 ms")
+class BroadcastEvent extends Event {
+
+    @Label("Room")
+    String room;
+
+    @Label("Members")
+    int members;
+
+    @Label("Delivered")
+    @Description("Members the message was queued for")
+    int delivered;
+
+    @Label("Frame Size")
+    @DataAmount
+    int bytes;
+}
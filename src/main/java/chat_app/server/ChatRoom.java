@@ -1,42 +1,97 @@
 package chat_app.server;
 
+import chat_app.transfer_object.Message;
+import chat_app.transfer_object.MessageType;
+import chat_app.transfer_object.SessionTicket;
 import chat_app.utility.Connection;
+import chat_app.utility.EncodedMessage;
+import chat_app.utility.FramedCodec;
 import com.google.common.base.Preconditions;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.text.SimpleDateFormat;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.Date;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Chat-Room holds connected clients and sends text messages to them.
+ * Chat-Room holds connected clients and sends text messages to them. <br/>
+ * The members are held in a concurrent map by client id, so entering and leaving take constant time and messages are
+ * distributed without a lock. A message distributed while a client enters or leaves may or may not reach it. <br/>
+ * With {@link RoomShards} the room belongs to one shard, which enters, leaves and distributes one after the other, so
+ * all members get the messages in the same order and a client gets the messages sent after its entrance. <br/>
+ * In a {@link Federation} the room also knows the members on the other nodes. Messages of local clients are relayed
+ * to the other nodes, which distribute them to their own members. <br/>
+ * Each distributed message gets the next sequence number of the room, which continues from the log after a restart.
+ * Numbering takes no lock: the history keeps each message in the slot of its number and the {@link RoomLog} puts
+ * messages that overtook each other back in order.
+ * A client that {@link ResumeStage resumes} its session gets the messages after the last number it has seen, from the
+ * history or, if the history doesn't reach back far enough, from the log.
  */
 class ChatRoom {
     private static final Logger LOG = Logger.getLogger(ChatRoom.class);
 
     /**
-     * Holds the list of the Clients.
+     * Holds the Clients by their id.
      */
-    private List<ConnectedClient> clients;
+    @NotNull
+    private final ConcurrentMap<Integer, ConnectedClient> clients = new ConcurrentHashMap<>();
 
     /**
-     * Holds the name of the chat room.
+     * Holds the members connected to other nodes by their {@link RoomMember#key(String, int) key}.
      */
-    private String name;
+    @NotNull
+    private final ConcurrentMap<String, RoomMember> remoteMembers = new ConcurrentHashMap<>();
 
     /**
-     * Holds date formatter for messages.
+     * Holds the name of the chat room.
      */
-    private SimpleDateFormat dateFormatter;
+    private String name;
 
     /**
      * Holds the server instance.
      */
     private ServerEntity server;
 
+    /**
+     * Holds the last messages, replayed to entering clients.
+     */
+    @NotNull
+    private final RoomHistory history;
+
+    /**
+     * Holds the log of the distributed messages, null if the server keeps none.
+     */
+    @Nullable
+    private final RoomLog log;
+
+    /**
+     * Holds the counters of the room.
+     */
+    @NotNull
+    private final RoomMetrics metrics;
+
+    /**
+     * Sequence number of the last distributed message, 0 before the first.
+     */
+    @NotNull
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Holds the limits of the messages all members send together, null for no limit.
+     */
+    @Nullable
+    private final TokenBucket messageBucket;
+
+    @Nullable
+    private final TokenBucket byteBucket;
+
     /**
      * Constructor.
      *
@@ -47,10 +102,37 @@ class ChatRoom {
         Preconditions.checkNotNull(server, "server must not be null.");
         Preconditions.checkNotNull(name, "name must not be null.");
 
-        clients = new ArrayList<>();
         this.name = name;
         this.server = server;
-        dateFormatter = new SimpleDateFormat("HH:mm:ss");
+        this.history = new RoomHistory(server.getConfig().getHistoryMessages(), server.getConfig().getHistoryBytes());
+        this.log = openLog();
+        this.metrics = new RoomMetrics(this);
+        this.messageBucket = TokenBucket.perSecond(server.getConfig().getRoomMessageRate());
+        this.byteBucket = TokenBucket.perSecond(server.getConfig().getRoomByteRate());
+    }
+
+    /**
+     * Opens the log of the room and fills the history from it.
+     *
+     * @return Null, if the server keeps no logs or the log can't be opened.
+     */
+    @Nullable
+    private RoomLog openLog() {
+        final RoomLogWriter writer = server.getRoomLogWriter();
+        if (writer == null) {
+            return null;
+        }
+        try {
+            final RoomLog opened = writer.open(name);
+            for (final Message message : opened.readLast(server.getConfig().getHistoryMessages())) {
+                history.append(new EncodedMessage(message));
+            }
+            sequence.set(opened.getLastSequence());
+            return opened;
+        } catch (final IOException e) {
+            LOG.error("Couldn't open the log of room " + name + ", its messages won't be kept", e);
+            return null;
+        }
     }
 
     /**
@@ -61,83 +143,442 @@ class ChatRoom {
         return name;
     }
 
+    /**
+     * Runs room work on the shard of the room, or right away if the server has no shards. Work the shard has no room
+     * for is counted and rejected: messages are dropped, clients that can't enter or leave are disconnected.
+     *
+     * @param task Not null.
+     * @return False, if the shard rejected the task.
+     */
+    boolean execute(@NotNull final Runnable task) {
+        final RoomShards shards = server.getRoomShards();
+        if (shards == null) {
+            task.run();
+            return true;
+        }
+        if (shards.execute(name, task)) {
+            return true;
+        }
+        server.getMetrics().countRejectedRoomTask();
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Shard of room " + name + " is full, a task is rejected");
+        }
+        return false;
+    }
+
     /**
      * Creates a new thread for each connection.
      *
      * @param connectedClient Connection to the client. Not null.
      */
-    synchronized void enterChatRoom(@NotNull final ConnectedClient connectedClient) {
+    void enterChatRoom(@NotNull final ConnectedClient connectedClient) {
         Preconditions.checkNotNull(connectedClient, "connectedClient must not be null.");
 
-        LOG.debug("Client enters the room " + name);
-        clients.add(connectedClient);
-        connectedClient.deliverMessage("Welcome in Room " + name);
-        distributeMessage(connectedClient.getUsername() + " has entered.");
+        if (!execute(() -> enter(connectedClient))) {
+            connectedClient.disconnect();
+        }
+    }
+
+    /**
+     * Adds the client, replays the history to it and announces it.
+     */
+    private void enter(@NotNull final ConnectedClient connectedClient) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Client enters the room " + name);
+        }
+        // ticket, welcome and the last messages go out in one write
+        final List<EncodedMessage> replay = new ArrayList<>();
+        final EncodedMessage ticket = connectedClient.ticket(this, sequence.get());
+        if (ticket != null) {
+            replay.add(ticket);
+        }
+        replay.add(new EncodedMessage(new Message(MessageType.MESSAGE, "Welcome in Room " + name,
+                server.getClock().millis())));
+        final int replayed = replay.size();
+        replay.addAll(history.snapshot());
+        admit(connectedClient, replay, replay.size() - replayed);
+        distributeText(connectedClient.getUsername() + " has entered.");
+    }
+
+    /**
+     * Lets clients continue their sessions in this room, each gets the messages it has missed.
+     *
+     * @param resumes Clients with the last sequence number each has seen. Not null.
+     */
+    void resumeChatRoom(@NotNull final List<ResumeStage.Resume> resumes) {
+        Preconditions.checkNotNull(resumes, "resumes must not be null.");
+
+        if (!execute(() -> resume(resumes))) {
+            for (final ResumeStage.Resume resume : resumes) {
+                resume.client.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Reads the messages missed by all clients at once and adds the clients without announcing them.
+     */
+    private void resume(@NotNull final List<ResumeStage.Resume> resumes) {
+        final long last = sequence.get();
+        long oldest = last;
+        for (final ResumeStage.Resume resume : resumes) {
+            oldest = Math.min(oldest, seenBefore(resume, last));
+        }
+        final List<EncodedMessage> missed = missedSince(oldest);
+
+        for (final ResumeStage.Resume resume : resumes) {
+            final ConnectedClient client = resume.client;
+            final List<EncodedMessage> replay = new ArrayList<>();
+            final EncodedMessage ticket = client.ticket(this, last);
+            if (ticket != null) {
+                replay.add(ticket);
+            }
+            replay.add(new EncodedMessage(new Message(MessageType.MESSAGE, "Welcome back in Room " + name,
+                    server.getClock().millis())));
+            final long after = seenBefore(resume, last);
+            final List<EncodedMessage> caughtUp = new ArrayList<>();
+            for (final EncodedMessage message : missed) {
+                if (message.getMessage().getSequence() > after) {
+                    caughtUp.add(message);
+                }
+            }
+            final long first = caughtUp.isEmpty() ? last + 1 : caughtUp.get(0).getMessage().getSequence();
+            if (first > after + 1) {
+                replay.add(new EncodedMessage(new Message(MessageType.MESSAGE,
+                        "Sorry, " + (first - after - 1) + " messages are no longer available",
+                        server.getClock().millis())));
+            }
+            replay.addAll(caughtUp);
+            admit(client, replay, caughtUp.size());
+        }
+    }
+
+    /**
+     * @return Sequence number of the last message the client has seen, 0 if the room doesn't know it because it was
+     * restarted without a log.
+     */
+    private static long seenBefore(@NotNull final ResumeStage.Resume resume, final long last) {
+        return resume.lastSequence > last ? 0 : resume.lastSequence;
+    }
+
+    /**
+     * @param after Sequence number of the last message the clients have seen.
+     * @return Messages after the number, from the history or the log, at most
+     * {@link ServerConfig#getResumeMessages() the configured number}, oldest first. Not null.
+     */
+    @NotNull
+    private List<EncodedMessage> missedSince(final long after) {
+        final int max = server.getConfig().getResumeMessages();
+        final long last = sequence.get();
+        if (after >= last || max == 0) {
+            return Collections.emptyList();
+        }
+        final long from = Math.max(after + 1, last - max + 1);
+        final List<EncodedMessage> held = history.snapshot();
+        final long first = held.isEmpty() ? 0 : held.get(0).getMessage().getSequence();
+        final List<EncodedMessage> missed = new ArrayList<>();
+        long next = from;
+        if (log != null && (first == 0 || first > from)) {
+            try {
+                for (final Message message : log.readSince(from, max)) {
+                    missed.add(new EncodedMessage(message));
+                    next = message.getSequence() + 1;
+                }
+            } catch (final IOException e) {
+                LOG.warn("Couldn't read the missed messages of room " + name + " from the log", e);
+            }
+        }
+        // the history also holds the messages the writer hasn't appended yet
+        for (final EncodedMessage message : held) {
+            if (message.getMessage().getSequence() >= next) {
+                missed.add(message);
+            }
+        }
+        return missed;
+    }
+
+    /**
+     * Adds the client, queues the first messages for it in one write and tells the other nodes.
+     *
+     * @param replay   Messages for the client. Not null.
+     * @param replayed Number of them that were distributed before.
+     */
+    private void admit(@NotNull final ConnectedClient connectedClient,
+                       @NotNull final List<EncodedMessage> replay,
+                       final int replayed) {
+        clients.put(connectedClient.clientId, connectedClient);
+        connectedClient.deliverMessages(replay);
+        final Federation federation = server.getFederation();
+        if (federation != null) {
+            federation.memberEntered(this, connectedClient);
+        }
+
+        final RoomEnterEvent event = new RoomEnterEvent();
+        if (event.isEnabled()) {
+            event.room = name;
+            event.username = connectedClient.getUsername();
+            event.clientId = connectedClient.clientId;
+            event.members = clients.size();
+            event.replayed = replayed;
+            event.commit();
+        }
     }
 
     /**
      * Creates a new thread for each connection.
      *
-     * @param connection Connection to the client. Not null.
+     * @param connection Connection to the client, the handshake is done. Not null.
+     * @param username   Username sent by the client.
+     * @param resume     Ticket of the session the client continues, null to enter this room.
      */
-    synchronized void enterChatRoom(@NotNull final Connection connection) {
+    void enterChatRoom(@NotNull final Connection connection,
+                       final String username,
+                       @Nullable final SessionTicket resume) {
         Preconditions.checkNotNull(connection, "socket must not be null.");
 
-        final ConnectedClient connectedClient = new ConnectedClient(server, this, connection);
-        connectedClient.start();
-        enterChatRoom(connectedClient);
+        final BlockingTransport transport = new BlockingTransport(connection, server.getConfig(), server.getMetrics());
+        final ConnectedClient connectedClient = new ConnectedClient(server, this, transport, username);
+        server.addSession(connectedClient);
+        // enter before reading, so the first messages of the client come after its entrance
+        connectedClient.login(resume);
+        transport.startWriter(server.getThreadMode(), "client-writer-" + connectedClient.clientId);
+        server.getThreadMode().start(() -> connectedClient.read(transport), "client-" + connectedClient.clientId);
     }
 
     /**
      * To distribute a transfer_object to all Clients
      *
      * @param message Not null.
+     * @return False, if the message is dropped because the room is too busy.
      */
-    synchronized void distributeMessage(@NotNull final String message) {
+    boolean distributeMessage(@NotNull final String message) {
         Preconditions.checkNotNull(message, "transfer_object must not be null.");
 
+        return execute(() -> distributeText(message));
+    }
+
+    /**
+     * Formats a text of this node, distributes it and relays it to the other nodes.
+     */
+    private void distributeText(@NotNull final String message) {
         // add HH:mm:ss and \n to the transfer_object
-        String time = dateFormatter.format(new Date());
-        String messageFormatted = time + " " + message;
-        LOG.debug("Room[" + name + "] <<< " + messageFormatted);
+        final long now = server.getClock().millis();
+        String messageFormatted = server.getClock().timeOfDay(now) + " " + message;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Room[" + name + "] <<< " + messageFormatted);
+        }
 
+        final Message formatted = new Message(MessageType.MESSAGE, messageFormatted + "\n", now);
+        distribute(formatted);
+        final Federation federation = server.getFederation();
+        if (federation != null) {
+            federation.relay(name, formatted);
+        }
+    }
 
-        // we loop in reverse order in case we would have to removeClientFromRoom a Client
-        // because it has disconnected
-        for (int i = clients.size(); --i >= 0; ) {
-            ConnectedClient clientThread = clients.get(i);
-            // try to write to the Client if it fails removeClientFromRoom it format the list
-            if (!clientThread.deliverMessage(messageFormatted + "\n")) {
-                clients.remove(i);
+    /**
+     * Distributes a message that a client of another node has sent, as that node has formatted it.
+     *
+     * @param message Not null.
+     */
+    void distributeRelayed(@NotNull final Message message) {
+        Preconditions.checkNotNull(message, "message must not be null.");
+
+        execute(() -> distribute(message));
+    }
+
+    /**
+     * Numbers the message, keeps it and queues it for all local members. It is encoded once per codec, all clients
+     * share the bytes.
+     *
+     * @param message Without a sequence number, the other nodes number it themselves. Not null.
+     */
+    private void distribute(@NotNull final Message message) {
+        final BroadcastEvent event = new BroadcastEvent();
+        event.begin();
+        final long start = System.nanoTime();
+        final EncodedMessage encoded = new EncodedMessage(new Message(message.getType(), message.getPayload(),
+                message.getTimestamp(), sequence.incrementAndGet()));
+        final int frameSize = encode(encoded);
+        if (log != null) {
+            log.submit(encoded);
+        }
+        history.append(encoded);
 
+        int members = 0;
+        int delivered = 0;
+        for (final ConnectedClient clientThread : clients.values()) {
+            ++members;
+            // try to write to the Client if it fails removeClientFromRoom it format the list
+            if (clientThread.deliverMessage(encoded)) {
+                ++delivered;
+            } else if (clients.remove(clientThread.clientId, clientThread)) {
+                left(clientThread, true);
             }
         }
+        metrics.countDistributed(delivered);
+        server.getMetrics().recordFanOut(members, System.nanoTime() - start);
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.room = name;
+            event.members = members;
+            event.delivered = delivered;
+            event.bytes = frameSize;
+            event.commit();
+        }
+    }
+
+    /**
+     * Encodes the message in frames ahead of the members, history and log, and records the time it takes.
+     *
+     * @return Size of the frame, 0 if it couldn't be encoded.
+     */
+    private int encode(@NotNull final EncodedMessage message) {
+        final long start = System.nanoTime();
+        final byte[] frame;
+        try {
+            frame = message.encode(FramedCodec.INSTANCE);
+        } catch (final IOException e) {
+            LOG.debug("Couldn't encode message", e);
+            return 0;
+        }
+        server.getMetrics().recordEncode(System.nanoTime() - start);
+        return frame.length;
     }
 
     /**
      * For a client who logoff using the LOGOUT transfer_object
      *
-     * @param id From Client. Not null.
+     * @param id From Client.
+     * @return False, if the room is too busy to remove the client.
      */
-    synchronized void removeClientFromRoom(@NotNull final Integer id) {
-        Preconditions.checkNotNull(id, "id must not be null.");
+    boolean removeClientFromRoom(final int id) {
+        return execute(() -> {
+            final ConnectedClient removed = clients.remove(id);
+            if (removed != null) {
+                left(removed, false);
+            }
+        });
+    }
+
+    /**
+     * Adds or replaces a member connected to another node.
+     *
+     * @param member Not null.
+     */
+    void addRemoteMember(@NotNull final RoomMember member) {
+        Preconditions.checkNotNull(member, "member must not be null.");
+        Preconditions.checkArgument(member.getNode() != null, "member must be connected to another node.");
 
-        // scan the array list until we found the Id
-        for (int i = 0; i < clients.size(); ++i) {
-            ConnectedClient client = clients.get(i);
+        remoteMembers.put(RoomMember.key(member.getNode(), member.getClientId()), member);
+    }
 
-            if (client.clientId == id) {
-                clients.remove(i);
-                return;
-            }
+    /**
+     * Removes a member connected to another node.
+     *
+     * @param node     Node of the client. Not null.
+     * @param clientId Id of the client on its node.
+     */
+    void removeRemoteMember(@NotNull final String node, final int clientId) {
+        Preconditions.checkNotNull(node, "node must not be null.");
+
+        remoteMembers.remove(RoomMember.key(node, clientId));
+    }
+
+    /**
+     * Removes all members of a node, e.g. when the link to it is lost.
+     *
+     * @param node Not null.
+     */
+    void removeRemoteMembers(@NotNull final String node) {
+        Preconditions.checkNotNull(node, "node must not be null.");
+
+        remoteMembers.values().removeIf(member -> node.equals(member.getNode()));
+    }
+
+    /**
+     * Tells the other nodes and the flight recorder that a client has left.
+     *
+     * @param disconnected True, if it was removed because a message couldn't be queued for it.
+     */
+    private void left(@NotNull final ConnectedClient client, final boolean disconnected) {
+        final Federation federation = server.getFederation();
+        if (federation != null) {
+            federation.memberLeft(this, client);
+        }
+        final RoomLeaveEvent event = new RoomLeaveEvent();
+        if (event.isEnabled()) {
+            event.room = name;
+            event.username = client.getUsername();
+            event.clientId = client.clientId;
+            event.members = clients.size();
+            event.disconnected = disconnected;
+            event.commit();
         }
     }
 
     /**
-     * @return Unmodifiable List of connected clients.
+     * @return Sequence number of the last distributed message, 0 before the first.
+     */
+    long getSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * @return Number of members now.
      */
-    synchronized List<ConnectedClient> getClients() {
-        return Collections.unmodifiableList(this.clients);
+    int getMemberCount() {
+        return clients.size();
     }
 
+    /**
+     * @return Limit of the messages per second of all members, null for no limit.
+     */
+    @Nullable
+    TokenBucket getMessageBucket() {
+        return messageBucket;
+    }
+
+    /**
+     * @return Limit of the payload bytes per second of all members, null for no limit.
+     */
+    @Nullable
+    TokenBucket getByteBucket() {
+        return byteBucket;
+    }
+
+    /**
+     * @return Counters of the room. Not null.
+     */
+    @NotNull
+    RoomMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return Snapshot of the local members in the order they connected, followed by the members of the other nodes
+     * by node. Not null.
+     */
+    @NotNull
+    List<RoomMember> getMembers() {
+        final List<RoomMember> members = new ArrayList<>();
+        for (final ConnectedClient client : getClients()) {
+            members.add(RoomMember.of(client));
+        }
+        final List<RoomMember> remote = new ArrayList<>(remoteMembers.values());
+        remote.sort(Comparator.comparing(RoomMember::getNode).thenComparingInt(RoomMember::getClientId));
+        members.addAll(remote);
+        return members;
+    }
+
+    /**
+     * @return Snapshot of the connected clients, in the order they connected. Not null.
+     */
+    @NotNull
+    List<ConnectedClient> getClients() {
+        final List<ConnectedClient> snapshot = new ArrayList<>(clients.values());
+        snapshot.sort(Comparator.comparingInt(client -> client.clientId));
+        return snapshot;
+    }
 }
@@ -1,32 +1,71 @@
 package chat_app.server;
 
+import chat_app.transfer_object.ListPage;
+import chat_app.transfer_object.ListQuery;
 import chat_app.transfer_object.Message;
-import chat_app.utility.Connection;
+import chat_app.transfer_object.MessageType;
+import chat_app.transfer_object.SessionTicket;
+import chat_app.utility.EncodedMessage;
+import chat_app.utility.ObjectStreamCodec;
+import chat_app.utility.ReceivingTransport;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
-import java.text.SimpleDateFormat;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
 
 
 /**
- * One instance of this thread will run for each client. Receives {@link Message} from the client.
+ * One instance per client. With the blocking engine a thread of the client {@link #read(ReceivingTransport) reads}
+ * the messages. With the non-blocking engine the event loop reads the messages and passes them to {@link #handle(Message)}. <br/>
+ * Clients of the framed format get a resume token, with which a new connection can take over the session when this
+ * one is lost, see {@link ResumeStage}. <br/>
+ * They are also pinged when they stay silent for the {@link ServerConfig#getHeartbeatInterval() heartbeat interval}
+ * and disconnected after the {@link ServerConfig#getReadTimeout() read timeout}, so half-open connections don't keep
+ * their thread and room slot. One timer per client on the {@link TimingWheel} checks the time of the last message,
+ * receiving a message only stores the time. <br/>
+ * Messages to the room pass the {@link TokenBucket rate limits} of the client and of the room before they are handled,
+ * see {@link #throttle(Message)}. <br/>
+ * Direct messages skip the room: the recipient is looked up in the directory of the server and gets one copy,
+ * whatever the size of the rooms.
  */
-class ConnectedClient extends Thread {
+class ConnectedClient {
     private static final Logger LOG = Logger.getLogger(ConnectedClient.class);
 
+    /**
+     * Ping shared by all clients, encoded once.
+     */
+    @NotNull
+    private static final EncodedMessage PING = new EncodedMessage(new Message(MessageType.PING));
+
+    /**
+     * Returned by {@link #throttle(Message)} for a message that is dropped.
+     */
+    static final long DROPPED = -1;
+
+    /**
+     * Nanoseconds between two notices about the rate limit to the same client.
+     */
+    private static final long NOTICE_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+
     /**
      * Unique if (easier for disconnection)
      */
-    int clientId;
+    final int clientId;
 
     /**
      * Connection to the client.
      */
-    private Connection connection;
+    private OutboundTransport connection;
 
     /**
      * Username of the client.
@@ -44,104 +83,448 @@ class ConnectedClient extends Thread {
     private ChatRoom chatRoom;
 
     /**
-     * Holds dateOfConnection formatter for messages.
+     * Holds the reference to the server instance.
      */
-    private SimpleDateFormat dateFormatter;
+    private ServerEntity server;
 
     /**
-     * Holds the reference to the server instance.
+     * Holds the room the client is in or was in last, where a resumed session continues.
      */
-    private ServerEntity server;
+    @NotNull
+    private volatile ChatRoom lastRoom;
+
+    /**
+     * Holds the resume token of the session, null if it can't be resumed.
+     */
+    @Nullable
+    private volatile String token;
+
+    /**
+     * Milliseconds since the epoch when the connection was closed, 0 while it is open.
+     */
+    private volatile long detachedAt;
+
+    /**
+     * Set by the first {@link #close()}, the transport may call it again when the connection goes down.
+     */
+    @NotNull
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    /**
+     * True, after the client has logged out.
+     */
+    private boolean loggedOut;
+
+    /**
+     * Nanotime of the last message from the client.
+     */
+    private volatile long lastHeard = System.nanoTime();
+
+    /**
+     * Holds the next heartbeat check, null if the client gets no heartbeats.
+     */
+    @Nullable
+    private volatile TimingWheel.Timeout heartbeat;
 
+    /**
+     * Holds the limits of the messages the client sends to its room, null for no limit.
+     */
+    @Nullable
+    private final TokenBucket messageBucket;
+
+    @Nullable
+    private final TokenBucket byteBucket;
+
+    /**
+     * Nanotime of the last notice about the rate limit, only used by the reading thread.
+     */
+    private long lastNotice = System.nanoTime() - NOTICE_INTERVAL;
+
+    /**
+     * Constructor. The client has already sent its username.
+     */
     ConnectedClient(@NotNull ServerEntity server,
                     @NotNull ChatRoom chatRoom,
-                    @NotNull Connection connection) {
+                    @NotNull OutboundTransport connection,
+                    String username) {
         Preconditions.checkNotNull(server, "server must not be null.");
         Preconditions.checkNotNull(chatRoom, "chatRoom must not be null.");
         Preconditions.checkNotNull(connection, "socket must not be null.");
 
         this.server = server;
         this.chatRoom = chatRoom;
+        this.lastRoom = chatRoom;
         this.clientId = server.getClientIdFromSequence();
-        this.dateOfConnection = new Date().toString() + "\n";
-        this.dateFormatter = new SimpleDateFormat("HH:mm:ss");
+        this.dateOfConnection = new Date().toString();
         this.connection = connection;
-
-        // Creating Data Streams
-        try {
-            username = connection.receive().getPayload();
-            LOG.debug("Thread has created IOStreams for new client");
-
-        } catch (final Exception e) {
-            LOG.error("Thread couldn't create IOStreams", e);
-        }
+        this.username = username;
+        this.messageBucket = TokenBucket.perSecond(server.getConfig().getClientMessageRate());
+        this.byteBucket = TokenBucket.perSecond(server.getConfig().getClientByteRate());
     }
 
-
     /**
-     * @see Thread#run()
+     * Handles the messages of the client until it logs out or the connection is lost, then closes the connection.
+     *
+     * @param reader Blocking side of the connection. Not null.
      */
-    public void run() {
-        boolean keepGoing = true;
+    void read(@NotNull final ReceivingTransport reader) {
+        Preconditions.checkNotNull(reader, "reader must not be null.");
+
         Message message;
 
-        while (keepGoing) {
+        while (true) {
             // get message
             try {
-                message = connection.receive();
+                message = reader.receive();
                 LOG.debug("ServerEntity receives transfer_object...");
+            } catch (final StreamCorruptedException e) {
+                connection.decodeFailed(e);
+                LOG.error("Couldn't decode message from " + username, e);
+                break;
             } catch (final Exception e) {
                 LOG.error("Thread couldn't read object", e);
                 break;
             }
 
-            // Type of message receive
-            switch (message.getType()) {
-                case MESSAGE:
-                    distributeMessage(message);
-                    break;
-                case HELP:
-                    deliverHelp();
-                    break;
-                case LOGOUT:
-                    keepGoing = false;
-                    break;
-                case WHO_IS_IN:
-                    deliverWhoIsIn();
-                    break;
-                case AVAILABLE_ROOMS:
-                    deliverAvailableRooms();
+            final long delay = throttle(message);
+            if (delay == DROPPED) {
+                continue;
+            }
+            if (delay > 0) {
+                try {
+                    // the client's further messages wait in the socket until then
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                } catch (final InterruptedException e) {
                     break;
-                case CREATE_ROOM:
-                    final String nameOfNewRoom = message.getPayload();
-                    createChatRoom(nameOfNewRoom);
+                }
+            }
+            if (!handle(message))
+                break;
+        }
+
+        close();
+    }
+
+    /**
+     * Takes the tokens for a message to the room from the buckets of the client and of its room, and applies the
+     * {@link ThrottlePolicy} if they don't hold enough. Other messages pass. Takes no lock and allocates nothing
+     * unless the client is notified.
+     *
+     * @param message Message from the client. Not null.
+     * @return Nanoseconds the message has to wait before it is {@link #handle(Message) handled}, 0 to handle it now,
+     * or {@link #DROPPED}.
+     */
+    long throttle(@NotNull final Message message) {
+        Preconditions.checkNotNull(message, "message must not be null.");
+
+        // direct messages don't reach the room, only the limits of the client apply
+        final ChatRoom room = message.getType() == MessageType.MESSAGE ? chatRoom : null;
+        if (room == null && message.getType() != MessageType.DIRECT) {
+            return 0;
+        }
+        final TokenBucket roomMessages = room == null ? null : room.getMessageBucket();
+        final TokenBucket roomBytes = room == null ? null : room.getByteBucket();
+        if (messageBucket == null && byteBucket == null && roomMessages == null && roomBytes == null) {
+            return 0;
+        }
+        final long now = System.nanoTime();
+        final int bytes = utf8Length(message.getPayload());
+        final ThrottlePolicy policy = server.getConfig().getThrottlePolicy();
+        if (policy == ThrottlePolicy.DELAY) {
+            final long delay = Math.max(
+                    Math.max(take(messageBucket, 1, now), take(byteBucket, bytes, now)),
+                    Math.max(take(roomMessages, 1, now), take(roomBytes, bytes, now)));
+            if (delay > 0) {
+                countThrottled(room, bytes, delay);
+            }
+            return delay;
+        }
+
+        // the client's own limits first, so a client over them doesn't use up the budget of its room
+        if (tryTake(messageBucket, byteBucket, bytes, now)) {
+            if (tryTake(roomMessages, roomBytes, bytes, now)) {
+                return 0;
+            }
+            giveBack(messageBucket, 1);
+            giveBack(byteBucket, bytes);
+        }
+        countThrottled(room, bytes, 0);
+        if (now - lastNotice >= NOTICE_INTERVAL) {
+            lastNotice = now;
+            deliverMessage(policy == ThrottlePolicy.DROP
+                    ? "Slow down, messages over the rate limit are dropped"
+                    : "Slow down, you are over the rate limit");
+        }
+        if (policy == ThrottlePolicy.DROP) {
+            server.getMetrics().countMessageIn();
+            lastHeard = now;
+            return DROPPED;
+        }
+        return 0;
+    }
+
+    /**
+     * Counts a message over a limit at the server and, if it goes to the room, at the room.
+     */
+    private void countThrottled(@Nullable final ChatRoom room, final int bytes, final long delay) {
+        server.getMetrics().countThrottled(bytes, delay);
+        if (room != null) {
+            room.getMetrics().countThrottled();
+        }
+    }
+
+    /**
+     * @return Nanoseconds until the bucket holds the tokens taken, 0 if there is no bucket.
+     */
+    private static long take(@Nullable final TokenBucket bucket, final int amount, final long now) {
+        return bucket == null ? 0 : bucket.take(amount, now);
+    }
+
+    /**
+     * @return False, if the bucket doesn't hold enough tokens.
+     */
+    private static boolean tryTake(@Nullable final TokenBucket bucket, final int amount, final long now) {
+        return bucket == null || bucket.tryTake(amount, now);
+    }
+
+    /**
+     * Takes one message and its bytes, or nothing if either bucket doesn't hold enough.
+     *
+     * @return False, if the tokens weren't taken.
+     */
+    private static boolean tryTake(@Nullable final TokenBucket messages, @Nullable final TokenBucket bytes,
+                                   final int length, final long now) {
+        if (!tryTake(messages, 1, now)) {
+            return false;
+        }
+        if (tryTake(bytes, length, now)) {
+            return true;
+        }
+        giveBack(messages, 1);
+        return false;
+    }
+
+    /**
+     * Gives tokens back to the bucket, if there is one.
+     */
+    private static void giveBack(@Nullable final TokenBucket bucket, final int amount) {
+        if (bucket != null) {
+            bucket.giveBack(amount);
+        }
+    }
+
+    /**
+     * @return Bytes of the text in UTF-8, without encoding it.
+     */
+    private static int utf8Length(@NotNull final String text) {
+        int bytes = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            final char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800 || Character.isSurrogate(c)) {
+                // a surrogate pair takes 4 bytes
+                bytes += 2;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Executes one message from the client.
+     *
+     * @param message Not null.
+     * @return False, if the client has logged out.
+     */
+    boolean handle(@NotNull final Message message) {
+        Preconditions.checkNotNull(message, "message must not be null.");
+
+        server.getMetrics().countMessageIn();
+        lastHeard = System.nanoTime();
+        // Type of message receive
+        switch (message.getType()) {
+            case PING:
+                deliverMessage(new EncodedMessage(new Message(MessageType.PONG)));
+                break;
+            case PONG:
+                break;
+            case MESSAGE:
+                distributeMessage(message);
+                break;
+            case DIRECT:
+                deliverDirect(message.getPayload());
+                break;
+            case HELP:
+                deliverHelp();
+                break;
+            case LOGOUT:
+                loggedOut = true;
+                return false;
+            case WHO_IS_IN:
+                deliverWhoIsIn(message.getPayload());
+                break;
+            case AVAILABLE_ROOMS:
+                deliverAvailableRooms(message.getPayload());
+                break;
+            case STATS:
+                deliverStats(message.getPayload());
+                break;
+            case CREATE_ROOM:
+                final String nameOfNewRoom = message.getPayload();
+                if (Strings.isNullOrEmpty(nameOfNewRoom)) {
+                    deliverMessage("Sorry, a room needs a name");
+                } else if (createChatRoom(nameOfNewRoom)) {
                     deliverMessage("Created Room " + nameOfNewRoom);
-                    LOG.debug("Created Room " + nameOfNewRoom);
-                    break;
-                case SWITCH_ROOM:
-                    final String nameOfRoom = message.getPayload();
-                    try {
-                        // first enter then leave to avoid a state without chat room.
-                        ChatRoom room;
-                        if (nameOfRoom.equals("")) {
-                            room = getRoomByName(nameOfRoom);
-                        } else {
-                            room = getWaitingHall();
-                        }
-                        leaveChatRoom();
-                        enterChatRoom(room);
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Created Room " + nameOfNewRoom);
+                    }
+                } else {
+                    deliverMessage("Room " + nameOfNewRoom + " exists already");
+                }
+                break;
+            case SWITCH_ROOM:
+                final String nameOfRoom = message.getPayload();
+                try {
+                    // first enter then leave to avoid a state without chat room.
+                    ChatRoom room;
+                    if (Strings.isNullOrEmpty(nameOfRoom)) {
+                        room = getWaitingHall();
+                    } else {
+                        room = getRoomByName(nameOfRoom);
+                    }
+                    leaveChatRoom();
+                    enterChatRoom(room);
+                    if (LOG.isDebugEnabled()) {
                         LOG.debug(username + " switched to room " + nameOfRoom);
-                    } catch (ChatRoomNotFoundException e) {
-                        LOG.error(username + " could't enter " + nameOfRoom);
-                        deliverMessage("Sorry, couldn't find room " + nameOfRoom);
-                        deliverAvailableRooms();
                     }
-                    break;
-            }
+                } catch (ChatRoomNotFoundException e) {
+                    LOG.error(username + " could't enter " + nameOfRoom);
+                    deliverMessage("Sorry, couldn't find room " + nameOfRoom);
+                    deliverAvailableRooms("");
+                }
+                break;
         }
+        return true;
+    }
 
-        leaveChatRoom();
-        connection.kill();
+    /**
+     * Enters the room given at construction, or continues the session of a ticket.
+     *
+     * @param resume Ticket the client has sent instead of its username, null for a new session.
+     */
+    void login(@Nullable final SessionTicket resume) {
+        // old clients can neither resume nor answer pings
+        if (connection.codec() != ObjectStreamCodec.INSTANCE) {
+            startHeartbeat();
+        }
+        final ResumeStage stage = server.getResumeStage();
+        if (resume != null && stage.resume(this, resume)) {
+            return;
+        }
+        token = connection.codec() == ObjectStreamCodec.INSTANCE ? null : stage.issue(this);
+        if (resume != null) {
+            deliverMessage("Sorry, your session can't be resumed");
+        }
+        enterChatRoom(chatRoom);
+    }
+
+    /**
+     * Schedules the first heartbeat check, if the server sends pings or has a read timeout.
+     */
+    private void startHeartbeat() {
+        final ServerConfig config = server.getConfig();
+        if (config.getHeartbeatInterval() > 0 || config.getReadTimeout() > 0) {
+            checkHeartbeat();
+        }
+    }
+
+    /**
+     * Disconnects the client if it was silent longer than the read timeout, pings it if it was silent for the
+     * heartbeat interval, and schedules the next check. Runs on the timing wheel.
+     */
+    private void checkHeartbeat() {
+        if (detachedAt != 0) {
+            return;
+        }
+        final ServerConfig config = server.getConfig();
+        final long silent = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastHeard);
+        if (config.getReadTimeout() > 0 && silent >= config.getReadTimeout()) {
+            LOG.info(username + " was silent for " + silent + " ms, disconnecting");
+            server.getMetrics().countReadTimeout();
+            disconnect();
+            return;
+        }
+
+        long delay = Long.MAX_VALUE;
+        final int interval = config.getHeartbeatInterval();
+        if (interval > 0 && silent >= interval) {
+            deliverMessage(PING);
+            server.getMetrics().countPing();
+            delay = interval;
+        } else if (interval > 0) {
+            delay = interval - silent;
+        }
+        if (config.getReadTimeout() > 0) {
+            delay = Math.min(delay, config.getReadTimeout() - silent);
+        }
+        final TimingWheel.Timeout next = server.getTimingWheel().schedule(this::checkHeartbeat, delay);
+        heartbeat = next;
+        if (detachedAt != 0) {
+            // closed meanwhile
+            next.cancel();
+        }
+    }
+
+    /**
+     * Takes over a session, the client will be resumed in its room.
+     *
+     * @param token Resume token of the session. Not null.
+     * @param room  Room of the session. Not null.
+     */
+    void adopt(@NotNull final String token, @NotNull final ChatRoom room) {
+        Preconditions.checkNotNull(token, "token must not be null.");
+        Preconditions.checkNotNull(room, "room must not be null.");
+
+        this.token = token;
+        this.chatRoom = room;
+        this.lastRoom = room;
+    }
+
+    /**
+     * Leaves the room and closes the connection once the queued messages are written. Only the first call counts.
+     */
+    void close() {
+        if (!closed.compareAndSet(false, true)) {
+            return;
+        }
+        if (chatRoom != null) {
+            leaveChatRoom();
+        }
+        detachedAt = System.currentTimeMillis();
+        final TimingWheel.Timeout next = heartbeat;
+        if (next != null) {
+            next.cancel();
+        }
+        server.getResumeStage().detach(this, loggedOut);
+        server.removeSession(this);
+        connection.closeAfterFlush();
+    }
+
+    /**
+     * @param room     Room the client enters. Not null.
+     * @param sequence Sequence number of the last message of the room.
+     * @return Message with the resume ticket for the room, null if the session can't be resumed.
+     */
+    @Nullable
+    EncodedMessage ticket(@NotNull final ChatRoom room, final long sequence) {
+        final String current = token;
+        if (current == null) {
+            return null;
+        }
+        return new EncodedMessage(new Message(MessageType.SESSION,
+                new SessionTicket(current, "", room.getName(), sequence).toJson(), server.getClock().millis()));
     }
 
     /**
@@ -152,6 +535,37 @@ class ConnectedClient extends Thread {
         return username;
     }
 
+    /**
+     * @return Resume token, null if the session can't be resumed.
+     */
+    @Nullable
+    String getToken() {
+        return token;
+    }
+
+    /**
+     * @return Milliseconds since the epoch when the connection was closed, 0 while it is open.
+     */
+    long getDetachedAt() {
+        return detachedAt;
+    }
+
+    /**
+     * @return Room the client is in or was in last. Not null.
+     */
+    @NotNull
+    ChatRoom getLastRoom() {
+        return lastRoom;
+    }
+
+    /**
+     * @return Date the client has connected, as text. Not null.
+     */
+    @NotNull
+    String getDateOfConnection() {
+        return dateOfConnection;
+    }
+
     /**
      * Kills the connection.
      */
@@ -160,11 +574,63 @@ class ConnectedClient extends Thread {
     }
 
     /**
-     * Write a String to the Client output stream.
+     * @return True, if the connection to the client is still open.
+     */
+    boolean isConnected() {
+        return !connection.isInactive();
+    }
+
+    /**
+     * @return Number of messages waiting to be written to the client.
+     */
+    int getOutboundDepth() {
+        return connection.getOutboundQueue().size();
+    }
+
+    /**
+     * @return Number of messages discarded because the client didn't read fast enough.
+     */
+    long getOutboundDropped() {
+        return connection.getOutboundQueue().getDropped();
+    }
+
+    /**
+     * Queues a String for the Client output stream.
      */
     boolean deliverMessage(@NotNull final String message) {
         Preconditions.checkNotNull(message, "transfer_object must not be null.");
 
+        return deliverMessage(
+                new EncodedMessage(new Message(MessageType.MESSAGE, message, server.getClock().millis())));
+    }
+
+    /**
+     * Queues messages for the Client output stream, to be written at once.
+     */
+    boolean deliverMessages(@NotNull final List<EncodedMessage> messages) {
+        Preconditions.checkNotNull(messages, "messages must not be null.");
+
+        if (connection.isInactive()) {
+            connection.kill();
+            return false;
+        }
+
+        try {
+            connection.sendAll(messages);
+            server.getMetrics().countMessagesOut(messages.size());
+            return true;
+        } catch (final IOException e) {
+            LOG.debug("Couldn't write transfer_object to stream", e);
+            return false;
+        }
+    }
+
+    /**
+     * Queues a message for the Client output stream, that may be shared with other clients.
+     */
+    boolean deliverMessage(@NotNull final EncodedMessage message) {
+        Preconditions.checkNotNull(message, "transfer_object must not be null.");
+
         // PRECONDITION: Client still connected.
         if (connection.isInactive()) {
             connection.kill();
@@ -173,6 +639,7 @@ class ConnectedClient extends Thread {
 
         try {
             connection.send(message);
+            server.getMetrics().countMessagesOut(1);
             return true;
         } catch (final IOException e) {
             // if an error occurs, do not abort just inform the user
@@ -189,37 +656,101 @@ class ConnectedClient extends Thread {
                 "1.) LOGOUT for Logout, \n" +
                 "2.) WHOISIN to see logged in clients, \n" +
                 "3.) AVAILABLE to get all available rooms \n" +
+                "   (both take offset=N limit=N prefix=NAME to page through long lists) \n" +
                 "4.) CREATE to create a new room \n" +
-                "5.) SWITCH to switch ro another room \n");
+                "5.) SWITCH to switch ro another room \n" +
+                "6.) STATS followed by the admin secret to see the metrics of the server \n" +
+                "7.) DM followed by a username and a text to send the text to this user only \n");
     }
 
     /**
-     * Delivers available rooms to client.
+     * Delivers the metrics of the server to an admin.
+     *
+     * @param secret Admin secret sent with the request, null if there is none.
      */
-    private void deliverAvailableRooms() {
-        final List<ChatRoom> chatRooms = server.getAllChatRooms();
-
-        if (chatRooms.size() != 0) {
-            // Print rooms
-            deliverMessage("List of all chat-rooms:");
-            for (int i = 0; i < chatRooms.size(); ++i) {
-                ChatRoom chatRoom = chatRooms.get(i);
-                deliverMessage((i + 1) + ".) " + chatRoom.getName());
-            }
+    private void deliverStats(@Nullable final String secret) {
+        if (secret == null || !server.getConfig().isAdminSecret(secret.trim())) {
+            deliverMessage("Sorry, STATS is for admins only");
+            return;
+        }
+        final String stats = server.getMetrics().render();
+        if (connection.codec() == ObjectStreamCodec.INSTANCE) {
+            // old clients don't know the type
+            deliverMessage(stats);
         } else {
-            deliverMessage("Currently are no chat-rooms available. You can create one with CREATE <NAME> \n");
+            deliverMessage(new EncodedMessage(new Message(MessageType.STATS, stats, server.getClock().millis())));
         }
     }
 
     /**
-     * Delivers connected clients to client.
+     * Delivers a page of the available rooms to client.
+     *
+     * @param query Payload of the request. Not null.
      */
-    private void deliverWhoIsIn() {
-        deliverMessage("List of the users connected at " + dateFormatter.format(new Date()) + "\n");
-        List<ConnectedClient> clients = chatRoom.getClients();
-        for (int i = 0; i < clients.size(); ++i) {
-            ConnectedClient client = clients.get(i);
-            deliverMessage((i + 1) + ".) " + client.username + " since " + client.dateOfConnection);
+    private void deliverAvailableRooms(@NotNull final String query) {
+        deliverPage(MessageType.AVAILABLE_ROOMS, "List of all chat-rooms:", query,
+                server.getAllChatRooms(), ChatRoom::getName, ChatRoom::getName);
+    }
+
+    /**
+     * Delivers a page of the connected clients to client.
+     *
+     * @param query Payload of the request. Not null.
+     */
+    private void deliverWhoIsIn(@NotNull final String query) {
+        // after the entrances and departures the room has yet to run
+        final ChatRoom room = chatRoom;
+        final boolean queued = room.execute(() -> deliverPage(MessageType.WHO_IS_IN,
+                "List of the users connected at " + server.getClock().timeOfDay(), query,
+                room.getMembers(), RoomMember::getUsername, RoomMember::render));
+        if (!queued) {
+            deliverMessage("Sorry, room " + room.getName() + " is too busy, try again later");
+        }
+    }
+
+    /**
+     * Delivers the requested page of a list in one message. Clients of the object stream format get it as text,
+     * the others render it themselves.
+     *
+     * @param type   Type of the list. Not null.
+     * @param title  Line in front of the entries. Not null.
+     * @param query  Payload of the request. Not null.
+     * @param items  Whole list. Not null.
+     * @param nameOf Name of an item, to filter by prefix. Not null.
+     * @param render Text of an item. Not null.
+     */
+    private <T> void deliverPage(@NotNull final MessageType type,
+                                 @NotNull final String title,
+                                 @NotNull final String query,
+                                 @NotNull final Iterable<T> items,
+                                 @NotNull final Function<T, String> nameOf,
+                                 @NotNull final Function<T, String> render) {
+        final ListQuery listQuery;
+        try {
+            listQuery = ListQuery.parse(query);
+        } catch (final IllegalArgumentException e) {
+            deliverMessage("Sorry, " + e.getMessage());
+            return;
+        }
+
+        int total = 0;
+        final List<String> entries = new ArrayList<>();
+        for (final T item : items) {
+            if (!listQuery.matches(nameOf.apply(item))) {
+                continue;
+            }
+            if (total >= listQuery.getOffset() && entries.size() < listQuery.getLimit()) {
+                entries.add(render.apply(item));
+            }
+            ++total;
+        }
+
+        final ListPage page = new ListPage(title, listQuery.getOffset(), total, entries);
+        if (connection.codec() == ObjectStreamCodec.INSTANCE) {
+            // old clients print every payload as it is
+            deliverMessage(page.render());
+        } else {
+            deliverMessage(new EncodedMessage(new Message(type, page.toJson(), server.getClock().millis())));
         }
     }
 
@@ -229,7 +760,57 @@ class ConnectedClient extends Thread {
      * @param message not null.
      */
     private void distributeMessage(@NotNull final Message message) {
-        chatRoom.distributeMessage(username + ": " + message.getPayload());
+        if (!chatRoom.distributeMessage(username + ": " + message.getPayload())) {
+            deliverMessage("Sorry, room " + chatRoom.getName() + " is too busy, your message is dropped");
+        }
+    }
+
+    /**
+     * Sends a text to one user, found in the directory of the server, and echoes it to the sender. Both get the same
+     * encoded message.
+     *
+     * @param payload Username of the recipient, a space and the text. Not null.
+     */
+    private void deliverDirect(@NotNull final String payload) {
+        final int space = payload.indexOf(' ');
+        final String text = space < 0 ? "" : payload.substring(space + 1).trim();
+        if (space <= 0 || text.isEmpty()) {
+            deliverMessage("Sorry, a direct message needs a username and a text");
+            return;
+        }
+        final String name = payload.substring(0, space);
+        final ConnectedClient recipient = server.findClient(name);
+        if (recipient == null) {
+            deliverMessage("Sorry, " + name + " is not online");
+            return;
+        }
+
+        final long now = server.getClock().millis();
+        final String formatted = server.getClock().timeOfDay(now) + " " + username + " -> "
+                + recipient.getUsername() + ": " + text + "\n";
+        final EncodedMessage direct = new EncodedMessage(new Message(MessageType.DIRECT, formatted, now));
+        if (!recipient.receiveDirect(direct)) {
+            deliverMessage("Sorry, " + name + " is not online");
+            return;
+        }
+        server.getMetrics().countDirectMessage();
+        if (recipient != this) {
+            receiveDirect(direct);
+        }
+    }
+
+    /**
+     * Queues a direct message, as a plain message for old clients that don't know the type.
+     *
+     * @return False, if the client is disconnected.
+     */
+    private boolean receiveDirect(@NotNull final EncodedMessage direct) {
+        if (connection.codec() == ObjectStreamCodec.INSTANCE) {
+            final Message message = direct.getMessage();
+            return deliverMessage(new EncodedMessage(
+                    new Message(MessageType.MESSAGE, message.getPayload(), message.getTimestamp())));
+        }
+        return deliverMessage(direct);
     }
 
     /**
@@ -238,14 +819,20 @@ class ConnectedClient extends Thread {
     private void enterChatRoom(@NotNull final ChatRoom room) {
         room.enterChatRoom(this);
         this.chatRoom = room;
+        this.lastRoom = room;
     }
 
     /**
-     * Leave the actual room.
+     * Leave the actual room. If the room is too busy to let the client go, it's disconnected, so the room drops it at
+     * its next message.
      */
     private void leaveChatRoom() {
-        LOG.debug(username + " is leaving...");
-        chatRoom.removeClientFromRoom(this.clientId);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(username + " is leaving...");
+        }
+        if (!chatRoom.removeClientFromRoom(this.clientId)) {
+            disconnect();
+        }
         chatRoom = null;
     }
 
@@ -260,10 +847,19 @@ class ConnectedClient extends Thread {
     }
 
     /**
-     * Creates a new chat room.
+     * Creates a new chat room, which the other nodes of a federation create as well.
+     *
+     * @return False, if a room with that name exists already.
      */
-    private void createChatRoom(@NotNull final String nameOfNewRoom) {
-        server.addRoom(nameOfNewRoom);
+    private boolean createChatRoom(@NotNull final String nameOfNewRoom) {
+        if (!server.addRoom(nameOfNewRoom)) {
+            return false;
+        }
+        final Federation federation = server.getFederation();
+        if (federation != null) {
+            federation.roomCreated(nameOfNewRoom);
+        }
+        return true;
     }
 
     /**
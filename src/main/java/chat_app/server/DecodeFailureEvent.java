@@ -0,0 +1,50 @@
+package chat_app.server;
+
+import chat_app.utility.WireCodec;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.StreamCorruptedException;
+
+/**
+ * Flight recorder event of bytes from a client that its codec can't decode. The connection is closed afterwards.
+ */
+@Name("chat_app.DecodeFailure")
+@Label("Decode Failure")
+@Category({"Chat App", "Connections"})
+@Description("Malformed preamble or frame received from a client")
+class DecodeFailureEvent extends Event {
+
+    @Label("Remote Address")
+    String remoteAddress;
+
+    @Label("Codec")
+    String codec;
+
+    @Label("Message")
+    String message;
+
+    /**
+     * Records a failure, if the flight recorder wants it.
+     *
+     * @param remoteAddress Address and port of the client. Not null.
+     * @param codec         Codec of the client, null if none is picked yet.
+     * @param e             Failure of the codec. Not null.
+     */
+    static void record(@NotNull final String remoteAddress,
+                       @Nullable final WireCodec codec,
+                       @NotNull final StreamCorruptedException e) {
+        final DecodeFailureEvent event = new DecodeFailureEvent();
+        if (event.isEnabled()) {
+            event.remoteAddress = remoteAddress;
+            event.codec = OutboundTransport.codecName(codec);
+            event.message = e.getMessage();
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,516 @@
+package chat_app.server;
+
+import chat_app.transfer_object.Message;
+import chat_app.transfer_object.MessageType;
+import chat_app.utility.Connection;
+import chat_app.utility.EncodedMessage;
+import com.google.common.base.Preconditions;
+import com.google.common.net.HostAndPort;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Links this node to the other nodes of a federation, so a room can have members on several nodes. <br/>
+ * Every node accepts links on its {@link ServerConfig#getFederationPort() federation port} and dials the
+ * {@link ServerConfig#getFederationPeers() peers} it is configured with, again after a link is lost. The dialing node
+ * greets first; the other node answers only if the HELLO carries the {@link ServerConfig#getFederationSecret() secret}
+ * of the federation, so the secret isn't told to whoever connects. Rooms exist on all nodes and are only created by
+ * ROOM, other messages for rooms this node doesn't know are ignored. Each node distributes the messages of its own clients to its own members and relays them once to every
+ * other node, which distributes them to its members; nothing is relayed further, so every pair of nodes needs a link.
+ * Entering and leaving is relayed as well, so WHO_IS_IN lists the members of all nodes. <br/>
+ * If two nodes dial each other, both keep the link dialed by the node with the smaller name. A peer that can't keep
+ * up is disconnected rather than skipped, and gets all rooms and members again when it is back.
+ */
+class Federation {
+    private static final Logger LOG = Logger.getLogger(Federation.class);
+
+    /**
+     * Milliseconds between two attempts to dial a peer.
+     */
+    private static final long RETRY_DELAY = 2000;
+
+    /**
+     * Messages queued for a peer before it is disconnected.
+     */
+    private static final int PEER_CAPACITY = 64 * 1024;
+
+    /**
+     * Holds the server instance.
+     */
+    @NotNull
+    private final ServerEntity server;
+
+    /**
+     * Holds the name of this node.
+     */
+    @NotNull
+    private final String nodeName;
+
+    /**
+     * Holds the secret the nodes of the federation share.
+     */
+    @NotNull
+    private final String secret;
+
+    /**
+     * Holds the links to the other nodes by their name.
+     */
+    @NotNull
+    private final ConcurrentMap<String, Link> links = new ConcurrentHashMap<>();
+
+    /**
+     * Serializes membership changes with new links, so a new link gets every change either in its first snapshot or
+     * afterwards. Messages don't take it.
+     */
+    private final ReentrantLock membershipLock = new ReentrantLock();
+
+    /**
+     * Holds the socket for the links of other nodes, null if the node only dials.
+     */
+    @Nullable
+    private ServerSocket serverSocket;
+
+    /**
+     * Threads that dial the peers.
+     */
+    @NotNull
+    private final List<Thread> dialers = new ArrayList<>();
+
+    /**
+     * Will be turned off to stop accepting and dialing.
+     */
+    private volatile boolean running;
+
+    /**
+     * Constructor.
+     *
+     * @param server Server with the chat rooms. Not null.
+     */
+    Federation(@NotNull final ServerEntity server) {
+        Preconditions.checkNotNull(server, "server must not be null.");
+
+        this.server = server;
+        final String configured = server.getConfig().getNodeName();
+        this.nodeName = configured != null ? configured : localHostName() + ":" + server.getPort();
+        this.secret = Preconditions.checkNotNull(server.getConfig().getFederationSecret(),
+                "federation secret must not be null.");
+    }
+
+    /**
+     * Accepts links of other nodes and starts dialing the peers.
+     *
+     * @throws IOException If the federation port can't be bound.
+     */
+    void start() throws IOException {
+        running = true;
+        final int port = server.getConfig().getFederationPort();
+        if (port > 0) {
+            final ServerSocket socket = new ServerSocket(port);
+            serverSocket = socket;
+            server.getThreadMode().start(() -> accept(socket), "federation-accept");
+        }
+        for (final HostAndPort peer : server.getConfig().getFederationPeers()) {
+            dialers.add(server.getThreadMode().start(() -> dial(peer), "federation-dial-" + peer));
+        }
+        LOG.info("Node " + nodeName + " federates on port " + port
+                + " with " + server.getConfig().getFederationPeers());
+    }
+
+    /**
+     * Stops accepting and dialing and closes all links.
+     */
+    void close() {
+        running = false;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (final IOException ignored) {
+                // IGNORED
+            }
+        }
+        for (final Thread dialer : dialers) {
+            dialer.interrupt();
+        }
+        for (final Link link : links.values()) {
+            link.transport.kill();
+        }
+    }
+
+    /**
+     * @return Name of this node. Not null.
+     */
+    @NotNull
+    String getNodeName() {
+        return nodeName;
+    }
+
+    /**
+     * @return Names of the nodes linked now, sorted. Not null.
+     */
+    @NotNull
+    List<String> getLinkedNodes() {
+        final List<String> nodes = new ArrayList<>(links.keySet());
+        nodes.sort(null);
+        return nodes;
+    }
+
+    /**
+     * Tells the other nodes about a room created here.
+     *
+     * @param room Name of the room. Not null.
+     */
+    void roomCreated(@NotNull final String room) {
+        Preconditions.checkNotNull(room, "room must not be null.");
+
+        sendMembership(PeerMessage.room(room));
+    }
+
+    /**
+     * Tells the other nodes that a client of this node has entered a room.
+     *
+     * @param room   Not null.
+     * @param client Not null.
+     */
+    void memberEntered(@NotNull final ChatRoom room, @NotNull final ConnectedClient client) {
+        Preconditions.checkNotNull(room, "room must not be null.");
+        Preconditions.checkNotNull(client, "client must not be null.");
+
+        sendMembership(PeerMessage.enter(room.getName(), client));
+    }
+
+    /**
+     * Tells the other nodes that a client of this node has left a room.
+     *
+     * @param room   Not null.
+     * @param client Not null.
+     */
+    void memberLeft(@NotNull final ChatRoom room, @NotNull final ConnectedClient client) {
+        Preconditions.checkNotNull(room, "room must not be null.");
+        Preconditions.checkNotNull(client, "client must not be null.");
+
+        sendMembership(PeerMessage.leave(room.getName(), client.clientId));
+    }
+
+    /**
+     * Relays a message of a client of this node to the other nodes. Doesn't block.
+     *
+     * @param room    Name of the room. Not null.
+     * @param message Message as the local members got it. Not null.
+     */
+    void relay(@NotNull final String room, @NotNull final Message message) {
+        Preconditions.checkNotNull(room, "room must not be null.");
+        Preconditions.checkNotNull(message, "message must not be null.");
+
+        if (links.isEmpty()) {
+            return;
+        }
+        // encoded once, all links share the bytes
+        final EncodedMessage encoded = encode(PeerMessage.message(room, message.getPayload(), message.getTimestamp()));
+        for (final Link link : links.values()) {
+            link.send(encoded);
+        }
+    }
+
+    /**
+     * Sends a change of rooms or members to all links.
+     */
+    private void sendMembership(@NotNull final PeerMessage message) {
+        if (links.isEmpty()) {
+            return;
+        }
+        final EncodedMessage encoded = encode(message);
+        membershipLock.lock();
+        try {
+            for (final Link link : links.values()) {
+                link.send(encoded);
+            }
+        } finally {
+            membershipLock.unlock();
+        }
+    }
+
+    /**
+     * Accepts links of other nodes until the federation is closed.
+     */
+    private void accept(@NotNull final ServerSocket socket) {
+        while (running) {
+            final Socket accepted;
+            try {
+                accepted = socket.accept();
+            } catch (final IOException e) {
+                if (running) {
+                    LOG.error("Couldn't accept a link", e);
+                }
+                return;
+            }
+            server.getThreadMode().start(() -> {
+                try {
+                    server.getConfig().configure(accepted);
+                    accepted.setSoTimeout(server.getConfig().getHandshakeTimeout());
+                    serve(Connection.to(accepted, server.getCompressedCodec()), false);
+                } catch (final IOException e) {
+                    LOG.warn("Link from " + accepted.getRemoteSocketAddress() + " failed: " + e.getMessage());
+                    closeQuietly(accepted);
+                }
+            }, "federation-link-" + accepted.getPort());
+        }
+    }
+
+    /**
+     * Keeps a link to a peer until the federation is closed, dialing again whenever it is lost.
+     */
+    private void dial(@NotNull final HostAndPort peer) {
+        String node = null;
+        while (running) {
+            // the peer may have dialed us meanwhile
+            if (node == null || !links.containsKey(node)) {
+                try {
+                    final Connection connection =
+                            Connection.to(peer.getHost(), peer.getPort(), server.getCompressedCodec());
+                    node = serve(connection, true);
+                } catch (final IOException e) {
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug("Couldn't link to " + peer + ": " + e.getMessage());
+                    }
+                }
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(RETRY_DELAY);
+            } catch (final InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Greets the other node, then handles its messages until the link is lost.
+     *
+     * @param connection Connection to the other node, the preambles are exchanged. Not null.
+     * @param dialed     True, if this node has dialed.
+     * @return Name of the other node, null if it didn't greet.
+     */
+    @Nullable
+    private String serve(@NotNull final Connection connection, final boolean dialed) throws IOException {
+        final BlockingTransport transport = new BlockingTransport(connection, server.getConfig(),
+                server.getMetrics(), PEER_CAPACITY, OverflowPolicy.DISCONNECT);
+        transport.startWriter(server.getThreadMode(), "federation-writer-" + connection.getPort());
+        final Link link;
+        try {
+            if (dialed) {
+                transport.send(encode(PeerMessage.hello(nodeName, secret)));
+            }
+            connection.setReadTimeout(server.getConfig().getHandshakeTimeout());
+            final PeerMessage hello = PeerMessage.fromJson(transport.receive().getPayload());
+            connection.setReadTimeout(0);
+            if (hello.getKind() != PeerMessage.Kind.HELLO || hello.getNode() == null) {
+                throw new IOException("link doesn't start with HELLO: " + hello.getKind());
+            }
+            if (!isSecret(hello.getSecret())) {
+                throw new IOException("node " + hello.getNode() + " doesn't know the secret of the federation");
+            }
+            if (hello.getNode().equals(nodeName)) {
+                throw new IOException("peer has the same node name " + nodeName);
+            }
+            if (!dialed) {
+                transport.send(encode(PeerMessage.hello(nodeName, secret)));
+            }
+            link = new Link(hello.getNode(), dialed ? nodeName : hello.getNode(), transport);
+        } catch (final IOException e) {
+            transport.kill();
+            throw e;
+        }
+
+        if (!register(link)) {
+            transport.kill();
+            return link.node;
+        }
+        LOG.info("Linked to node " + link.node);
+        try {
+            while (running) {
+                handle(link, PeerMessage.fromJson(transport.receive().getPayload()));
+            }
+        } catch (final IOException e) {
+            if (running) {
+                LOG.warn("Lost link to node " + link.node + ": " + e.getMessage());
+            }
+        } finally {
+            transport.kill();
+            unregister(link);
+        }
+        return link.node;
+    }
+
+    /**
+     * Adds a link unless a better one to the same node exists, then sends it all rooms and local members.
+     *
+     * @return False, if the link is superfluous.
+     */
+    private boolean register(@NotNull final Link link) {
+        membershipLock.lock();
+        try {
+            final Link existing = links.get(link.node);
+            if (existing != null && existing.transport.isActive()
+                    && existing.dialer.compareTo(link.dialer) < 0) {
+                return false;
+            }
+            links.put(link.node, link);
+            if (existing != null) {
+                existing.transport.kill();
+            }
+
+            for (final ChatRoom room : server.getAllChatRooms()) {
+                link.send(encode(PeerMessage.room(room.getName())));
+            }
+            for (final ChatRoom room : server.getAllChatRooms()) {
+                for (final ConnectedClient client : room.getClients()) {
+                    link.send(encode(PeerMessage.enter(room.getName(), client)));
+                }
+            }
+            return true;
+        } finally {
+            membershipLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a lost link and, unless it was replaced, the members of its node.
+     */
+    private void unregister(@NotNull final Link link) {
+        if (links.remove(link.node, link)) {
+            for (final ChatRoom room : server.getAllChatRooms()) {
+                room.removeRemoteMembers(link.node);
+            }
+        }
+    }
+
+    /**
+     * Applies a message of another node.
+     */
+    private void handle(@NotNull final Link link, @NotNull final PeerMessage message) throws IOException {
+        final String roomName = message.getRoom();
+        if (roomName == null) {
+            throw new IOException(message.getKind() + " without room");
+        }
+        if (message.getKind() == PeerMessage.Kind.ROOM) {
+            server.addRoom(roomName);
+            return;
+        }
+        final ChatRoom room;
+        try {
+            room = server.getRoomByName(roomName);
+        } catch (final ChatRoomNotFoundException e) {
+            LOG.warn("Ignoring " + message.getKind() + " of node " + link.node + " for unknown room " + roomName);
+            return;
+        }
+        switch (message.getKind()) {
+            case ENTER:
+                room.addRemoteMember(new RoomMember(link.node, message.getClientId(),
+                        String.valueOf(message.getUsername()), String.valueOf(message.getSince())));
+                break;
+            case LEAVE:
+                room.removeRemoteMember(link.node, message.getClientId());
+                break;
+            case MESSAGE:
+                room.distributeRelayed(new Message(MessageType.MESSAGE, String.valueOf(message.getText()),
+                        message.getTimestamp()));
+                break;
+            default:
+                throw new IOException("unexpected " + message.getKind());
+        }
+    }
+
+    /**
+     * Compares in constant time, so the answer doesn't tell how much of the secret was right.
+     *
+     * @param sent Secret in the HELLO of another node, null if it sent none.
+     * @return True, if it is the secret of the federation.
+     */
+    private boolean isSecret(@Nullable final String sent) {
+        return sent != null && MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8),
+                sent.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return Peer message as a message on a link. Not null.
+     */
+    @NotNull
+    private static EncodedMessage encode(@NotNull final PeerMessage message) {
+        return new EncodedMessage(new Message(MessageType.MESSAGE, message.toJson()));
+    }
+
+    /**
+     * @return Name of this host, "localhost" if it has none. Not null.
+     */
+    @NotNull
+    private static String localHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (final UnknownHostException e) {
+            return "localhost";
+        }
+    }
+
+    /**
+     * Closes the socket quietly.
+     */
+    private static void closeQuietly(@NotNull final Socket socket) {
+        try {
+            socket.close();
+        } catch (final IOException ignored) {
+            // IGNORED
+        }
+    }
+
+    /**
+     * Link to another node.
+     */
+    private static final class Link {
+
+        /**
+         * Holds the name of the other node.
+         */
+        @NotNull
+        final String node;
+
+        /**
+         * Holds the name of the node that has dialed, to pick one of two links between the same nodes.
+         */
+        @NotNull
+        final String dialer;
+
+        @NotNull
+        final BlockingTransport transport;
+
+        Link(@NotNull final String node, @NotNull final String dialer, @NotNull final BlockingTransport transport) {
+            this.node = node;
+            this.dialer = dialer;
+            this.transport = transport;
+        }
+
+        /**
+         * Queues a message for the other node. A node that can't keep up is disconnected.
+         */
+        void send(@NotNull final EncodedMessage message) {
+            try {
+                transport.send(message);
+            } catch (final IOException e) {
+                LOG.warn("Disconnected node " + node + ": " + e.getMessage());
+            }
+        }
+    }
+}
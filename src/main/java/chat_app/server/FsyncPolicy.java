@@ -0,0 +1,23 @@
+package chat_app.server;
+
+/**
+ * When the {@link RoomLogWriter} forces the appended messages of the {@link RoomLog room logs} to the disk. Without
+ * a force they are in the page cache, which survives a crash of the server but not one of the machine.
+ */
+enum FsyncPolicy {
+
+    /**
+     * Leaves it to the operating system.
+     */
+    NEVER,
+
+    /**
+     * After every batch of messages taken from the queue, a group commit.
+     */
+    BATCH,
+
+    /**
+     * At most once per {@link ServerConfig#getLogFsyncInterval() interval}.
+     */
+    INTERVAL
+}
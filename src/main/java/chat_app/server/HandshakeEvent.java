@@ -0,0 +1,30 @@
+package chat_app.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of a handshake, from the accepted connection to the username or the failure.
+ */
+@Name("chat_app.Handshake")
+@Label("Handshake")
+@Category({"Chat App", "Connections"})
+@Description("Preamble and username of a new client")
+class HandshakeEvent extends Event {
+
+    @Label("Remote Address")
+    String remoteAddress;
+
+    @Label("Codec")
+    String codec;
+
+    @Label("Username")
+    String username;
+
+    @Label("Failure")
+    @Description("Why the handshake failed, null if it succeeded")
+    String failure;
+}
@@ -0,0 +1,170 @@
+package chat_app.server;
+
+import chat_app.transfer_object.Message;
+import chat_app.transfer_object.SessionTicket;
+import chat_app.utility.Connection;
+import chat_app.utility.FramedCodec;
+import com.google.common.base.Preconditions;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Admits accepted sockets to the waiting hall, or to the session they {@link ResumeStage resume}. Preamble and
+ * username or resume ticket are read on a thread of their own, outside the
+ * accept loop and the room locks, and within the {@link ServerConfig#getHandshakeTimeout() handshake timeout}: a timer
+ * on the {@link TimingWheel} closes the socket when the whole handshake takes longer, however the peer spreads its
+ * bytes. <br/>
+ * Only {@link ServerConfig#getHandshakeSlots() a limited number} of handshakes run at once, sockets beyond that are
+ * closed right away, so peers that never speak only block their own slot until they time out. The
+ * {@link NioServerEngine} takes its slots here too.
+ */
+class HandshakeStage {
+    private static final Logger LOG = Logger.getLogger(HandshakeStage.class);
+
+    /**
+     * Holds the server instance.
+     */
+    @NotNull
+    private final ServerEntity server;
+
+    /**
+     * Free handshake slots.
+     */
+    @NotNull
+    private final Semaphore slots;
+
+    /**
+     * Constructor.
+     *
+     * @param server Server to admit the clients to. Not null.
+     */
+    HandshakeStage(@NotNull final ServerEntity server) {
+        Preconditions.checkNotNull(server, "server must not be null.");
+
+        this.server = server;
+        this.slots = new Semaphore(server.getConfig().getHandshakeSlots());
+    }
+
+    /**
+     * Takes a slot for a handshake that runs elsewhere, on an event loop.
+     *
+     * @return False, if all slots are in use.
+     */
+    boolean tryAcquireSlot() {
+        return slots.tryAcquire();
+    }
+
+    /**
+     * Frees the slot of such a handshake once it has ended.
+     */
+    void releaseSlot() {
+        slots.release();
+    }
+
+    /**
+     * Starts the handshake with a new client. Doesn't block.
+     *
+     * @param socket Accepted socket. Not null.
+     */
+    void admit(@NotNull final Socket socket) {
+        Preconditions.checkNotNull(socket, "socket must not be null.");
+
+        if (!slots.tryAcquire()) {
+            LOG.warn("Rejecting " + socket.getRemoteSocketAddress() + ", all handshake slots are in use.");
+            close(socket);
+            return;
+        }
+        try {
+            server.getThreadMode().start(() -> handshake(socket), "handshake-" + socket.getPort());
+        } catch (final RuntimeException | OutOfMemoryError e) {
+            slots.release();
+            close(socket);
+            throw e;
+        }
+    }
+
+    /**
+     * Reads preamble and username or ticket and lets the client enter the waiting hall or resume.
+     */
+    private void handshake(@NotNull final Socket socket) {
+        final HandshakeEvent event = new HandshakeEvent();
+        event.begin();
+        Connection connection = null;
+        final String username;
+        final SessionTicket resume;
+        final TimingWheel.Timeout deadline = server.getTimingWheel()
+                .schedule(() -> close(socket), server.getConfig().getHandshakeTimeout());
+        try {
+            server.getConfig().configure(socket);
+            connection = Connection.to(socket, server.getCompressedCodec());
+            try {
+                final Message first = connection.receive(FramedCodec.MAX_HANDSHAKE_LENGTH);
+                resume = ResumeStage.ticketOf(first);
+                username = resume == null ? first.getPayload() : resume.getUsername();
+                if (!deadline.cancel()) {
+                    throw new SocketTimeoutException("socket closed at the deadline");
+                }
+            } catch (final IOException e) {
+                connection.kill();
+                throw e;
+            }
+        } catch (final IOException e) {
+            if (e instanceof StreamCorruptedException) {
+                DecodeFailureEvent.record(String.valueOf(socket.getRemoteSocketAddress()),
+                        connection == null ? null : connection.getCodec(), (StreamCorruptedException) e);
+            }
+            final String failure = deadline.cancel() ? e.toString()
+                    : "Handshake took longer than " + server.getConfig().getHandshakeTimeout() + " ms";
+            commit(event, socket, connection, null, failure);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Handshake with " + socket.getRemoteSocketAddress() + " failed", e);
+            }
+            close(socket);
+            return;
+        } finally {
+            slots.release();
+        }
+
+        commit(event, socket, connection, username, null);
+        server.getWaitingHall().enterChatRoom(connection, username, resume);
+    }
+
+    /**
+     * Records the end of a handshake, if the flight recorder wants it.
+     *
+     * @param connection Null, if the preamble couldn't be read.
+     * @param username   Null, if the handshake failed.
+     * @param failure    Why it failed, null if it succeeded.
+     */
+    private static void commit(@NotNull final HandshakeEvent event,
+                               @NotNull final Socket socket,
+                               @Nullable final Connection connection,
+                               @Nullable final String username,
+                               @Nullable final String failure) {
+        if (event.shouldCommit()) {
+            event.remoteAddress = String.valueOf(socket.getRemoteSocketAddress());
+            event.codec = connection == null ? null : OutboundTransport.codecName(connection.getCodec());
+            event.username = username;
+            event.failure = failure;
+            event.commit();
+        }
+    }
+
+    /**
+     * Closes the socket quietly.
+     */
+    private static void close(@NotNull final Socket socket) {
+        try {
+            socket.close();
+        } catch (final IOException ignored) {
+            // IGNORED
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package chat_app.server;
+
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.zip.CRC32;
+
+/**
+ * One file of a {@link RoomLog}, named after the sequence number of its first message. <br/>
+ * Records are {@code int length | int crc | long sequence | frame}, the sequence being the number the room gave the
+ * message. The numbers increase from record to record, with gaps where messages weren't logged. A length of 0 marks
+ * the end, so the file can be preallocated. The {@link RoomLogWriter} appends through a memory mapping; readers use
+ * positional reads up to the published end, which see the same pages. Every {@link #INDEX_INTERVAL} bytes the
+ * position of a record is indexed, so a read starts close to the sequence number it asks for.
+ */
+class LogSegment {
+
+    /**
+     * Bytes in front of each frame.
+     */
+    static final int HEADER_SIZE = 4 + 4 + 8;
+
+    /**
+     * Bytes between indexed records.
+     */
+    private static final int INDEX_INTERVAL = 4096;
+
+    /**
+     * Holds the sequence number of the first message.
+     */
+    private final long baseSequence;
+
+    /**
+     * Holds the file.
+     */
+    @NotNull
+    private final Path file;
+
+    /**
+     * Holds the channel of the file.
+     */
+    @NotNull
+    private final FileChannel channel;
+
+    /**
+     * Positions of records by sequence number.
+     */
+    @NotNull
+    private final ConcurrentNavigableMap<Long, Integer> index = new ConcurrentSkipListMap<>();
+
+    /**
+     * Mapping the writer appends to, null after {@link #seal()}.
+     */
+    @Nullable
+    private MappedByteBuffer map;
+
+    /**
+     * Bytes of complete records. Published after each append.
+     */
+    private volatile int end;
+
+    /**
+     * Sequence number of the next message.
+     */
+    private volatile long nextSequence;
+
+    /**
+     * Bytes forced to the disk.
+     */
+    private int forced;
+
+    /**
+     * Position of the last indexed record.
+     */
+    private int lastIndexed = -INDEX_INTERVAL;
+
+    private LogSegment(final long baseSequence, @NotNull final Path file, @NotNull final FileChannel channel) {
+        this.baseSequence = baseSequence;
+        this.file = file;
+        this.channel = channel;
+        this.nextSequence = baseSequence;
+    }
+
+    /**
+     * @return Name of the file for the first sequence number. Not null.
+     */
+    @NotNull
+    static String fileName(final long baseSequence) {
+        return String.format("%020d.log", baseSequence);
+    }
+
+    /**
+     * Opens an existing segment and finds its end. A torn or corrupt record ends it.
+     *
+     * @param file         Not null.
+     * @param baseSequence Sequence number of the first message.
+     * @return Not null.
+     */
+    @NotNull
+    static LogSegment open(@NotNull final Path file, final long baseSequence) throws IOException {
+        Preconditions.checkNotNull(file, "file must not be null.");
+
+        final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final LogSegment segment = new LogSegment(baseSequence, file, channel);
+        try {
+            segment.recover();
+        } catch (final IOException e) {
+            channel.close();
+            throw e;
+        }
+        return segment;
+    }
+
+    /**
+     * Creates a new, empty segment.
+     *
+     * @param file         Not null.
+     * @param baseSequence Sequence number of the first message.
+     * @return Not null.
+     */
+    @NotNull
+    static LogSegment create(@NotNull final Path file, final long baseSequence) throws IOException {
+        Preconditions.checkNotNull(file, "file must not be null.");
+
+        final FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new LogSegment(baseSequence, file, channel);
+    }
+
+    /**
+     * Maps the segment for appending. The file grows to the size, the part that isn't written stays sparse.
+     *
+     * @param size Bytes to map.
+     */
+    void mapForAppend(final int size) throws IOException {
+        final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, end));
+        if (end + 4 <= mapped.capacity()) {
+            // cut off what a crash may have left behind
+            mapped.putInt(end, 0);
+        }
+        this.map = mapped;
+    }
+
+    /**
+     * Appends a message. Only called by the writer.
+     *
+     * @param sequence Sequence number of the message, above the ones appended before.
+     * @param frame    Encoded message. Not null.
+     * @return False, if the segment is full.
+     */
+    boolean append(final long sequence, @NotNull final byte[] frame) {
+        Preconditions.checkNotNull(frame, "frame must not be null.");
+        Preconditions.checkState(map != null, "segment is sealed.");
+        Preconditions.checkArgument(sequence >= nextSequence, "expected sequence %s or later", nextSequence);
+
+        final MappedByteBuffer map = this.map;
+        final int position = end;
+        final int next = position + HEADER_SIZE + frame.length;
+        if (next > map.capacity()) {
+            return false;
+        }
+        if (next + 4 <= map.capacity()) {
+            map.putInt(next, 0);
+        }
+        final CRC32 crc = new CRC32();
+        crc.update(frame);
+        map.putInt(position + 4, (int) crc.getValue());
+        map.putLong(position + 8, sequence);
+        map.put(position + HEADER_SIZE, frame);
+        // the length comes last, so a torn record reads as the end
+        map.putInt(position, frame.length);
+
+        if (position - lastIndexed >= INDEX_INTERVAL) {
+            index.put(sequence, position);
+            lastIndexed = position;
+        }
+        nextSequence = sequence + 1;
+        end = next;
+        return true;
+    }
+
+    /**
+     * Forces the records appended since the last force to the disk.
+     */
+    void force() {
+        final MappedByteBuffer map = this.map;
+        final int end = this.end;
+        if (map != null && end > forced) {
+            map.force(forced, end - forced);
+            forced = end;
+        }
+    }
+
+    /**
+     * Forces the records and stops appending.
+     */
+    void seal() {
+        force();
+        map = null;
+    }
+
+    /**
+     * Reads messages in order.
+     *
+     * @param fromSequence First sequence number to read.
+     * @param max          Most messages to add.
+     * @param frames       Receives the frames. Not null.
+     */
+    void read(final long fromSequence, final int max, @NotNull final List<byte[]> frames) throws IOException {
+        Preconditions.checkNotNull(frames, "frames must not be null.");
+
+        final int limit = end;
+        final Map.Entry<Long, Integer> indexed = index.floorEntry(fromSequence);
+        int position = indexed == null ? 0 : indexed.getValue();
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        int added = 0;
+        while (added < max && position + HEADER_SIZE <= limit) {
+            header.clear();
+            readFully(header, position);
+            final int length = header.getInt(0);
+            final long sequence = header.getLong(8);
+            if (sequence >= fromSequence) {
+                final ByteBuffer frame = ByteBuffer.allocate(length);
+                readFully(frame, position + HEADER_SIZE);
+                frames.add(frame.array());
+                ++added;
+            }
+            position += HEADER_SIZE + length;
+        }
+    }
+
+    /**
+     * @return Sequence number of the first message.
+     */
+    long getBaseSequence() {
+        return baseSequence;
+    }
+
+    /**
+     * @return Sequence number after the last message, the first one if the segment is empty.
+     */
+    long getNextSequence() {
+        return nextSequence;
+    }
+
+    /**
+     * @return Bytes of complete records.
+     */
+    int getEnd() {
+        return end;
+    }
+
+    /**
+     * @return Milliseconds since the epoch of the last append.
+     */
+    long getLastModified() throws IOException {
+        return Files.getLastModifiedTime(file).toMillis();
+    }
+
+    /**
+     * Closes the file.
+     */
+    void close() throws IOException {
+        map = null;
+        channel.close();
+    }
+
+    /**
+     * Closes and deletes the file.
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+    }
+
+    /**
+     * Scans the records, rebuilds the index and stops at the first one that is incomplete or corrupt.
+     */
+    private void recover() throws IOException {
+        final long size = channel.size();
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        int position = 0;
+        long expected = baseSequence;
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            readFully(header, position);
+            final int length = header.getInt(0);
+            final long sequence = header.getLong(8);
+            if (length <= 0 || position + HEADER_SIZE + (long) length > size || sequence < expected) {
+                break;
+            }
+            final ByteBuffer frame = ByteBuffer.allocate(length);
+            readFully(frame, position + HEADER_SIZE);
+            final CRC32 crc = new CRC32();
+            crc.update(frame.array());
+            if ((int) crc.getValue() != header.getInt(4)) {
+                break;
+            }
+            if (position - lastIndexed >= INDEX_INTERVAL) {
+                index.put(sequence, position);
+                lastIndexed = position;
+            }
+            position += HEADER_SIZE + length;
+            expected = sequence + 1;
+        }
+        end = position;
+        forced = position;
+        nextSequence = expected;
+    }
+
+    /**
+     * Fills the buffer from the position of the file.
+     */
+    private void readFully(@NotNull final ByteBuffer buffer, final long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            final int count = channel.read(buffer, offset);
+            if (count < 0) {
+                throw new IOException("Unexpected end of " + file);
+            }
+            offset += count;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package chat_app.server;
+
+import com.google.common.base.Preconditions;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * One thread of the {@link NioServerEngine}. Waits on its own selector and handles accept, read and write
+ * readiness for the channels registered with it. Work from other threads is passed in with {@link #execute(Runnable)}.
+ */
+class NioEventLoop implements Runnable {
+    private static final Logger LOG = Logger.getLogger(NioEventLoop.class);
+
+    /**
+     * Holds the engine that accepts new connections.
+     */
+    @NotNull
+    private final NioServerEngine engine;
+
+    /**
+     * Selector of this loop.
+     */
+    @NotNull
+    private final Selector selector;
+
+    /**
+     * Tasks to run on the loop thread.
+     */
+    @NotNull
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Thread that runs the loop.
+     */
+    private Thread thread;
+
+    /**
+     * Will be turned of to stop the loop.
+     */
+    private volatile boolean keepGoing;
+
+    /**
+     * Constructor.
+     *
+     * @param engine Engine that accepts new connections. Not null.
+     */
+    NioEventLoop(@NotNull final NioServerEngine engine) throws IOException {
+        Preconditions.checkNotNull(engine, "engine must not be null.");
+
+        this.engine = engine;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Starts the loop in a new thread.
+     *
+     * @param name Name of the thread. Not null.
+     */
+    void start(@NotNull final String name) {
+        Preconditions.checkNotNull(name, "name must not be null.");
+
+        keepGoing = true;
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    /**
+     * Stops the loop after the current iteration.
+     */
+    void shutdown() {
+        keepGoing = false;
+        selector.wakeup();
+    }
+
+    /**
+     * Waits until the loop has stopped.
+     */
+    void join() throws InterruptedException {
+        thread.join();
+    }
+
+    /**
+     * @return True, if called from the loop thread.
+     */
+    boolean inEventLoop() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * Runs the task on the loop thread.
+     *
+     * @param task Not null.
+     */
+    void execute(@NotNull final Runnable task) {
+        Preconditions.checkNotNull(task, "task must not be null.");
+
+        tasks.add(task);
+        if (!inEventLoop()) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Registers a channel with the selector of this loop. Must be called from the loop thread.
+     *
+     * @param channel    Non-blocking channel. Not null.
+     * @param ops        Interest set.
+     * @param attachment Handler of the channel. Not null.
+     * @return Key of the registration. Not null.
+     */
+    @NotNull
+    SelectionKey register(@NotNull final SelectableChannel channel,
+                          final int ops,
+                          @NotNull final Object attachment) throws IOException {
+        Preconditions.checkState(inEventLoop(), "register must be called from the event loop.");
+
+        return channel.register(selector, ops, attachment);
+    }
+
+    /**
+     * @see Runnable#run()
+     */
+    @Override
+    public void run() {
+        while (keepGoing) {
+            try {
+                // don't block if tasks were added from this thread
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+            } catch (final IOException e) {
+                LOG.error("Selector failed", e);
+                break;
+            }
+
+            processSelectedKeys();
+            runTasks();
+        }
+
+        closeAll();
+    }
+
+    /**
+     * Dispatches the ready channels to their handler.
+     */
+    private void processSelectedKeys() {
+        final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+        while (keys.hasNext()) {
+            final SelectionKey key = keys.next();
+            keys.remove();
+
+            if (!key.isValid()) {
+                continue;
+            }
+            try {
+                if (key.attachment() instanceof NioTransport) {
+                    ((NioTransport) key.attachment()).onReady(key);
+                } else if (key.isAcceptable()) {
+                    engine.accept((ServerSocketChannel) key.channel());
+                }
+            } catch (final CancelledKeyException ignored) {
+                // closed by another thread meanwhile
+            }
+        }
+    }
+
+    /**
+     * Runs all queued tasks.
+     */
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            try {
+                task.run();
+            } catch (final RuntimeException e) {
+                LOG.error("Task failed", e);
+            }
+        }
+    }
+
+    /**
+     * Closes all channels registered with this loop and the selector.
+     */
+    private void closeAll() {
+        for (final SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof NioTransport) {
+                ((NioTransport) key.attachment()).close();
+            } else {
+                try {
+                    key.channel().close();
+                } catch (final IOException ignored) {
+                    // IGNORED
+                }
+            }
+        }
+        try {
+            selector.close();
+        } catch (final IOException ignored) {
+            // IGNORED
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package chat_app.server;
+
+import com.google.common.base.Preconditions;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Non-blocking alternative to {@link ServerEntity#start()}. A small fixed pool of {@link NioEventLoop event loops}
+ * accepts, reads, decodes and writes for all clients, instead of one thread per client. <br/>
+ * Rooms and commands are the same as with the blocking engine.
+ */
+class NioServerEngine {
+    private static final Logger LOG = Logger.getLogger(NioServerEngine.class);
+
+    /**
+     * Holds the server with the chat rooms.
+     */
+    @NotNull
+    private final ServerEntity server;
+
+    /**
+     * Holds the event loops. The first one also accepts new connections.
+     */
+    @NotNull
+    private final NioEventLoop[] eventLoops;
+
+    /**
+     * Index of the loop that gets the next connection. Only used by the accepting loop.
+     */
+    private int nextEventLoop;
+
+    /**
+     * Constructor.
+     *
+     * @param server         Server with the chat rooms. Not null.
+     * @param eventLoopCount Number of event loop threads.
+     */
+    NioServerEngine(@NotNull final ServerEntity server, final int eventLoopCount) throws IOException {
+        Preconditions.checkNotNull(server, "server must not be null.");
+        Preconditions.checkArgument(eventLoopCount > 0, "eventLoopCount must be positive.");
+
+        this.server = server;
+        this.eventLoops = new NioEventLoop[eventLoopCount];
+        for (int i = 0; i < eventLoopCount; ++i) {
+            eventLoops[i] = new NioEventLoop(this);
+        }
+    }
+
+    /**
+     * Starts the server and blocks until all event loops have stopped.
+     */
+    void start() {
+        try (final ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(server.getPort()));
+            serverChannel.configureBlocking(false);
+
+            for (int i = 0; i < eventLoops.length; ++i) {
+                eventLoops[i].start("nio-event-loop-" + i);
+            }
+            final NioEventLoop acceptLoop = eventLoops[0];
+            acceptLoop.execute(() -> {
+                try {
+                    acceptLoop.register(serverChannel, SelectionKey.OP_ACCEPT, this);
+                } catch (final IOException e) {
+                    LOG.error("Couldn't register server channel", e);
+                    shutdown();
+                }
+            });
+            LOG.debug("NIO engine started with " + eventLoops.length + " event loops.");
+
+            for (final NioEventLoop eventLoop : eventLoops) {
+                eventLoop.join();
+            }
+
+        } catch (final IOException e) { // something went wrong
+            LOG.error("Exception on new ServerSocketChannel", e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Stops all event loops, which close their connections.
+     */
+    void shutdown() {
+        for (final NioEventLoop eventLoop : eventLoops) {
+            eventLoop.shutdown();
+        }
+    }
+
+    /**
+     * Accepts all pending connections and hands them round-robin to the event loops. Each takes a handshake slot
+     * until it has logged in, connections beyond the slots are closed.
+     *
+     * @param serverChannel Non-blocking server channel. Not null.
+     */
+    void accept(@NotNull final ServerSocketChannel serverChannel) {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                if (!server.getHandshakeStage().tryAcquireSlot()) {
+                    LOG.warn("Rejecting " + channel.getRemoteAddress() + ", all handshake slots are in use.");
+                    channel.close();
+                    continue;
+                }
+
+                final NioEventLoop eventLoop = eventLoops[nextEventLoop];
+                nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+
+                final NioTransport transport = new NioTransport(server, eventLoop, channel);
+                eventLoop.execute(transport::register);
+            }
+        } catch (final IOException e) {
+            LOG.error("Couldn't accept connection", e);
+        }
+    }
+}
@@ -0,0 +1,505 @@
+package chat_app.server;
+
+import chat_app.transfer_object.Message;
+import chat_app.transfer_object.SessionTicket;
+import chat_app.utility.EncodedMessage;
+import chat_app.utility.FramedCodec;
+import chat_app.utility.WireCodec;
+import com.google.common.base.Preconditions;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Non-blocking connection to one client, driven by its {@link NioEventLoop}. <br/>
+ * Incoming bytes are decoded on the loop and passed to the {@link ConnectedClient}. Outgoing messages can be sent
+ * from any thread, they are queued and written by the loop. The {@link WireCodec} is picked by the first byte the
+ * client sends. <br/>
+ * A message that its client's {@link ConnectedClient#throttle(Message) rate limit} delays is held, and the channel is
+ * not read until a timer on the {@link TimingWheel} releases it, so the client is slowed down by TCP.
+ */
+class NioTransport extends OutboundTransport {
+    private static final Logger LOG = Logger.getLogger(NioTransport.class);
+
+    /**
+     * Initial size of the read buffer.
+     */
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Largest message a client may send, with some room for the framing.
+     */
+    private static final int MAX_MESSAGE_SIZE = FramedCodec.MAX_FRAME_LENGTH + 16;
+
+    /**
+     * Largest preamble and first message, with the username or ticket, before the client has logged in.
+     */
+    private static final int MAX_HANDSHAKE_SIZE = FramedCodec.MAX_HANDSHAKE_LENGTH + 16;
+
+    /**
+     * Most messages handed to the socket in one gathering write.
+     */
+    private static final int MAX_BATCH = 64;
+
+    /**
+     * Holds the server with the chat rooms.
+     */
+    @NotNull
+    private final ServerEntity server;
+
+    /**
+     * Holds the loop that owns the channel.
+     */
+    @NotNull
+    private final NioEventLoop eventLoop;
+
+    /**
+     * Holds the channel to the client.
+     */
+    @NotNull
+    private final SocketChannel channel;
+
+    /**
+     * True, while a flush is queued on the loop.
+     */
+    @NotNull
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    /**
+     * True, after the connection was killed.
+     */
+    @NotNull
+    private final AtomicBoolean killed = new AtomicBoolean();
+
+    /**
+     * Messages that are being written, taken from the queue so the overflow policy can't discard them. The ones
+     * between {@link #batchStart} and {@link #batchEnd} are not completely written yet.
+     */
+    @NotNull
+    private final ByteBuffer[] batch = new ByteBuffer[MAX_BATCH];
+
+    private int batchStart;
+
+    private int batchEnd;
+
+    /**
+     * Holds the bytes a batch collects at most.
+     */
+    private final int flushBytes;
+
+    /**
+     * Received bytes that are not decoded yet. In write mode.
+     */
+    @NotNull
+    private ByteBuffer inbound = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+    /**
+     * Codec the client has chosen, null until its first byte arrived.
+     */
+    private WireCodec codec;
+
+    /**
+     * True, after the preamble of the client was read.
+     */
+    private boolean preambleRead;
+
+    /**
+     * Key of the channel at the selector.
+     */
+    private SelectionKey key;
+
+    /**
+     * Client-session, created after the username was received.
+     */
+    private ConnectedClient client;
+
+    /**
+     * Message delayed by the rate limit, null if reading goes on.
+     */
+    @Nullable
+    private Message held;
+
+    /**
+     * Flight recorder event of the handshake, null once the username was received or the handshake failed.
+     */
+    @Nullable
+    private HandshakeEvent handshake;
+
+    /**
+     * True, while the connection holds the slot of the {@link HandshakeStage} it took when it was accepted.
+     */
+    private boolean handshakeSlot = true;
+
+    /**
+     * Timer that closes the connection if the client doesn't log in within the handshake timeout, null once the
+     * handshake has ended.
+     */
+    @Nullable
+    private TimingWheel.Timeout handshakeDeadline;
+
+    /**
+     * Constructor.
+     *
+     * @param server    Server with the chat rooms. Not null.
+     * @param eventLoop Loop that owns the channel. Not null.
+     * @param channel   Non-blocking channel to the client. Not null.
+     */
+    NioTransport(@NotNull final ServerEntity server,
+                 @NotNull final NioEventLoop eventLoop,
+                 @NotNull final SocketChannel channel) {
+        super(server.getConfig());
+        Preconditions.checkNotNull(server, "server must not be null.");
+        Preconditions.checkNotNull(eventLoop, "eventLoop must not be null.");
+        Preconditions.checkNotNull(channel, "channel must not be null.");
+
+        this.server = server;
+        this.eventLoop = eventLoop;
+        this.channel = channel;
+        this.flushBytes = server.getConfig().getFlushBytes();
+    }
+
+    /**
+     * Registers the channel at the loop. Runs on the loop.
+     */
+    void register() {
+        try {
+            server.getConfig().configure(channel.socket());
+            handshake = new HandshakeEvent();
+            handshake.begin();
+            handshakeDeadline = server.getTimingWheel().schedule(() -> eventLoop.execute(this::handshakeExpired),
+                    server.getConfig().getHandshakeTimeout());
+            key = eventLoop.register(channel, SelectionKey.OP_READ, this);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("Connection accepted " + channel.getRemoteAddress());
+            }
+        } catch (final IOException e) {
+            LOG.error("Couldn't register connection", e);
+            close();
+        }
+    }
+
+    /**
+     * Handles readiness of the channel. Runs on the loop.
+     *
+     * @param key Selected key. Not null.
+     */
+    void onReady(@NotNull final SelectionKey key) {
+        if (key.isReadable()) {
+            read();
+        }
+        if (key.isValid() && key.isWritable()) {
+            flush();
+        }
+    }
+
+    @NotNull
+    @Override
+    WireCodec codec() {
+        return codec;
+    }
+
+    @NotNull
+    @Override
+    String remoteAddress() {
+        return String.valueOf(channel.socket().getRemoteSocketAddress());
+    }
+
+    /**
+     * Lets the loop write the queued messages.
+     */
+    @Override
+    void onEnqueued() {
+        if (flushScheduled.compareAndSet(false, true)) {
+            eventLoop.execute(this::flush);
+        }
+    }
+
+    /**
+     * @return True, if still connected.
+     */
+    @Override
+    public boolean isActive() {
+        return channel.isOpen();
+    }
+
+    /**
+     * Closes the connection. If called from another thread, the loop lets the client leave its room.
+     */
+    @Override
+    public void kill() {
+        if (!killed.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (key != null)
+                key.cancel();
+            channel.close();
+        } catch (final Exception ignored) {
+            // IGNORED
+        }
+        outbound.clear();
+        eventLoop.execute(this::close);
+    }
+
+    /**
+     * Lets the client leave its room and closes the connection. Runs on the loop.
+     */
+    void close() {
+        if (client != null) {
+            client.close();
+        } else {
+            endHandshake(null, "Connection closed");
+            kill();
+        }
+    }
+
+    /**
+     * Reads available bytes and handles all complete messages.
+     */
+    private void read() {
+        try {
+            final int count = channel.read(inbound);
+            if (count < 0) {
+                LOG.debug("Client has closed the connection.");
+                close();
+                return;
+            }
+            server.getMetrics().countBytesIn(count);
+            decodeInbound();
+        } catch (final StreamCorruptedException e) {
+            decodeFailed(e);
+            endHandshake(null, e.toString());
+            LOG.error("Couldn't decode message from client", e);
+            close();
+        } catch (final IOException e) {
+            LOG.error("Couldn't read from client", e);
+            close();
+        }
+    }
+
+    /**
+     * Handles all complete messages in the read buffer, until one is held.
+     */
+    private void decodeInbound() throws IOException {
+        inbound.flip();
+        try {
+            if (!preambleRead) {
+                readPreamble();
+            }
+            while (preambleRead && channel.isOpen() && held == null) {
+                final long start = System.nanoTime();
+                final Message message = client == null
+                        ? codec.decode(inbound, FramedCodec.MAX_HANDSHAKE_LENGTH) : codec.decode(inbound);
+                if (message == null) {
+                    break;
+                }
+                server.getMetrics().recordDecode(System.nanoTime() - start);
+                dispatch(message);
+            }
+        } finally {
+            inbound.compact();
+        }
+
+        if (held == null && !inbound.hasRemaining()) {
+            growInbound();
+        }
+    }
+
+    /**
+     * Handles the held message once its delay is over and goes on reading. Runs on the loop.
+     */
+    private void release() {
+        final Message message = held;
+        if (message == null || key == null || !key.isValid()) {
+            return;
+        }
+        held = null;
+        if (!client.handle(message)) {
+            client.close();
+            return;
+        }
+        key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        try {
+            decodeInbound();
+        } catch (final StreamCorruptedException e) {
+            decodeFailed(e);
+            LOG.error("Couldn't decode message from client", e);
+            close();
+        } catch (final IOException e) {
+            LOG.error("Couldn't read from client", e);
+            close();
+        }
+    }
+
+    /**
+     * @return Interest in reading, none while a message is held.
+     */
+    private int readInterest() {
+        return held == null ? SelectionKey.OP_READ : 0;
+    }
+
+    /**
+     * Picks the codec by the first byte of the client and answers with the same preamble, or with plain frames if
+     * the client offers compression and the server has it off.
+     */
+    private void readPreamble() throws IOException {
+        if (!inbound.hasRemaining()) {
+            return;
+        }
+        if (codec == null) {
+            codec = WireCodec.detect(inbound.get(inbound.position()));
+        }
+        preambleRead = codec.readPreamble(inbound);
+        if (preambleRead) {
+            codec = WireCodec.answer(codec, server.getCompressedCodec());
+            batch[batchEnd++] = ByteBuffer.wrap(codec.preamble());
+            flush();
+        }
+    }
+
+    /**
+     * Doubles the read buffer for a message that doesn't fit. Until the client has logged in, it doesn't grow.
+     */
+    private void growInbound() throws StreamCorruptedException {
+        final int max = client == null ? MAX_HANDSHAKE_SIZE : MAX_MESSAGE_SIZE;
+        if (inbound.capacity() >= max) {
+            throw new StreamCorruptedException("Message exceeds " + max + " bytes");
+        }
+        final ByteBuffer grown = ByteBuffer.allocate(inbound.capacity() * 2);
+        inbound.flip();
+        grown.put(inbound);
+        inbound = grown;
+    }
+
+    /**
+     * First message holds the username or the ticket of a session to resume, all following ones go to the
+     * client-session.
+     */
+    private void dispatch(@NotNull final Message message) throws StreamCorruptedException {
+        if (client == null) {
+            final SessionTicket resume = ResumeStage.ticketOf(message);
+            final String username = resume == null ? message.getPayload() : resume.getUsername();
+            endHandshake(username, null);
+            client = new ConnectedClient(server, server.getWaitingHall(), this, username);
+            server.addSession(client);
+            client.login(resume);
+            return;
+        }
+        final long delay = client.throttle(message);
+        if (delay > 0) {
+            held = message;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            server.getTimingWheel().schedule(() -> eventLoop.execute(this::release),
+                    TimeUnit.NANOSECONDS.toMillis(delay));
+        } else if (delay != ConnectedClient.DROPPED && !client.handle(message)) {
+            client.close();
+        }
+    }
+
+    /**
+     * Closes the connection of a client that hasn't logged in within the handshake timeout. Runs on the loop.
+     */
+    private void handshakeExpired() {
+        if (client == null) {
+            endHandshake(null, "Handshake took longer than " + server.getConfig().getHandshakeTimeout() + " ms");
+            kill();
+        }
+    }
+
+    /**
+     * Frees the handshake slot, stops the deadline and records the end of the handshake, if it is still running.
+     *
+     * @param username Username of the client, null if the handshake failed.
+     * @param failure  Why it failed, null if it succeeded.
+     */
+    private void endHandshake(@Nullable final String username, @Nullable final String failure) {
+        final TimingWheel.Timeout deadline = handshakeDeadline;
+        if (deadline != null) {
+            handshakeDeadline = null;
+            deadline.cancel();
+        }
+        if (handshakeSlot) {
+            handshakeSlot = false;
+            server.getHandshakeStage().releaseSlot();
+        }
+        final HandshakeEvent event = handshake;
+        if (event == null) {
+            return;
+        }
+        handshake = null;
+        if (event.shouldCommit()) {
+            event.remoteAddress = remoteAddress();
+            event.codec = codecName(codec);
+            event.username = username;
+            event.failure = failure;
+            event.commit();
+        }
+    }
+
+    /**
+     * Writes queued messages until the queue is empty or the socket is full. Runs on the loop. <br/>
+     * The messages queued since the last flush go to the socket in gathering writes, so a burst costs few calls.
+     */
+    private void flush() {
+        flushScheduled.set(false);
+        if (key == null || !key.isValid()) {
+            outbound.clear();
+            return;
+        }
+
+        try {
+            while (fillBatch()) {
+                server.getMetrics().countBytesOut(channel.write(batch, batchStart, batchEnd - batchStart));
+                while (batchStart < batchEnd && !batch[batchStart].hasRemaining()) {
+                    batch[batchStart++] = null;
+                }
+                if (batchStart < batchEnd) {
+                    // socket is full, continue when writable
+                    key.interestOps(readInterest() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            key.interestOps(readInterest());
+            if (closing) {
+                kill();
+            }
+        } catch (final IOException e) {
+            LOG.debug("Couldn't write to client", e);
+            close();
+        }
+    }
+
+    /**
+     * Moves queued messages into the free part of the batch.
+     *
+     * @return False, if there is nothing to write.
+     */
+    private boolean fillBatch() throws IOException {
+        if (batchStart == batchEnd) {
+            batchStart = 0;
+            batchEnd = 0;
+        }
+        long collected = 0;
+        for (int i = batchStart; i < batchEnd; ++i) {
+            collected += batch[i].remaining();
+        }
+        while (batchEnd < MAX_BATCH && collected < flushBytes) {
+            final EncodedMessage message = outbound.poll();
+            if (message == null) {
+                break;
+            }
+            final byte[] frame = frame(message);
+            batch[batchEnd++] = ByteBuffer.wrap(frame);
+            collected += frame.length;
+        }
+        return batchStart < batchEnd;
+    }
+}
@@ -0,0 +1,184 @@
+package chat_app.server;
+
+import chat_app.utility.EncodedMessage;
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded queue of messages waiting to be written to one client. Senders only enqueue, a writer of the client
+ * drains the queue and encodes, so a slow client can't stall the room. What happens when it's full is decided by the
+ * {@link OverflowPolicy}. The first overflow is reported until the writer has caught up again. <br/>
+ * The messages are shared with other queues, their bytes once per codec.
+ */
+class OutboundQueue {
+
+    /**
+     * Holds the messages.
+     */
+    @NotNull
+    private final BlockingQueue<EncodedMessage> queue;
+
+    /**
+     * Maximal number of queued messages.
+     */
+    private final int capacity;
+
+    /**
+     * Holds the overflow policy.
+     */
+    @NotNull
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * Number of messages discarded because the queue was full.
+     */
+    @NotNull
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * True from the first message that didn't fit until the writer finds the queue empty.
+     */
+    @NotNull
+    private final AtomicBoolean overflowing = new AtomicBoolean();
+
+    /**
+     * Holds what runs when the queue starts to overflow.
+     */
+    @NotNull
+    private final Runnable onOverflow;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity       Maximal number of queued messages.
+     * @param overflowPolicy Not null.
+     * @param onOverflow     Runs on the sending thread when a message doesn't fit, once until the writer has caught up.
+     *                       Not null.
+     */
+    OutboundQueue(final int capacity,
+                  @NotNull final OverflowPolicy overflowPolicy,
+                  @NotNull final Runnable onOverflow) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive.");
+        Preconditions.checkNotNull(overflowPolicy, "overflowPolicy must not be null.");
+        Preconditions.checkNotNull(onOverflow, "onOverflow must not be null.");
+
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.onOverflow = onOverflow;
+    }
+
+    /**
+     * Enqueues the message, applying the overflow policy if the queue is full.
+     *
+     * @param message Not null.
+     * @return False, if the client has to be disconnected.
+     */
+    boolean offer(@NotNull final EncodedMessage message) {
+        Preconditions.checkNotNull(message, "message must not be null.");
+
+        if (queue.offer(message)) {
+            return true;
+        }
+
+        if (!overflowing.get() && overflowing.compareAndSet(false, true)) {
+            onOverflow.run();
+        }
+        switch (overflowPolicy) {
+            case DROP_OLDEST:
+                do {
+                    if (queue.poll() != null) {
+                        dropped.incrementAndGet();
+                    }
+                } while (!queue.offer(message));
+                return true;
+            case DROP_NEWEST:
+                dropped.incrementAndGet();
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @return Next message or null if the queue is empty.
+     */
+    @Nullable
+    EncodedMessage poll() {
+        return caughtUp(queue.poll());
+    }
+
+    /**
+     * @param timeout Nanoseconds to wait at most.
+     * @return Next message or null if none arrived in time.
+     */
+    @Nullable
+    EncodedMessage poll(final long timeout) throws InterruptedException {
+        return caughtUp(queue.poll(timeout, TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * @return Next message, waits if the queue is empty. Not null.
+     */
+    @NotNull
+    EncodedMessage take() throws InterruptedException {
+        return queue.take();
+    }
+
+    /**
+     * Discards all queued messages.
+     */
+    void clear() {
+        queue.clear();
+    }
+
+    /**
+     * @return Number of queued messages.
+     */
+    int size() {
+        return queue.size();
+    }
+
+    /**
+     * @return Maximal number of queued messages.
+     */
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return Number of messages discarded because the queue was full.
+     */
+    long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return Overflow policy. Not null.
+     */
+    @NotNull
+    OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Ends an overflow once the writer finds the queue empty.
+     *
+     * @param message Message the writer got, null if the queue was empty.
+     * @return The message.
+     */
+    @Nullable
+    private EncodedMessage caughtUp(@Nullable final EncodedMessage message) {
+        if (message == null && overflowing.get()) {
+            overflowing.set(false);
+        }
+        return message;
+    }
+}
@@ -0,0 +1,192 @@
+package chat_app.server;
+
+import chat_app.transfer_object.Message;
+import chat_app.transfer_object.MessageType;
+import chat_app.utility.EncodedMessage;
+import chat_app.utility.Transport;
+import chat_app.utility.WireCodec;
+import com.google.common.base.Preconditions;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.util.List;
+
+/**
+ * Server side of a client connection. Sending only enqueues into the {@link OutboundQueue} of the client, a writer of
+ * the concrete transport drains it and encodes in the codec of the client. So encoding, compression above all, stays
+ * off the thread that distributes, and the bytes are made once per message and codec.
+ */
+abstract class OutboundTransport implements Transport {
+    private static final Logger LOG = Logger.getLogger(OutboundTransport.class);
+
+    /**
+     * Messages waiting to be written.
+     */
+    @NotNull
+    final OutboundQueue outbound;
+
+    /**
+     * Wakes a writer that waits for messages, writes nothing.
+     */
+    @NotNull
+    private static final EncodedMessage NOTHING = new EncodedMessage(new Message(MessageType.MESSAGE, "", 0));
+
+    @NotNull
+    private static final byte[] NO_BYTES = new byte[0];
+
+    /**
+     * True, after {@link #closeAfterFlush()}. The writer closes the connection once the queue is empty.
+     */
+    volatile boolean closing;
+
+    /**
+     * Constructor.
+     *
+     * @param config Server config with the queue settings. Not null.
+     */
+    OutboundTransport(@NotNull final ServerConfig config) {
+        this(config.getOutboundCapacity(), config.getOverflowPolicy());
+    }
+
+    /**
+     * Constructor with queue settings of its own.
+     *
+     * @param capacity       Maximal number of queued messages.
+     * @param overflowPolicy Not null.
+     */
+    OutboundTransport(final int capacity, @NotNull final OverflowPolicy overflowPolicy) {
+        this.outbound = new OutboundQueue(capacity, overflowPolicy, this::onOverflow);
+    }
+
+    /**
+     * Queues the message for the writer.
+     *
+     * @throws IOException If the client was disconnected because its queue is full.
+     */
+    @Override
+    public void send(@NotNull final Message message) throws IOException {
+        send(new EncodedMessage(message));
+    }
+
+    /**
+     * Queues the message for the writer. The bytes are shared with all clients that use the same codec.
+     *
+     * @throws IOException If the client was disconnected because its queue is full.
+     */
+    @Override
+    public void send(@NotNull final EncodedMessage message) throws IOException {
+        Preconditions.checkNotNull(message, "message must not be null.");
+
+        enqueue(message);
+        onEnqueued();
+    }
+
+    /**
+     * Queues the messages back to back and wakes the writer once, so it sends them at once.
+     *
+     * @param messages Not null.
+     * @throws IOException If the client was disconnected because its queue is full.
+     */
+    void sendAll(@NotNull final List<EncodedMessage> messages) throws IOException {
+        Preconditions.checkNotNull(messages, "messages must not be null.");
+
+        for (final EncodedMessage message : messages) {
+            enqueue(message);
+        }
+        onEnqueued();
+    }
+
+    /**
+     * @param message Message taken from the queue. Not null.
+     * @return Bytes to write in the codec of the client, shared and not to be modified. Not null.
+     */
+    @NotNull
+    byte[] frame(@NotNull final EncodedMessage message) throws IOException {
+        return message == NOTHING ? NO_BYTES : message.encode(codec());
+    }
+
+    /**
+     * Queues a message for the writer.
+     */
+    private void enqueue(@NotNull final EncodedMessage message) throws IOException {
+        if (!outbound.offer(message)) {
+            LOG.warn("Disconnecting slow client, " + outbound.size() + " messages queued.");
+            kill();
+            throw new IOException("Outbound queue is full.");
+        }
+    }
+
+    /**
+     * Records that the client doesn't read fast enough. Runs when its queue starts to overflow.
+     */
+    private void onOverflow() {
+        final SlowConsumerEvent event = new SlowConsumerEvent();
+        if (event.isEnabled()) {
+            event.remoteAddress = remoteAddress();
+            event.policy = outbound.getOverflowPolicy().name();
+            event.capacity = outbound.capacity();
+            event.dropped = outbound.getDropped();
+            event.commit();
+        }
+    }
+
+    /**
+     * Records bytes of the client that its codec couldn't decode.
+     *
+     * @param e Failure of the codec. Not null.
+     */
+    void decodeFailed(@NotNull final StreamCorruptedException e) {
+        Preconditions.checkNotNull(e, "e must not be null.");
+
+        DecodeFailureEvent.record(remoteAddress(), codec(), e);
+    }
+
+    /**
+     * @return Name of the codec, null if none is picked yet.
+     */
+    @Nullable
+    static String codecName(@Nullable final WireCodec codec) {
+        return codec == null ? null : codec.name();
+    }
+
+    /**
+     * Closes the connection after the queued messages are written, e.g. the answers before a logout.
+     */
+    void closeAfterFlush() {
+        if (isInactive()) {
+            kill();
+            return;
+        }
+        closing = true;
+        outbound.offer(NOTHING);
+        onEnqueued();
+    }
+
+    /**
+     * @return Queue of the messages waiting to be written. Not null.
+     */
+    @NotNull
+    OutboundQueue getOutboundQueue() {
+        return outbound;
+    }
+
+    /**
+     * @return Codec the client speaks. Not null.
+     */
+    @NotNull
+    abstract WireCodec codec();
+
+    /**
+     * @return Address and port of the client, for the flight recorder. Not null.
+     */
+    @NotNull
+    abstract String remoteAddress();
+
+    /**
+     * Called after a message was queued, to wake the writer.
+     */
+    abstract void onEnqueued();
+}
@@ -0,0 +1,22 @@
+package chat_app.server;
+
+/**
+ * What happens if a client doesn't read fast enough and its {@link OutboundQueue} is full.
+ */
+enum OverflowPolicy {
+
+    /**
+     * Discards the oldest queued message to make room for the new one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Discards the new message.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Disconnects the slow client.
+     */
+    DISCONNECT
+}
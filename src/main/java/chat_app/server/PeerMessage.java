@@ -0,0 +1,271 @@
+package chat_app.server;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * What one node of a {@link Federation} tells another over their link, as the JSON payload of a message. <br/>
+ * A link starts with HELLO, which names the node and carries the secret of the federation, followed by ROOM and ENTER for everything the node has at that
+ * moment. Afterwards each change and each message of a local client follows as it happens.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+class PeerMessage {
+
+    @NotNull
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @NotNull
+    private static final ObjectReader READER = MAPPER.readerFor(PeerMessage.class);
+
+    @NotNull
+    private static final ObjectWriter WRITER = MAPPER.writerFor(PeerMessage.class);
+
+    /**
+     * Kind of a peer message.
+     */
+    enum Kind {
+
+        /**
+         * First message on a link, names the node and proves it belongs to the federation.
+         */
+        HELLO,
+
+        /**
+         * A room exists on the node.
+         */
+        ROOM,
+
+        /**
+         * A client of the node has entered a room.
+         */
+        ENTER,
+
+        /**
+         * A client of the node has left a room.
+         */
+        LEAVE,
+
+        /**
+         * A client of the node has sent a message to a room.
+         */
+        MESSAGE
+    }
+
+    private Kind kind;
+
+    private String node;
+
+    private String secret;
+
+    private String room;
+
+    private int clientId;
+
+    private String username;
+
+    private String since;
+
+    private String text;
+
+    private long timestamp;
+
+    /**
+     * Constructor for JSON.
+     */
+    @SuppressWarnings("unused")
+    public PeerMessage() {
+    }
+
+    /**
+     * Constructor.
+     */
+    private PeerMessage(@NotNull final Kind kind) {
+        this.kind = kind;
+    }
+
+    /**
+     * @param node   Name of the sending node. Not null.
+     * @param secret Secret of the federation. Not null.
+     * @return First message on a link. Not null.
+     */
+    @NotNull
+    static PeerMessage hello(@NotNull final String node, @NotNull final String secret) {
+        Preconditions.checkNotNull(node, "node must not be null.");
+        Preconditions.checkNotNull(secret, "secret must not be null.");
+
+        final PeerMessage message = new PeerMessage(Kind.HELLO);
+        message.node = node;
+        message.secret = secret;
+        return message;
+    }
+
+    /**
+     * @param room Name of the room. Not null.
+     * @return Message that the room exists. Not null.
+     */
+    @NotNull
+    static PeerMessage room(@NotNull final String room) {
+        Preconditions.checkNotNull(room, "room must not be null.");
+
+        final PeerMessage message = new PeerMessage(Kind.ROOM);
+        message.room = room;
+        return message;
+    }
+
+    /**
+     * @param room   Name of the room. Not null.
+     * @param client Client that has entered. Not null.
+     * @return Message that the client is a member of the room. Not null.
+     */
+    @NotNull
+    static PeerMessage enter(@NotNull final String room, @NotNull final ConnectedClient client) {
+        Preconditions.checkNotNull(room, "room must not be null.");
+        Preconditions.checkNotNull(client, "client must not be null.");
+
+        final PeerMessage message = new PeerMessage(Kind.ENTER);
+        message.room = room;
+        message.clientId = client.clientId;
+        message.username = client.getUsername();
+        message.since = client.getDateOfConnection();
+        return message;
+    }
+
+    /**
+     * @param room     Name of the room. Not null.
+     * @param clientId Id of the client on its node.
+     * @return Message that the client has left the room. Not null.
+     */
+    @NotNull
+    static PeerMessage leave(@NotNull final String room, final int clientId) {
+        Preconditions.checkNotNull(room, "room must not be null.");
+
+        final PeerMessage message = new PeerMessage(Kind.LEAVE);
+        message.room = room;
+        message.clientId = clientId;
+        return message;
+    }
+
+    /**
+     * @param room      Name of the room. Not null.
+     * @param text      Formatted text, as the members of the room get it. Not null.
+     * @param timestamp Time the text was sent, in epoch milliseconds.
+     * @return Message of a client to the room. Not null.
+     */
+    @NotNull
+    static PeerMessage message(@NotNull final String room, @NotNull final String text, final long timestamp) {
+        Preconditions.checkNotNull(room, "room must not be null.");
+        Preconditions.checkNotNull(text, "text must not be null.");
+
+        final PeerMessage message = new PeerMessage(Kind.MESSAGE);
+        message.room = room;
+        message.text = text;
+        message.timestamp = timestamp;
+        return message;
+    }
+
+    /**
+     * Maps a payload to a peer message.
+     *
+     * @param json Payload of a message on a link. Not null.
+     * @return Not null.
+     */
+    @NotNull
+    static PeerMessage fromJson(@NotNull final String json) throws IOException {
+        Preconditions.checkNotNull(json, "json must not be null.");
+
+        final PeerMessage message = READER.readValue(json);
+        if (message.kind == null) {
+            throw new IOException("peer message without kind: " + json);
+        }
+        return message;
+    }
+
+    /**
+     * @return Payload of a message on a link. Not null.
+     */
+    @NotNull
+    String toJson() {
+        try {
+            return WRITER.writeValueAsString(this);
+        } catch (final JsonProcessingException e) {
+            throw new IllegalStateException("PeerMessage can't be mapped to JSON", e);
+        }
+    }
+
+    /**
+     * @return kind.
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return Name of the sending node, with HELLO.
+     */
+    @Nullable
+    public String getNode() {
+        return node;
+    }
+
+    /**
+     * @return Secret of the federation, with HELLO.
+     */
+    @Nullable
+    public String getSecret() {
+        return secret;
+    }
+
+    /**
+     * @return Name of the room, except with HELLO.
+     */
+    @Nullable
+    public String getRoom() {
+        return room;
+    }
+
+    /**
+     * @return Id of the client on its node, with ENTER and LEAVE.
+     */
+    public int getClientId() {
+        return clientId;
+    }
+
+    /**
+     * @return username, with ENTER.
+     */
+    @Nullable
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return Date the client has connected, with ENTER.
+     */
+    @Nullable
+    public String getSince() {
+        return since;
+    }
+
+    /**
+     * @return Formatted text, with MESSAGE.
+     */
+    @Nullable
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return Time the text was sent in epoch milliseconds, with MESSAGE.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+}
@@ -0,0 +1,341 @@
+package chat_app.server;
+
+import chat_app.transfer_object.Message;
+import chat_app.transfer_object.MessageType;
+import chat_app.transfer_object.SessionTicket;
+import chat_app.utility.ThreadMode;
+import com.google.common.base.Preconditions;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Issues resume tokens and lets clients that lost their connection continue their session. <br/>
+ * A token stays valid while the client is connected and for {@link ServerConfig#getResumeWindow() a while} after the
+ * connection was lost, a logout ends it. A client that resumes gets the username and room of the session and, from
+ * the room, the messages it has missed. Tokens are only held in memory: after a restart, or once it has expired, the
+ * client continues in the room named by its ticket with a new token, which the log of the room makes seamless. <br/>
+ * Resumes are admitted in rounds: a stage thread collects them for {@link ServerConfig#getResumeInterval() an
+ * interval} and hands {@link ServerConfig#getResumeBatch() a limited number} to the rooms, each room reads the missed
+ * messages once for all of its clients. So the reconnect storm after an outage turns into a steady stream, together
+ * with the jitter of the clients.
+ */
+class ResumeStage {
+    private static final Logger LOG = Logger.getLogger(ResumeStage.class);
+
+    /**
+     * Random bytes of a token.
+     */
+    private static final int TOKEN_BYTES = 18;
+
+    /**
+     * Milliseconds between the removals of expired sessions.
+     */
+    private static final long SWEEP_INTERVAL = 1000;
+
+    @NotNull
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Holds the server instance.
+     */
+    @NotNull
+    private final ServerEntity server;
+
+    /**
+     * Holds the client of each token, connected or not.
+     */
+    @NotNull
+    private final ConcurrentMap<String, ConnectedClient> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Holds the resumes of the next round.
+     */
+    @NotNull
+    private final BlockingQueue<Resume> pending = new LinkedBlockingQueue<>();
+
+    /**
+     * Number of sessions resumed.
+     */
+    @NotNull
+    private final AtomicLong resumed = new AtomicLong();
+
+    /**
+     * Number of resumes with unknown or expired tokens.
+     */
+    @NotNull
+    private final AtomicLong renewed = new AtomicLong();
+
+    /**
+     * Holds the stage thread, null until started.
+     */
+    @Nullable
+    private Thread worker;
+
+    /**
+     * Will be turned off to stop the stage thread.
+     */
+    private volatile boolean keepGoing = true;
+
+    /**
+     * Constructor.
+     *
+     * @param server Server with the rooms. Not null.
+     */
+    ResumeStage(@NotNull final ServerEntity server) {
+        Preconditions.checkNotNull(server, "server must not be null.");
+
+        this.server = server;
+    }
+
+    /**
+     * Starts the stage thread.
+     */
+    void start() {
+        worker = ThreadMode.PLATFORM.start(this::work, "resume-stage");
+    }
+
+    /**
+     * Issues a token for a new session.
+     *
+     * @param client Not null.
+     * @return Token, null if the server doesn't resume sessions.
+     */
+    @Nullable
+    String issue(@NotNull final ConnectedClient client) {
+        Preconditions.checkNotNull(client, "client must not be null.");
+
+        if (server.getConfig().getResumeWindow() == 0) {
+            return null;
+        }
+        final String token = newToken();
+        sessions.put(token, client);
+        return token;
+    }
+
+    /**
+     * Lets a new connection take over the session of a ticket. The old connection, if it is still open, is closed.
+     * A ticket with an unknown or expired token gets a new one for the room it names. The client enters the room
+     * with the next round.
+     *
+     * @param client Client of the new connection. Not null.
+     * @param ticket Ticket the client has sent. Not null.
+     * @return False, if the session can't be resumed, e.g. the room of the ticket doesn't exist. The client has to
+     * log in.
+     */
+    boolean resume(@NotNull final ConnectedClient client, @NotNull final SessionTicket ticket) {
+        Preconditions.checkNotNull(client, "client must not be null.");
+        Preconditions.checkNotNull(ticket, "ticket must not be null.");
+
+        if (server.getConfig().getResumeWindow() == 0) {
+            return false;
+        }
+        final ConnectedClient previous = sessions.get(ticket.getToken());
+        final String token;
+        final ChatRoom room;
+        if (previous != null && !isExpired(previous, System.currentTimeMillis())
+                && sessions.replace(ticket.getToken(), previous, client)) {
+            if (previous.getDetachedAt() == 0) {
+                // the old connection is half-open, the new one wins
+                previous.disconnect();
+            }
+            token = ticket.getToken();
+            room = previous.getLastRoom();
+        } else {
+            try {
+                room = server.getRoomByName(ticket.getRoom());
+            } catch (final ChatRoomNotFoundException e) {
+                return false;
+            }
+            token = newToken();
+            sessions.put(token, client);
+            renewed.incrementAndGet();
+        }
+        client.adopt(token, room);
+        pending.add(new Resume(client, room, ticket.getSequence()));
+        return true;
+    }
+
+    /**
+     * @param first First message of a client. Not null.
+     * @return Ticket of the session the client resumes, null if it sent its username.
+     * @throws StreamCorruptedException If the ticket can't be read.
+     */
+    @Nullable
+    static SessionTicket ticketOf(@NotNull final Message first) throws StreamCorruptedException {
+        Preconditions.checkNotNull(first, "first must not be null.");
+
+        if (first.getType() != MessageType.RESUME) {
+            return null;
+        }
+        try {
+            return SessionTicket.fromJson(first.getPayload());
+        } catch (final IOException e) {
+            throw new StreamCorruptedException("invalid resume ticket: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Ends the session of a client that has logged out, or keeps it for a resume if the connection was lost.
+     *
+     * @param client    Not null.
+     * @param loggedOut True, if the client has logged out.
+     */
+    void detach(@NotNull final ConnectedClient client, final boolean loggedOut) {
+        Preconditions.checkNotNull(client, "client must not be null.");
+
+        final String token = client.getToken();
+        if (token != null && loggedOut) {
+            sessions.remove(token, client);
+        }
+    }
+
+    /**
+     * @return Number of sessions resumed.
+     */
+    long getResumed() {
+        return resumed.get();
+    }
+
+    /**
+     * @return Number of resumes with a new token, because the old one was unknown or had expired.
+     */
+    long getRenewed() {
+        return renewed.get();
+    }
+
+    /**
+     * @return Number of resumes waiting for the next round.
+     */
+    int getPending() {
+        return pending.size();
+    }
+
+    /**
+     * @return Number of sessions that can be resumed, connected or not.
+     */
+    int getSessions() {
+        return sessions.size();
+    }
+
+    /**
+     * Stops the stage thread, waiting resumes are dropped.
+     */
+    void close() {
+        keepGoing = false;
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * Admits the resumes round by round until the stage is closed.
+     */
+    private void work() {
+        final int batch = server.getConfig().getResumeBatch();
+        final List<Resume> round = new ArrayList<>(batch);
+        long nextSweep = System.currentTimeMillis() + SWEEP_INTERVAL;
+        while (keepGoing) {
+            try {
+                final Resume first = pending.poll(SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    // collect the resumes that arrive meanwhile, so each room reads the missed messages once
+                    Thread.sleep(server.getConfig().getResumeInterval());
+                    round.add(first);
+                    pending.drainTo(round, batch - 1);
+                }
+            } catch (final InterruptedException e) {
+                break;
+            }
+            try {
+                admit(round);
+            } catch (final RuntimeException e) {
+                LOG.error("Couldn't resume sessions", e);
+            }
+            round.clear();
+
+            final long now = System.currentTimeMillis();
+            if (now >= nextSweep) {
+                sessions.values().removeIf(client -> isExpired(client, now));
+                nextSweep = now + SWEEP_INTERVAL;
+            }
+        }
+    }
+
+    /**
+     * Hands a round of resumes to their rooms.
+     */
+    private void admit(@NotNull final List<Resume> round) {
+        if (round.isEmpty()) {
+            return;
+        }
+        final Map<ChatRoom, List<Resume>> byRoom = new LinkedHashMap<>();
+        for (final Resume resume : round) {
+            byRoom.computeIfAbsent(resume.room, room -> new ArrayList<>()).add(resume);
+        }
+        for (final Map.Entry<ChatRoom, List<Resume>> entry : byRoom.entrySet()) {
+            entry.getKey().resumeChatRoom(entry.getValue());
+        }
+        resumed.addAndGet(round.size());
+        if (LOG.isDebugEnabled()) {
+            LOG.debug("Resumed " + round.size() + " sessions in " + byRoom.size() + " rooms");
+        }
+    }
+
+    /**
+     * @return Random token. Not null.
+     */
+    @NotNull
+    private static String newToken() {
+        final byte[] random = new byte[TOKEN_BYTES];
+        RANDOM.nextBytes(random);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(random);
+    }
+
+    /**
+     * @return True, if the connection of the client was lost longer ago than sessions can be resumed.
+     */
+    private boolean isExpired(@NotNull final ConnectedClient client, final long now) {
+        final long detachedAt = client.getDetachedAt();
+        return detachedAt != 0
+                && now - detachedAt > TimeUnit.SECONDS.toMillis(server.getConfig().getResumeWindow());
+    }
+
+    /**
+     * A client that continues its session in a room.
+     */
+    static final class Resume {
+
+        @NotNull
+        final ConnectedClient client;
+
+        @NotNull
+        final ChatRoom room;
+
+        /**
+         * Sequence number of the last message the client got from the room.
+         */
+        final long lastSequence;
+
+        private Resume(@NotNull final ConnectedClient client, @NotNull final ChatRoom room, final long lastSequence) {
+            this.client = client;
+            this.room = room;
+            this.lastSequence = lastSequence;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package chat_app.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of a client that enters a {@link ChatRoom}.
+ */
+@Name("chat_app.RoomEnter")
+@Label("Room Enter")
+@Category({"Chat App", "Rooms"})
+class RoomEnterEvent extends Event {
+
+    @Label("Room")
+    String room;
+
+    @Label("Username")
+    String username;
+
+    @Label("Client Id")
+    int clientId;
+
+    @Label("Members")
+    int members;
+
+    @Label("Replayed Messages")
+    int replayed;
+}
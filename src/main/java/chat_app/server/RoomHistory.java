@@ -0,0 +1,177 @@
+package chat_app.server;
+
+import chat_app.transfer_object.Message;
+import chat_app.utility.EncodedMessage;
+import chat_app.utility.FramedCodec;
+import com.google.common.base.Preconditions;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Last messages of a {@link ChatRoom}, replayed to clients that enter it. <br/>
+ * A ring of preallocated slots holds the {@link FramedCodec frames} of the messages, bounded by
+ * {@link ServerConfig#getHistoryMessages() count} and {@link ServerConfig#getHistoryBytes() bytes}. Only the frames are
+ * held, so the bound covers all the history keeps: the other encodings of a message and its decoded text go away
+ * with the broadcast, a replay decodes the frames again. Each message goes
+ * to the slot of its sequence number in the room, so messages numbered at once may be appended in any order and the
+ * broadcast takes no lock.
+ */
+class RoomHistory {
+    private static final Logger LOG = Logger.getLogger(RoomHistory.class);
+
+    /**
+     * Holds the messages, the one with sequence number n in slot n % capacity.
+     */
+    @NotNull
+    private final AtomicReferenceArray<Entry> slots;
+
+    /**
+     * Most bytes the held messages may take.
+     */
+    private final long maxBytes;
+
+    /**
+     * One after the highest sequence number appended.
+     */
+    @NotNull
+    private final AtomicLong next = new AtomicLong();
+
+    /**
+     * Sequence number of the oldest message that may still be held.
+     */
+    @NotNull
+    private final AtomicLong oldest = new AtomicLong();
+
+    /**
+     * Bytes of the held messages.
+     */
+    @NotNull
+    private final AtomicLong bytes = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param maxMessages Most messages to hold, 0 to hold none.
+     * @param maxBytes    Most bytes the messages may take, counted in {@link FramedCodec frames}.
+     */
+    RoomHistory(final int maxMessages, final long maxBytes) {
+        Preconditions.checkArgument(maxMessages >= 0, "maxMessages must not be negative.");
+        Preconditions.checkArgument(maxBytes >= 0, "maxBytes must not be negative.");
+
+        this.slots = new AtomicReferenceArray<>(maxMessages);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Adds a message and drops the oldest ones that don't fit anymore.
+     *
+     * @param message Numbered by the room. Not null.
+     */
+    void append(@NotNull final EncodedMessage message) {
+        Preconditions.checkNotNull(message, "message must not be null.");
+
+        final int capacity = slots.length();
+        if (capacity == 0) {
+            return;
+        }
+        final byte[] frame;
+        try {
+            frame = message.encode(FramedCodec.INSTANCE);
+        } catch (final IOException e) {
+            LOG.debug("Couldn't encode message for the history", e);
+            return;
+        }
+        final int size = frame.length;
+        if (size > maxBytes) {
+            return;
+        }
+
+        final long sequence = message.getMessage().getSequence();
+        final Entry entry = new Entry(sequence, frame);
+        Entry replaced;
+        do {
+            replaced = slots.get(index(sequence));
+            // a message that was numbered a whole ring later got here first, this one is too old to hold
+            if (replaced != null && replaced.sequence > sequence || sequence < oldest.get()) {
+                return;
+            }
+        } while (!slots.compareAndSet(index(sequence), replaced, entry));
+        final long newest = next.accumulateAndGet(sequence + 1, Math::max) - 1;
+        long total = bytes.addAndGet(replaced == null ? size : size - replaced.frame.length);
+
+        // drop from the oldest end until the bytes fit, slots that were replaced meanwhile are skipped
+        while (total > maxBytes) {
+            final long first = oldest.get();
+            if (first >= newest) {
+                break;
+            }
+            final long candidate = Math.max(first, newest - capacity + 1);
+            if (!oldest.compareAndSet(first, candidate + 1)) {
+                continue;
+            }
+            final Entry dropped = slots.get(index(candidate));
+            if (dropped != null && dropped.sequence == candidate
+                    && slots.compareAndSet(index(candidate), dropped, null)) {
+                total = bytes.addAndGet(-dropped.frame.length);
+            } else {
+                total = bytes.get();
+            }
+        }
+    }
+
+    /**
+     * @return Held messages decoded from their frames, oldest first. Not null.
+     */
+    @NotNull
+    List<EncodedMessage> snapshot() {
+        final int capacity = slots.length();
+        final long end = next.get();
+        final long start = Math.max(oldest.get(), end - capacity);
+        final List<EncodedMessage> messages = new ArrayList<>((int) Math.max(0, end - start));
+        for (long sequence = start; sequence < end; ++sequence) {
+            final Entry entry = slots.get(index(sequence));
+            // slots of appends in progress are skipped
+            if (entry != null && entry.sequence == sequence) {
+                try {
+                    final Message message = FramedCodec.INSTANCE.decode(ByteBuffer.wrap(entry.frame));
+                    if (message != null) {
+                        messages.add(new EncodedMessage(message, FramedCodec.INSTANCE, entry.frame));
+                    }
+                } catch (final IOException e) {
+                    LOG.debug("Couldn't decode a message of the history", e);
+                }
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * @return Slot of the sequence number.
+     */
+    private int index(final long sequence) {
+        return (int) (sequence % slots.length());
+    }
+
+    /**
+     * One held message.
+     */
+    private static final class Entry {
+
+        private final long sequence;
+
+        @NotNull
+        private final byte[] frame;
+
+        private Entry(final long sequence, @NotNull final byte[] frame) {
+            this.sequence = sequence;
+            this.frame = frame;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package chat_app.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of a client that leaves a {@link ChatRoom}, by switching, logging out or losing its
+ * connection.
+ */
+@Name("chat_app.RoomLeave")
+@Label("Room Leave")
+@Category({"Chat App", "Rooms"})
+class RoomLeaveEvent extends Event {
+
+    @Label("Room")
+    String room;
+
+    @Label("Username")
+    String username;
+
+    @Label("Client Id")
+    int clientId;
+
+    @Label("Members")
+    int members;
+
+    @Label("Disconnected")
+    @Description("Removed because a message couldn't be queued for it")
+    boolean disconnected;
+}
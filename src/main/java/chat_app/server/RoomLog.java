@@ -0,0 +1,391 @@
+package chat_app.server;
+
+import chat_app.transfer_object.Message;
+import chat_app.utility.EncodedMessage;
+import chat_app.utility.FramedCodec;
+import com.google.common.base.Preconditions;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Append-only log of the messages distributed in one {@link ChatRoom}, kept in a directory of {@link LogSegment
+ * segments}. <br/>
+ * Rooms {@link #submit(EncodedMessage) submit} messages to the {@link RoomLogWriter}, which appends them on its own
+ * thread with the sequence numbers the room gave them. Rooms number without a lock, so messages may reach the writer
+ * out of order; it holds each one until the messages numbered before it are appended or known to be missing. The
+ * numbers increase but may have gaps, where the writer couldn't keep up. Messages can be read back by sequence number from any thread. A full segment is
+ * sealed and a new one started; old segments are deleted by {@link ServerConfig#getLogRetentionHours() age} and
+ * {@link ServerConfig#getLogRetentionBytes() size} when a segment is started and when the log is opened.
+ */
+class RoomLog {
+    private static final Logger LOG = Logger.getLogger(RoomLog.class);
+
+    /**
+     * File in the directory that holds the name of the room.
+     */
+    static final String NAME_FILE = "room.name";
+
+    /**
+     * Most messages held for one that never arrives, e.g. because its thread died, before it is given up.
+     */
+    private static final int MAX_WAITING = 1024;
+
+    /**
+     * Holds the name of the room.
+     */
+    @NotNull
+    private final String name;
+
+    /**
+     * Holds the directory of the segments.
+     */
+    @NotNull
+    private final Path directory;
+
+    /**
+     * Holds the writer that appends the messages.
+     */
+    @NotNull
+    private final RoomLogWriter writer;
+
+    /**
+     * Holds the tuning of the server.
+     */
+    @NotNull
+    private final ServerConfig config;
+
+    /**
+     * Holds the segments by the sequence number of their first message.
+     */
+    @NotNull
+    private final ConcurrentNavigableMap<Long, LogSegment> segments = new ConcurrentSkipListMap<>();
+
+    /**
+     * Segment the writer appends to, null until the first append.
+     */
+    @Nullable
+    private LogSegment active;
+
+    /**
+     * Sequence number of the last appended message, 0 before the first.
+     */
+    private volatile long lastSequence;
+
+    /**
+     * Frames that arrived before a message numbered ahead of them, by sequence number. Only used by the writer.
+     */
+    @NotNull
+    private final NavigableMap<Long, byte[]> waiting = new TreeMap<>();
+
+    /**
+     * Sequence numbers of messages that won't reach the writer.
+     */
+    @NotNull
+    private final Set<Long> skipped = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructor.
+     *
+     * @param writer    Writer that appends the messages. Not null.
+     * @param directory Directory of the segments, created if missing. Not null.
+     * @param name      Name of the room. Not null.
+     */
+    RoomLog(@NotNull final RoomLogWriter writer, @NotNull final Path directory, @NotNull final String name)
+            throws IOException {
+        Preconditions.checkNotNull(writer, "writer must not be null.");
+        Preconditions.checkNotNull(directory, "directory must not be null.");
+        Preconditions.checkNotNull(name, "name must not be null.");
+
+        this.writer = writer;
+        this.directory = directory;
+        this.name = name;
+        this.config = writer.getConfig();
+
+        Files.createDirectories(directory);
+        final Path nameFile = directory.resolve(NAME_FILE);
+        if (!Files.exists(nameFile)) {
+            Files.writeString(nameFile, name);
+        }
+        try {
+            load();
+            applyRetention();
+        } catch (final IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Hands a message to the writer. Doesn't block.
+     *
+     * @param message Numbered by the room, after the messages submitted before. Not null.
+     */
+    void submit(@NotNull final EncodedMessage message) {
+        Preconditions.checkNotNull(message, "message must not be null.");
+
+        final byte[] frame;
+        try {
+            frame = message.encode(FramedCodec.INSTANCE);
+        } catch (final IOException e) {
+            LOG.debug("Couldn't encode message for the log of " + name, e);
+            skip(message.getMessage().getSequence());
+            return;
+        }
+        writer.enqueue(this, message.getMessage().getSequence(), frame);
+    }
+
+    /**
+     * Notes a message that won't reach the writer, so the messages after it don't wait for it. Doesn't block.
+     *
+     * @param sequence Sequence number of the message.
+     */
+    void skip(final long sequence) {
+        skipped.add(sequence);
+    }
+
+    /**
+     * Appends a message and the held ones that follow it, or holds it until the messages numbered before it are
+     * appended or skipped. Only called by the writer.
+     *
+     * @param sequence Sequence number of the message, above the last one.
+     * @param frame    Encoded message. Not null.
+     */
+    void accept(final long sequence, @NotNull final byte[] frame) throws IOException {
+        Preconditions.checkNotNull(frame, "frame must not be null.");
+        Preconditions.checkArgument(sequence > lastSequence, "sequence %s isn't after %s", sequence, lastSequence);
+
+        waiting.put(sequence, frame);
+        if (waiting.size() > MAX_WAITING) {
+            final long first = waiting.firstKey();
+            LOG.warn("Messages " + (lastSequence + 1) + " to " + (first - 1) + " of " + name + " never arrived.");
+            lastSequence = first - 1;
+            skipped.removeIf(skippedSequence -> skippedSequence < first);
+        }
+        while (true) {
+            final long next = lastSequence + 1;
+            final byte[] held = waiting.remove(next);
+            if (held != null) {
+                try {
+                    append(next, held);
+                } catch (final IOException e) {
+                    // the message is lost, the ones after it mustn't wait for it
+                    lastSequence = next;
+                    throw e;
+                }
+            } else if (skipped.remove(next)) {
+                lastSequence = next;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Appends a message.
+     *
+     * @param sequence Sequence number of the message, above the last one.
+     * @param frame    Encoded message. Not null.
+     */
+    private void append(final long sequence, @NotNull final byte[] frame) throws IOException {
+        Preconditions.checkNotNull(frame, "frame must not be null.");
+        Preconditions.checkArgument(sequence > lastSequence, "sequence %s isn't after %s", sequence, lastSequence);
+
+        if (active == null || !active.append(sequence, frame)) {
+            roll(sequence, frame.length);
+            if (!active.append(sequence, frame)) {
+                throw new IOException("Message doesn't fit a new segment of " + name);
+            }
+        }
+        lastSequence = sequence;
+    }
+
+    /**
+     * Forces the appended messages to the disk. Only called by the writer.
+     */
+    void force() {
+        if (active != null) {
+            active.force();
+        }
+    }
+
+    /**
+     * Reads messages in order.
+     *
+     * @param fromSequence First sequence number to read, older messages that were deleted are skipped.
+     * @param max          Most messages to read.
+     * @return Not null.
+     */
+    @NotNull
+    List<Message> readSince(final long fromSequence, final int max) throws IOException {
+        final List<byte[]> frames = new ArrayList<>();
+        final Long first = segments.floorKey(fromSequence);
+        final Map<Long, LogSegment> tail = segments.tailMap(first == null ? fromSequence : first, true);
+        for (final LogSegment segment : tail.values()) {
+            if (frames.size() >= max) {
+                break;
+            }
+            segment.read(fromSequence, max - frames.size(), frames);
+        }
+
+        final List<Message> messages = new ArrayList<>(frames.size());
+        for (final byte[] frame : frames) {
+            final Message message = FramedCodec.INSTANCE.decode(ByteBuffer.wrap(frame));
+            if (message != null) {
+                messages.add(message);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * @param count Number of sequence numbers.
+     * @return Messages with the last numbers, oldest first, fewer where some weren't logged. Not null.
+     */
+    @NotNull
+    List<Message> readLast(final int count) throws IOException {
+        return readSince(lastSequence - count + 1, count);
+    }
+
+    /**
+     * @return Sequence number of the last appended message, 0 if there is none.
+     */
+    long getLastSequence() {
+        return lastSequence;
+    }
+
+    /**
+     * @return Name of the room. Not null.
+     */
+    @NotNull
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Appends the held messages despite their gaps and closes the segments. The writer has stopped.
+     */
+    void close() {
+        for (final Map.Entry<Long, byte[]> held : waiting.entrySet()) {
+            try {
+                append(held.getKey(), held.getValue());
+            } catch (final IOException e) {
+                LOG.warn("Couldn't append to the log of " + name, e);
+            }
+        }
+        waiting.clear();
+        force();
+        for (final LogSegment segment : segments.values()) {
+            try {
+                segment.close();
+            } catch (final IOException e) {
+                LOG.warn("Couldn't close a segment of " + name, e);
+            }
+        }
+        active = null;
+    }
+
+    /**
+     * Opens the segments in the directory and continues the last one.
+     */
+    private void load() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.log")) {
+            for (final Path file : files) {
+                final String fileName = file.getFileName().toString();
+                final long base;
+                try {
+                    base = Long.parseLong(fileName.substring(0, fileName.length() - ".log".length()));
+                } catch (final NumberFormatException e) {
+                    LOG.warn("Ignoring " + file);
+                    continue;
+                }
+                segments.put(base, LogSegment.open(file, base));
+            }
+        }
+
+        // a segment that overlaps the one before would break the order, it can only come from a damaged directory
+        long expected = -1;
+        for (final Iterator<LogSegment> it = segments.values().iterator(); it.hasNext(); ) {
+            final LogSegment segment = it.next();
+            if (expected >= 0 && segment.getBaseSequence() < expected) {
+                LOG.warn("Ignoring segments of " + name + " from " + segment.getBaseSequence() + " on");
+                segment.close();
+                it.remove();
+                while (it.hasNext()) {
+                    it.next().close();
+                    it.remove();
+                }
+                break;
+            }
+            expected = segment.getNextSequence();
+        }
+
+        final Map.Entry<Long, LogSegment> last = segments.lastEntry();
+        if (last != null) {
+            active = last.getValue();
+            active.mapForAppend(config.getLogSegmentBytes());
+            lastSequence = active.getNextSequence() - 1;
+        }
+    }
+
+    /**
+     * Seals the active segment and starts a new one.
+     */
+    private void roll(final long sequence, final int frameLength) throws IOException {
+        if (active != null) {
+            active.seal();
+        }
+        final LogSegment segment = LogSegment.create(directory.resolve(LogSegment.fileName(sequence)), sequence);
+        // a message larger than a segment gets one of its own
+        segment.mapForAppend(Math.max(config.getLogSegmentBytes(), LogSegment.HEADER_SIZE + frameLength + 4));
+        segments.put(sequence, segment);
+        active = segment;
+        applyRetention();
+    }
+
+    /**
+     * Deletes the oldest segments that are too old or exceed the size, never the active one.
+     */
+    private void applyRetention() throws IOException {
+        final long maxAge = TimeUnit.HOURS.toMillis(config.getLogRetentionHours());
+        final long maxBytes = config.getLogRetentionBytes();
+        long total = 0;
+        for (final LogSegment segment : segments.values()) {
+            total += segment.getEnd();
+        }
+
+        final long now = System.currentTimeMillis();
+        for (final Iterator<LogSegment> it = segments.values().iterator(); it.hasNext(); ) {
+            final LogSegment segment = it.next();
+            if (segment == active) {
+                break;
+            }
+            final boolean tooOld = maxAge > 0 && now - segment.getLastModified() > maxAge;
+            final boolean tooLarge = maxBytes > 0 && total > maxBytes;
+            if (!tooOld && !tooLarge) {
+                break;
+            }
+            it.remove();
+            total -= segment.getEnd();
+            segment.delete();
+            LOG.debug("Deleted segment " + segment.getBaseSequence() + " of " + name);
+        }
+    }
+}
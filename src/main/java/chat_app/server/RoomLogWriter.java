@@ -0,0 +1,280 @@
+package chat_app.server;
+
+import chat_app.utility.ThreadMode;
+import com.google.common.base.Preconditions;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Appends the messages of all {@link RoomLog room logs} on a single thread, so the disk sees one sequential writer
+ * and the rooms never wait for it. <br/>
+ * Rooms put their messages in a bounded queue; the writer takes them in batches, appends each batch and then forces
+ * the logs it touched according to the {@link FsyncPolicy}, one force for the whole batch. When the queue is full the
+ * message is not logged, it still reaches the clients and leaves a gap in the numbers of the log.
+ */
+class RoomLogWriter implements Runnable {
+    private static final Logger LOG = Logger.getLogger(RoomLogWriter.class);
+
+    /**
+     * Messages waiting for the writer at most.
+     */
+    private static final int QUEUE_CAPACITY = 64 * 1024;
+
+    /**
+     * Messages appended at most between two checks of the fsync policy.
+     */
+    private static final int MAX_BATCH = 1024;
+
+    /**
+     * Holds the directory with one subdirectory per room.
+     */
+    @NotNull
+    private final Path directory;
+
+    /**
+     * Holds the tuning of the server.
+     */
+    @NotNull
+    private final ServerConfig config;
+
+    /**
+     * Holds the messages waiting for the writer.
+     */
+    @NotNull
+    private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    /**
+     * Holds the open logs by the {@link #key(String) lower case name} of their room.
+     */
+    @NotNull
+    private final ConcurrentMap<String, RoomLog> logs = new ConcurrentHashMap<>();
+
+    /**
+     * Serializes opening logs.
+     */
+    private final ReentrantLock openLock = new ReentrantLock();
+
+    /**
+     * Number of messages that didn't fit the queue.
+     */
+    @NotNull
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * Will be turned off to stop the writer.
+     */
+    private volatile boolean keepGoing = true;
+
+    /**
+     * Holds the writer thread, null until started.
+     */
+    private Thread thread;
+
+    /**
+     * Constructor.
+     *
+     * @param config Tuning of the server, with a {@link ServerConfig#getLogDirectory() log directory}. Not null.
+     * @throws IOException If the directory can't be created.
+     */
+    RoomLogWriter(@NotNull final ServerConfig config) throws IOException {
+        Preconditions.checkNotNull(config, "config must not be null.");
+        Preconditions.checkArgument(config.getLogDirectory() != null, "the log directory is not set.");
+
+        this.config = config;
+        this.directory = config.getLogDirectory();
+        Files.createDirectories(directory);
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    void start() {
+        thread = ThreadMode.PLATFORM.start(this, "room-log-writer");
+    }
+
+    /**
+     * Opens the log of a room, once per room.
+     *
+     * @param roomName Name of the room, case is ignored. Not null.
+     * @return Not null.
+     */
+    @NotNull
+    RoomLog open(@NotNull final String roomName) throws IOException {
+        Preconditions.checkNotNull(roomName, "roomName must not be null.");
+
+        final String key = key(roomName);
+        openLock.lock();
+        try {
+            RoomLog log = logs.get(key);
+            if (log == null) {
+                log = new RoomLog(this, directory.resolve(directoryName(key)), roomName);
+                logs.put(key, log);
+            }
+            return log;
+        } finally {
+            openLock.unlock();
+        }
+    }
+
+    /**
+     * @return Names of the rooms that have a log. Not null.
+     */
+    @NotNull
+    List<String> getRoomNames() throws IOException {
+        final List<String> names = new ArrayList<>();
+        try (DirectoryStream<Path> rooms = Files.newDirectoryStream(directory, Files::isDirectory)) {
+            for (final Path room : rooms) {
+                final Path nameFile = room.resolve(RoomLog.NAME_FILE);
+                if (Files.isRegularFile(nameFile)) {
+                    names.add(Files.readString(nameFile));
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Queues a message for the log. Doesn't block.
+     *
+     * @param log      Log to append to. Not null.
+     * @param sequence Sequence number of the message in its room.
+     * @param frame    Encoded message. Not null.
+     */
+    void enqueue(@NotNull final RoomLog log, final long sequence, @NotNull final byte[] frame) {
+        if (!queue.offer(new Record(log, sequence, frame))) {
+            log.skip(sequence);
+            final long count = dropped.incrementAndGet();
+            // warn on the first drop and then on every power of two
+            if (Long.bitCount(count) == 1) {
+                LOG.warn(count + " messages weren't logged, the log writer can't keep up.");
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        final List<Record> batch = new ArrayList<>(MAX_BATCH);
+        final Set<RoomLog> dirty = Collections.newSetFromMap(new IdentityHashMap<>());
+        final FsyncPolicy policy = config.getLogFsyncPolicy();
+        final long interval = TimeUnit.MILLISECONDS.toNanos(config.getLogFsyncInterval());
+        long lastForce = System.nanoTime();
+
+        while (keepGoing || !queue.isEmpty()) {
+            try {
+                final Record first = queue.poll(config.getLogFsyncInterval(), TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            for (final Record record : batch) {
+                try {
+                    record.log.accept(record.sequence, record.frame);
+                    dirty.add(record.log);
+                } catch (final IOException | RuntimeException e) {
+                    LOG.error("Couldn't append to the log of " + record.log.getName(), e);
+                }
+            }
+            batch.clear();
+
+            final long now = System.nanoTime();
+            if (!dirty.isEmpty() && (policy == FsyncPolicy.BATCH
+                    || policy == FsyncPolicy.INTERVAL && now - lastForce >= interval)) {
+                for (final RoomLog log : dirty) {
+                    log.force();
+                }
+                dirty.clear();
+                lastForce = now;
+            } else if (policy == FsyncPolicy.NEVER) {
+                dirty.clear();
+            }
+        }
+        LOG.debug("Room log writer stopped.");
+    }
+
+    /**
+     * Appends the waiting messages, stops the writer and closes the logs.
+     */
+    void close() {
+        keepGoing = false;
+        if (thread != null) {
+            try {
+                thread.join();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (final RoomLog log : logs.values()) {
+            log.close();
+        }
+    }
+
+    /**
+     * @return Tuning of the server. Not null.
+     */
+    @NotNull
+    ServerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return Key of a room name. Not null.
+     */
+    @NotNull
+    private static String key(@NotNull final String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * @return Name of the directory of a room, safe on every file system. Not null.
+     */
+    @NotNull
+    private static String directoryName(@NotNull final String key) {
+        // URL encoding keeps '.' and '*', which mean something to file systems and shells
+        return URLEncoder.encode(key, StandardCharsets.UTF_8).replace(".", "%2E").replace("*", "%2A");
+    }
+
+    /**
+     * One message waiting for the writer.
+     */
+    private static final class Record {
+
+        @NotNull
+        private final RoomLog log;
+
+        private final long sequence;
+
+        @NotNull
+        private final byte[] frame;
+
+        private Record(@NotNull final RoomLog log, final long sequence, @NotNull final byte[] frame) {
+            this.log = log;
+            this.sequence = sequence;
+            this.frame = frame;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package chat_app.server;
+
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Member of a {@link ChatRoom} as WHO_IS_IN lists it, connected to this node or to another node of the
+ * {@link Federation}.
+ */
+final class RoomMember {
+
+    /**
+     * Holds the node the client is connected to, null for this node.
+     */
+    @Nullable
+    private final String node;
+
+    /**
+     * Id of the client on its node.
+     */
+    private final int clientId;
+
+    @NotNull
+    private final String username;
+
+    /**
+     * Holds the date the client has connected.
+     */
+    @NotNull
+    private final String since;
+
+    /**
+     * Constructor.
+     *
+     * @param node     Node the client is connected to, null for this node.
+     * @param clientId Id of the client on its node.
+     * @param username Not null.
+     * @param since    Date the client has connected. Not null.
+     */
+    RoomMember(@Nullable final String node,
+               final int clientId,
+               @NotNull final String username,
+               @NotNull final String since) {
+        Preconditions.checkNotNull(username, "username must not be null.");
+        Preconditions.checkNotNull(since, "since must not be null.");
+
+        this.node = node;
+        this.clientId = clientId;
+        this.username = username;
+        this.since = since;
+    }
+
+    /**
+     * @param client Client of this node. Not null.
+     * @return Member for the client. Not null.
+     */
+    @NotNull
+    static RoomMember of(@NotNull final ConnectedClient client) {
+        Preconditions.checkNotNull(client, "client must not be null.");
+
+        return new RoomMember(null, client.clientId, client.getUsername(), client.getDateOfConnection());
+    }
+
+    /**
+     * @return Key of a member of another node among the members of a room. Not null.
+     */
+    @NotNull
+    static String key(@NotNull final String node, final int clientId) {
+        return node + '/' + clientId;
+    }
+
+    /**
+     * @return Node the client is connected to, null for this node.
+     */
+    @Nullable
+    String getNode() {
+        return node;
+    }
+
+    /**
+     * @return Id of the client on its node.
+     */
+    int getClientId() {
+        return clientId;
+    }
+
+    /**
+     * @return username. Not null.
+     */
+    @NotNull
+    String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return Entry of WHO_IS_IN. Not null.
+     */
+    @NotNull
+    String render() {
+        return node == null ? username + " since " + since : username + " since " + since + " on " + node;
+    }
+}
@@ -0,0 +1,80 @@
+package chat_app.server;
+
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of one {@link ChatRoom}. Striped, so the members of a busy room don't contend on them.
+ */
+class RoomMetrics implements RoomMetricsMXBean {
+
+    /**
+     * Holds the room.
+     */
+    @NotNull
+    private final ChatRoom room;
+
+    @NotNull
+    private final LongAdder messagesIn = new LongAdder();
+
+    @NotNull
+    private final LongAdder messagesOut = new LongAdder();
+
+    @NotNull
+    private final LongAdder throttled = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param room Not null.
+     */
+    RoomMetrics(@NotNull final ChatRoom room) {
+        Preconditions.checkNotNull(room, "room must not be null.");
+
+        this.room = room;
+    }
+
+    /**
+     * Counts a distributed message and its copies.
+     *
+     * @param copies Members it was queued for.
+     */
+    void countDistributed(final int copies) {
+        messagesIn.increment();
+        messagesOut.add(copies);
+    }
+
+    /**
+     * Counts a message of a member over a rate limit.
+     */
+    void countThrottled() {
+        throttled.increment();
+    }
+
+    @Override
+    public String getName() {
+        return room.getName();
+    }
+
+    @Override
+    public int getMembers() {
+        return room.getMemberCount();
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    @Override
+    public long getThrottled() {
+        return throttled.sum();
+    }
+}
@@ -0,0 +1,32 @@
+package chat_app.server;
+
+/**
+ * Metrics of one chat room over JMX, registered as {@code chat_app:type=Room,port=<port>,name=<room>}.
+ */
+public interface RoomMetricsMXBean {
+
+    /**
+     * @return Name of the room.
+     */
+    String getName();
+
+    /**
+     * @return Members now.
+     */
+    int getMembers();
+
+    /**
+     * @return Messages distributed in the room.
+     */
+    long getMessagesIn();
+
+    /**
+     * @return Copies of these messages queued for the members.
+     */
+    long getMessagesOut();
+
+    /**
+     * @return Messages of the members over the rate limit of their client or the room.
+     */
+    long getThrottled();
+}
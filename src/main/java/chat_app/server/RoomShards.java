@@ -0,0 +1,150 @@
+package chat_app.server;
+
+import chat_app.utility.ThreadMode;
+import com.google.common.base.Preconditions;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Worker threads that own the {@link ChatRoom chat rooms}, like actors. Each room is pinned to one shard by the hash
+ * of its name. Entering, leaving, distributing and listing the members of a room run as tasks in the mailbox of its
+ * shard, one after the other, so every member sees the messages of a room in the same order and the client threads
+ * only hand work over. Rooms of different shards run in parallel. <br/>
+ * Submitting never blocks, so a busy shard can't stall a client thread or the event loop. A full mailbox rejects the
+ * task and the room decides what to do, see {@link ChatRoom#execute(Runnable)}.
+ */
+class RoomShards {
+    private static final Logger LOG = Logger.getLogger(RoomShards.class);
+
+    /**
+     * Tasks waiting in one mailbox before new ones are rejected.
+     */
+    private static final int MAILBOX_CAPACITY = 64 * 1024;
+
+    /**
+     * Holds the mailbox of each shard.
+     */
+    @NotNull
+    private final List<BlockingQueue<Runnable>> mailboxes;
+
+    /**
+     * Holds the worker of each shard.
+     */
+    @NotNull
+    private final Thread[] workers;
+
+    /**
+     * Will be turned off to stop the workers.
+     */
+    private volatile boolean keepGoing = true;
+
+    /**
+     * Constructor, starts the workers.
+     *
+     * @param count Number of shards.
+     */
+    RoomShards(final int count) {
+        Preconditions.checkArgument(count > 0, "count must be positive.");
+
+        this.mailboxes = new ArrayList<>(count);
+        this.workers = new Thread[count];
+        for (int i = 0; i < count; ++i) {
+            final BlockingQueue<Runnable> mailbox = new ArrayBlockingQueue<>(MAILBOX_CAPACITY);
+            mailboxes.add(mailbox);
+            workers[i] = ThreadMode.PLATFORM.start(() -> work(mailbox), "room-shard-" + i);
+        }
+    }
+
+    /**
+     * Runs a task on the shard of a room, after the tasks submitted before. A worker runs tasks for its own rooms
+     * right away.
+     *
+     * @param room Name of the room. Not null.
+     * @param task Not null.
+     * @return False, if the mailbox of the shard is full and the task won't run.
+     */
+    boolean execute(@NotNull final String room, @NotNull final Runnable task) {
+        Preconditions.checkNotNull(room, "room must not be null.");
+        Preconditions.checkNotNull(task, "task must not be null.");
+
+        final int shard = shardOf(room);
+        if (Thread.currentThread() == workers[shard]) {
+            task.run();
+            return true;
+        }
+        return mailboxes.get(shard).offer(task);
+    }
+
+    /**
+     * Waits until the tasks submitted so far have run. Blocks while a mailbox is full, so it's not for client threads.
+     */
+    void awaitIdle() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(mailboxes.size());
+        for (final BlockingQueue<Runnable> mailbox : mailboxes) {
+            mailbox.put(done::countDown);
+        }
+        done.await();
+    }
+
+    /**
+     * @return Number of shards.
+     */
+    int getCount() {
+        return mailboxes.size();
+    }
+
+    /**
+     * @return Number of tasks waiting in all mailboxes.
+     */
+    int getQueued() {
+        int queued = 0;
+        for (final BlockingQueue<Runnable> mailbox : mailboxes) {
+            queued += mailbox.size();
+        }
+        return queued;
+    }
+
+    /**
+     * Stops the workers, waiting tasks are dropped.
+     */
+    void close() {
+        keepGoing = false;
+        for (final Thread worker : workers) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * @return Shard of a room.
+     */
+    private int shardOf(@NotNull final String room) {
+        // spread the bits of similar names, e.g. room-1 and room-2
+        final int hash = room.hashCode() * 0x9E3779B9;
+        return (hash >>> 1) % mailboxes.size();
+    }
+
+    /**
+     * Runs the tasks of a mailbox until the shards are closed.
+     */
+    private void work(@NotNull final BlockingQueue<Runnable> mailbox) {
+        while (keepGoing) {
+            final Runnable task;
+            try {
+                task = mailbox.take();
+            } catch (final InterruptedException e) {
+                break;
+            }
+            try {
+                task.run();
+            } catch (final RuntimeException e) {
+                LOG.error("Room task failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package chat_app.server;
+
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Clock of the server, shared by all rooms and clients. <br/>
+ * The time of day is rendered once per second and the text is shared by all messages of that second, so stamping a
+ * message allocates nothing and needs no lock.
+ */
+class ServerClock {
+
+    /**
+     * Format of the time of day in front of messages.
+     */
+    @NotNull
+    private static final DateTimeFormatter TIME_OF_DAY = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+    /**
+     * Holds the time zone the time of day is rendered in.
+     */
+    @NotNull
+    private final ZoneId zone;
+
+    /**
+     * Second rendered last. Replaced, never modified.
+     */
+    @NotNull
+    private volatile Second current;
+
+    /**
+     * Constructor for the default time zone.
+     */
+    ServerClock() {
+        this(ZoneId.systemDefault());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param zone Time zone to render the time of day in. Not null.
+     */
+    ServerClock(@NotNull final ZoneId zone) {
+        Preconditions.checkNotNull(zone, "zone must not be null.");
+
+        this.zone = zone;
+        this.current = render(Math.floorDiv(millis(), 1000L));
+    }
+
+    /**
+     * @return Milliseconds since the epoch.
+     */
+    long millis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * @return Current time of day as HH:mm:ss. Not null.
+     */
+    @NotNull
+    String timeOfDay() {
+        return timeOfDay(millis());
+    }
+
+    /**
+     * @param millis Milliseconds since the epoch.
+     * @return Time of day as HH:mm:ss. Not null.
+     */
+    @NotNull
+    String timeOfDay(final long millis) {
+        final long epochSecond = Math.floorDiv(millis, 1000L);
+        final Second second = current;
+        if (second.epochSecond == epochSecond) {
+            return second.text;
+        }
+
+        final Second rendered = render(epochSecond);
+        // late callers of an older second must not replace a newer one
+        if (epochSecond > second.epochSecond) {
+            current = rendered;
+        }
+        return rendered.text;
+    }
+
+    /**
+     * @return Time of day of the second. Not null.
+     */
+    @NotNull
+    private Second render(final long epochSecond) {
+        final LocalTime time = LocalTime.ofInstant(Instant.ofEpochSecond(epochSecond), zone);
+        return new Second(epochSecond, TIME_OF_DAY.format(time));
+    }
+
+    /**
+     * One rendered second.
+     */
+    private static final class Second {
+
+        private final long epochSecond;
+
+        @NotNull
+        private final String text;
+
+        private Second(final long epochSecond, @NotNull final String text) {
+            this.epochSecond = epochSecond;
+            this.text = text;
+        }
+    }
+}
@@ -0,0 +1,832 @@
+package chat_app.server;
+
+import chat_app.utility.FrameCompression;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.net.HostAndPort;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.net.Socket;
+import java.net.SocketException;
+import java.security.MessageDigest;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Tuning of the server. Read from system properties, e.g. {@code -Dchat.outbound.capacity=1024}.
+ */
+class ServerConfig {
+
+    /**
+     * Maximal number of messages queued for one client.
+     */
+    static final String OUTBOUND_CAPACITY = "chat.outbound.capacity";
+
+    /**
+     * {@link OverflowPolicy} for full outbound queues.
+     */
+    static final String OUTBOUND_OVERFLOW = "chat.outbound.overflow";
+
+    /**
+     * Milliseconds a new client may take to send its preamble and username.
+     */
+    static final String HANDSHAKE_TIMEOUT = "chat.handshake.timeout";
+
+    /**
+     * Maximal number of handshakes in progress at the same time.
+     */
+    static final String HANDSHAKE_SLOTS = "chat.handshake.slots";
+
+    /**
+     * Whether small writes go out without waiting (TCP_NODELAY).
+     */
+    static final String TCP_NODELAY = "chat.tcp.nodelay";
+
+    /**
+     * Socket send buffer size in bytes, 0 for the default of the system.
+     */
+    static final String SEND_BUFFER = "chat.socket.sendbuffer";
+
+    /**
+     * Socket receive buffer size in bytes, 0 for the default of the system.
+     */
+    static final String RECEIVE_BUFFER = "chat.socket.receivebuffer";
+
+    /**
+     * Bytes a writer collects at most before it flushes.
+     */
+    static final String FLUSH_BYTES = "chat.flush.bytes";
+
+    /**
+     * Microseconds a writer waits for more messages before it flushes, 0 to flush as soon as the queue is empty.
+     */
+    static final String FLUSH_DELAY = "chat.flush.delay";
+
+    /**
+     * Messages each room keeps for clients that enter it, 0 to keep none.
+     */
+    static final String HISTORY_MESSAGES = "chat.history.messages";
+
+    /**
+     * Bytes the kept messages of a room may take.
+     */
+    static final String HISTORY_BYTES = "chat.history.bytes";
+
+    /**
+     * Directory of the {@link RoomLog room logs}, unset to keep no logs.
+     */
+    static final String LOG_DIRECTORY = "chat.log.dir";
+
+    /**
+     * Megabytes of one log segment.
+     */
+    static final String LOG_SEGMENT_MB = "chat.log.segment.mb";
+
+    /**
+     * {@link FsyncPolicy} of the room logs.
+     */
+    static final String LOG_FSYNC = "chat.log.fsync";
+
+    /**
+     * Milliseconds between two forces with {@link FsyncPolicy#INTERVAL}.
+     */
+    static final String LOG_FSYNC_INTERVAL = "chat.log.fsync.interval";
+
+    /**
+     * Hours a log segment is kept, 0 to keep it forever.
+     */
+    static final String LOG_RETENTION_HOURS = "chat.log.retention.hours";
+
+    /**
+     * Megabytes the segments of one room may take, 0 for no limit.
+     */
+    static final String LOG_RETENTION_MB = "chat.log.retention.mb";
+
+    /**
+     * Whether the metrics are registered as JMX MBeans.
+     */
+    static final String JMX = "chat.jmx";
+
+    /**
+     * Secret a client sends with {@link chat_app.transfer_object.MessageType#STATS} to get the metrics. Unset turns
+     * STATS off.
+     */
+    static final String ADMIN_SECRET = "chat.admin.secret";
+
+    /**
+     * Port where the node accepts links of other nodes, 0 if it doesn't federate.
+     */
+    static final String FEDERATION_PORT = "chat.federation.port";
+
+    /**
+     * Federation ports of the other nodes, as host:port separated by commas.
+     */
+    static final String FEDERATION_PEERS = "chat.federation.peers";
+
+    /**
+     * Secret all nodes of the federation share, a node that doesn't send it in its HELLO isn't linked. Required to
+     * federate.
+     */
+    static final String FEDERATION_SECRET = "chat.federation.secret";
+
+    /**
+     * Name of the node in the federation, unique among the nodes.
+     */
+    static final String NODE_NAME = "chat.node";
+
+    /**
+     * Number of threads that own the rooms, 0 to run room work on the thread of the client.
+     */
+    static final String ROOM_SHARDS = "chat.room.shards";
+
+    /**
+     * Payload size in bytes from which frames to clients that offer compression are deflated, 0 to decline
+     * compression.
+     */
+    static final String COMPRESSION_THRESHOLD = "chat.compression.threshold";
+
+    /**
+     * Seconds a client that lost its connection may resume its session, 0 to issue no resume tokens.
+     */
+    static final String RESUME_WINDOW = "chat.resume.window";
+
+    /**
+     * Maximal number of sessions resumed in one round.
+     */
+    static final String RESUME_BATCH = "chat.resume.batch";
+
+    /**
+     * Milliseconds the resume stage collects resumes for one round.
+     */
+    static final String RESUME_INTERVAL = "chat.resume.interval";
+
+    /**
+     * Maximal number of missed messages sent to a client that resumes.
+     */
+    static final String RESUME_MESSAGES = "chat.resume.messages";
+
+    /**
+     * Milliseconds a client may stay silent before the server pings it, 0 to send no pings.
+     */
+    static final String HEARTBEAT_INTERVAL = "chat.heartbeat.interval";
+
+    /**
+     * Milliseconds without anything from a client that answers pings before it is disconnected, 0 to wait for ever.
+     */
+    static final String READ_TIMEOUT = "chat.read.timeout";
+
+    /**
+     * Milliseconds of one tick of the timing wheel, the precision of the heartbeats.
+     */
+    static final String TIMER_TICK = "chat.timer.tick";
+
+    /**
+     * Messages per second a client may send to its room, 0 for no limit.
+     */
+    static final String LIMIT_CLIENT_MESSAGES = "chat.limit.client.messages";
+
+    /**
+     * Payload bytes per second a client may send to its room, 0 for no limit.
+     */
+    static final String LIMIT_CLIENT_BYTES = "chat.limit.client.bytes";
+
+    /**
+     * Messages per second all clients of a room may send to it together, 0 for no limit.
+     */
+    static final String LIMIT_ROOM_MESSAGES = "chat.limit.room.messages";
+
+    /**
+     * Payload bytes per second all clients of a room may send to it together, 0 for no limit.
+     */
+    static final String LIMIT_ROOM_BYTES = "chat.limit.room.bytes";
+
+    /**
+     * {@link ThrottlePolicy} for messages over a limit.
+     */
+    static final String LIMIT_POLICY = "chat.limit.policy";
+
+    /**
+     * Largest segment, so positions fit an int.
+     */
+    private static final int MAX_SEGMENT_MB = 1024;
+
+    /**
+     * Maximal number of messages queued for one client.
+     */
+    private final int outboundCapacity;
+
+    /**
+     * Policy for full outbound queues.
+     */
+    @NotNull
+    private final OverflowPolicy overflowPolicy;
+
+    /**
+     * Milliseconds a new client may take for the handshake.
+     */
+    private final int handshakeTimeout;
+
+    /**
+     * Maximal number of concurrent handshakes.
+     */
+    private final int handshakeSlots;
+
+    /**
+     * Whether TCP_NODELAY is set.
+     */
+    private final boolean tcpNoDelay;
+
+    /**
+     * Socket send buffer size, 0 for the default.
+     */
+    private final int sendBufferSize;
+
+    /**
+     * Socket receive buffer size, 0 for the default.
+     */
+    private final int receiveBufferSize;
+
+    /**
+     * Bytes collected at most before a flush.
+     */
+    private final int flushBytes;
+
+    /**
+     * Microseconds to wait for more messages before a flush.
+     */
+    private final int flushDelay;
+
+    /**
+     * Messages each room keeps.
+     */
+    private final int historyMessages;
+
+    /**
+     * Bytes the kept messages of a room may take.
+     */
+    private final int historyBytes;
+
+    /**
+     * Directory of the room logs, null to keep no logs.
+     */
+    @Nullable
+    private final Path logDirectory;
+
+    /**
+     * Megabytes of one log segment.
+     */
+    private final int logSegmentMb;
+
+    /**
+     * When the room logs are forced to the disk.
+     */
+    @NotNull
+    private final FsyncPolicy logFsyncPolicy;
+
+    /**
+     * Milliseconds between two forces.
+     */
+    private final int logFsyncInterval;
+
+    /**
+     * Hours a log segment is kept, 0 for ever.
+     */
+    private final int logRetentionHours;
+
+    /**
+     * Megabytes the segments of one room may take, 0 for no limit.
+     */
+    private final int logRetentionMb;
+
+    /**
+     * Whether the metrics are registered as MBeans.
+     */
+    private final boolean jmx;
+
+    /**
+     * Secret that unlocks the metrics, null if nobody may ask for them.
+     */
+    @Nullable
+    private final byte[] adminSecret;
+
+    /**
+     * Port for the links of other nodes, 0 if the node doesn't federate.
+     */
+    private final int federationPort;
+
+    /**
+     * Federation ports of the other nodes.
+     */
+    @NotNull
+    private final List<HostAndPort> federationPeers;
+
+    /**
+     * Secret of the federation, null if the node doesn't federate.
+     */
+    @Nullable
+    private final String federationSecret;
+
+    /**
+     * Name of the node, null for the host name and port.
+     */
+    @Nullable
+    private final String nodeName;
+
+    /**
+     * Number of threads that own the rooms, 0 for none.
+     */
+    private final int roomShards;
+
+    /**
+     * Payload size from which frames are compressed, 0 for no compression.
+     */
+    private final int compressionThreshold;
+
+    /**
+     * Seconds a session may be resumed after the connection was lost, 0 for no resumes.
+     */
+    private final int resumeWindow;
+
+    /**
+     * Sessions resumed in one round at most.
+     */
+    private final int resumeBatch;
+
+    /**
+     * Milliseconds of one round of resumes.
+     */
+    private final int resumeInterval;
+
+    /**
+     * Missed messages sent to a resumed client at most.
+     */
+    private final int resumeMessages;
+
+    /**
+     * Milliseconds of silence before a ping, 0 for no pings.
+     */
+    private final int heartbeatInterval;
+
+    /**
+     * Milliseconds of silence before a disconnect, 0 for never.
+     */
+    private final int readTimeout;
+
+    /**
+     * Milliseconds of one tick of the timing wheel.
+     */
+    private final int timerTick;
+
+    /**
+     * Messages per second of one client, 0 for no limit.
+     */
+    private final int clientMessageRate;
+
+    /**
+     * Payload bytes per second of one client, 0 for no limit.
+     */
+    private final int clientByteRate;
+
+    /**
+     * Messages per second of one room, 0 for no limit.
+     */
+    private final int roomMessageRate;
+
+    /**
+     * Payload bytes per second of one room, 0 for no limit.
+     */
+    private final int roomByteRate;
+
+    /**
+     * Policy for messages over a limit.
+     */
+    @NotNull
+    private final ThrottlePolicy throttlePolicy;
+
+    /**
+     * Constructor.
+     *
+     * @param properties Settings, missing ones get their default. Not null.
+     * @throws IllegalArgumentException If a setting is invalid.
+     */
+    ServerConfig(@NotNull final Properties properties) {
+        Preconditions.checkNotNull(properties, "properties must not be null.");
+
+        this.outboundCapacity = intValue(properties, OUTBOUND_CAPACITY, 1024, 1);
+        this.overflowPolicy = enumValue(properties, OUTBOUND_OVERFLOW, OverflowPolicy.DROP_OLDEST);
+        this.handshakeTimeout = intValue(properties, HANDSHAKE_TIMEOUT, 10000, 1);
+        this.handshakeSlots = intValue(properties, HANDSHAKE_SLOTS, 64, 1);
+        this.tcpNoDelay = booleanValue(properties, TCP_NODELAY, true);
+        this.sendBufferSize = intValue(properties, SEND_BUFFER, 0, 0);
+        this.receiveBufferSize = intValue(properties, RECEIVE_BUFFER, 0, 0);
+        this.flushBytes = intValue(properties, FLUSH_BYTES, 64 * 1024, 1);
+        this.flushDelay = intValue(properties, FLUSH_DELAY, 0, 0);
+        this.historyMessages = intValue(properties, HISTORY_MESSAGES, 50, 0);
+        this.historyBytes = intValue(properties, HISTORY_BYTES, 64 * 1024, 0);
+        this.logDirectory = pathValue(properties, LOG_DIRECTORY);
+        this.logSegmentMb = intValue(properties, LOG_SEGMENT_MB, 64, 1);
+        Preconditions.checkArgument(logSegmentMb <= MAX_SEGMENT_MB, "%s must be at most %s: %s",
+                LOG_SEGMENT_MB, MAX_SEGMENT_MB, logSegmentMb);
+        this.logFsyncPolicy = enumValue(properties, LOG_FSYNC, FsyncPolicy.INTERVAL);
+        this.logFsyncInterval = intValue(properties, LOG_FSYNC_INTERVAL, 1000, 1);
+        this.logRetentionHours = intValue(properties, LOG_RETENTION_HOURS, 7 * 24, 0);
+        this.logRetentionMb = intValue(properties, LOG_RETENTION_MB, 1024, 0);
+        this.jmx = booleanValue(properties, JMX, true);
+        final String secret = properties.getProperty(ADMIN_SECRET, "");
+        this.adminSecret = secret.isEmpty() ? null : secret.getBytes(StandardCharsets.UTF_8);
+        this.federationPort = intValue(properties, FEDERATION_PORT, 0, 0);
+        this.federationPeers = hostsValue(properties, FEDERATION_PEERS);
+        final String federation = properties.getProperty(FEDERATION_SECRET, "");
+        this.federationSecret = federation.isEmpty() ? null : federation;
+        Preconditions.checkArgument(federationSecret != null || federationPort == 0 && federationPeers.isEmpty(),
+                "%s must be set to federate", FEDERATION_SECRET);
+        final String node = properties.getProperty(NODE_NAME, "").trim();
+        this.nodeName = node.isEmpty() ? null : node;
+        this.roomShards = intValue(properties, ROOM_SHARDS, 0, 0);
+        this.compressionThreshold = intValue(properties, COMPRESSION_THRESHOLD, FrameCompression.DEFAULT_THRESHOLD, 0);
+        this.resumeWindow = intValue(properties, RESUME_WINDOW, 120, 0);
+        this.resumeBatch = intValue(properties, RESUME_BATCH, 100, 1);
+        this.resumeInterval = intValue(properties, RESUME_INTERVAL, 50, 1);
+        this.resumeMessages = intValue(properties, RESUME_MESSAGES, 1000, 0);
+        this.heartbeatInterval = intValue(properties, HEARTBEAT_INTERVAL, 30000, 0);
+        this.readTimeout = intValue(properties, READ_TIMEOUT, 90000, 0);
+        this.timerTick = intValue(properties, TIMER_TICK, 100, 1);
+        this.clientMessageRate = intValue(properties, LIMIT_CLIENT_MESSAGES, 20, 0);
+        this.clientByteRate = intValue(properties, LIMIT_CLIENT_BYTES, 64 * 1024, 0);
+        this.roomMessageRate = intValue(properties, LIMIT_ROOM_MESSAGES, 0, 0);
+        this.roomByteRate = intValue(properties, LIMIT_ROOM_BYTES, 0, 0);
+        this.throttlePolicy = enumValue(properties, LIMIT_POLICY, ThrottlePolicy.DELAY);
+    }
+
+    /**
+     * @return Config from the system properties. Not null.
+     */
+    @NotNull
+    static ServerConfig fromSystemProperties() {
+        return new ServerConfig(System.getProperties());
+    }
+
+    /**
+     * @return Maximal number of messages queued for one client.
+     */
+    int getOutboundCapacity() {
+        return outboundCapacity;
+    }
+
+    /**
+     * @return Policy for full outbound queues. Not null.
+     */
+    @NotNull
+    OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * @return Milliseconds a new client may take for the handshake.
+     */
+    int getHandshakeTimeout() {
+        return handshakeTimeout;
+    }
+
+    /**
+     * @return Maximal number of concurrent handshakes.
+     */
+    int getHandshakeSlots() {
+        return handshakeSlots;
+    }
+
+    /**
+     * @return Bytes a writer collects at most before it flushes.
+     */
+    int getFlushBytes() {
+        return flushBytes;
+    }
+
+    /**
+     * @return Microseconds a writer waits for more messages before it flushes.
+     */
+    int getFlushDelay() {
+        return flushDelay;
+    }
+
+    /**
+     * @return Messages each room keeps for clients that enter it.
+     */
+    int getHistoryMessages() {
+        return historyMessages;
+    }
+
+    /**
+     * @return Bytes the kept messages of a room may take.
+     */
+    int getHistoryBytes() {
+        return historyBytes;
+    }
+
+    /**
+     * @return Directory of the room logs, null to keep no logs.
+     */
+    @Nullable
+    Path getLogDirectory() {
+        return logDirectory;
+    }
+
+    /**
+     * @return Bytes of one log segment.
+     */
+    int getLogSegmentBytes() {
+        return logSegmentMb * 1024 * 1024;
+    }
+
+    /**
+     * @return When the room logs are forced to the disk. Not null.
+     */
+    @NotNull
+    FsyncPolicy getLogFsyncPolicy() {
+        return logFsyncPolicy;
+    }
+
+    /**
+     * @return Milliseconds between two forces with {@link FsyncPolicy#INTERVAL}.
+     */
+    int getLogFsyncInterval() {
+        return logFsyncInterval;
+    }
+
+    /**
+     * @return Hours a log segment is kept, 0 to keep it forever.
+     */
+    int getLogRetentionHours() {
+        return logRetentionHours;
+    }
+
+    /**
+     * @return Bytes the segments of one room may take, 0 for no limit.
+     */
+    long getLogRetentionBytes() {
+        return logRetentionMb * 1024L * 1024L;
+    }
+
+    /**
+     * @return Whether the metrics are registered as JMX MBeans.
+     */
+    boolean isJmx() {
+        return jmx;
+    }
+
+    /**
+     * Compares in constant time, so the answer doesn't tell how much of the secret was right.
+     *
+     * @param secret Secret sent by a client. Not null.
+     * @return True, if the secret unlocks the metrics.
+     */
+    boolean isAdminSecret(@NotNull final String secret) {
+        Preconditions.checkNotNull(secret, "secret must not be null.");
+
+        return adminSecret != null && MessageDigest.isEqual(adminSecret, secret.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return Port for the links of other nodes, 0 if the node doesn't federate.
+     */
+    int getFederationPort() {
+        return federationPort;
+    }
+
+    /**
+     * @return Federation ports of the other nodes the node connects to. Not null.
+     */
+    @NotNull
+    List<HostAndPort> getFederationPeers() {
+        return federationPeers;
+    }
+
+    /**
+     * @return Secret all nodes of the federation share, null if the node doesn't federate.
+     */
+    @Nullable
+    String getFederationSecret() {
+        return federationSecret;
+    }
+
+    /**
+     * @return Name of the node in the federation, null for the host name and port.
+     */
+    @Nullable
+    String getNodeName() {
+        return nodeName;
+    }
+
+    /**
+     * @return Number of threads that own the rooms, 0 to run room work on the thread of the client.
+     */
+    int getRoomShards() {
+        return roomShards;
+    }
+
+    /**
+     * @return Payload size in bytes from which frames are compressed, 0 to decline compression.
+     */
+    int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * @return Seconds a client that lost its connection may resume its session, 0 if sessions can't be resumed.
+     */
+    int getResumeWindow() {
+        return resumeWindow;
+    }
+
+    /**
+     * @return Maximal number of sessions resumed in one round.
+     */
+    int getResumeBatch() {
+        return resumeBatch;
+    }
+
+    /**
+     * @return Milliseconds the resume stage collects resumes for one round.
+     */
+    int getResumeInterval() {
+        return resumeInterval;
+    }
+
+    /**
+     * @return Maximal number of missed messages sent to a client that resumes.
+     */
+    int getResumeMessages() {
+        return resumeMessages;
+    }
+
+    /**
+     * @return Milliseconds a client may stay silent before the server pings it, 0 to send no pings.
+     */
+    int getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    /**
+     * @return Milliseconds without anything from a client before it is disconnected, 0 to wait for ever.
+     */
+    int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * @return Milliseconds of one tick of the timing wheel.
+     */
+    int getTimerTick() {
+        return timerTick;
+    }
+
+    /**
+     * @return Messages per second a client may send to its room, 0 for no limit.
+     */
+    int getClientMessageRate() {
+        return clientMessageRate;
+    }
+
+    /**
+     * @return Payload bytes per second a client may send to its room, 0 for no limit.
+     */
+    int getClientByteRate() {
+        return clientByteRate;
+    }
+
+    /**
+     * @return Messages per second the clients of a room may send to it together, 0 for no limit.
+     */
+    int getRoomMessageRate() {
+        return roomMessageRate;
+    }
+
+    /**
+     * @return Payload bytes per second the clients of a room may send to it together, 0 for no limit.
+     */
+    int getRoomByteRate() {
+        return roomByteRate;
+    }
+
+    /**
+     * @return Policy for messages over a limit. Not null.
+     */
+    @NotNull
+    ThrottlePolicy getThrottlePolicy() {
+        return throttlePolicy;
+    }
+
+    /**
+     * Applies the socket options to a connection of a client.
+     *
+     * @param socket Not null.
+     */
+    void configure(@NotNull final Socket socket) throws SocketException {
+        Preconditions.checkNotNull(socket, "socket must not be null.");
+
+        socket.setTcpNoDelay(tcpNoDelay);
+        if (sendBufferSize > 0) {
+            socket.setSendBufferSize(sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+    }
+
+    /**
+     * @return Integer setting of at least the minimum or the default.
+     */
+    private static int intValue(@NotNull final Properties properties,
+                                @NotNull final String key,
+                                final int defaultValue,
+                                final int min) {
+        final String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            final int parsed = Integer.parseInt(value.trim());
+            Preconditions.checkArgument(parsed >= min, "%s must be at least %s: %s", key, min, value);
+            return parsed;
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException(key + " is not a number: " + value, e);
+        }
+    }
+
+    /**
+     * @return Path setting or null if it is unset or empty.
+     */
+    @Nullable
+    private static Path pathValue(@NotNull final Properties properties, @NotNull final String key) {
+        final String value = properties.getProperty(key);
+        if (value == null || value.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return Path.of(value.trim());
+        } catch (final InvalidPathException e) {
+            throw new IllegalArgumentException(key + " is not a path: " + value, e);
+        }
+    }
+
+    /**
+     * @return Addresses as host:port separated by commas, empty if unset. Not null.
+     */
+    @NotNull
+    private static List<HostAndPort> hostsValue(@NotNull final Properties properties, @NotNull final String key) {
+        final ImmutableList.Builder<HostAndPort> hosts = ImmutableList.builder();
+        for (final String value : Splitter.on(',').trimResults().omitEmptyStrings()
+                .split(properties.getProperty(key, ""))) {
+            try {
+                final HostAndPort host = HostAndPort.fromString(value);
+                Preconditions.checkArgument(host.hasPort(), "%s needs host:port: %s", key, value);
+                hosts.add(host);
+            } catch (final IllegalArgumentException e) {
+                throw new IllegalArgumentException(key + " is invalid: " + value, e);
+            }
+        }
+        return hosts.build();
+    }
+
+    /**
+     * @return Boolean setting, "true" or "false" in any case, or the default.
+     */
+    private static boolean booleanValue(@NotNull final Properties properties,
+                                        @NotNull final String key,
+                                        final boolean defaultValue) {
+        final String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        if (value.trim().equalsIgnoreCase("true")) {
+            return true;
+        }
+        if (value.trim().equalsIgnoreCase("false")) {
+            return false;
+        }
+        throw new IllegalArgumentException(key + " is not a boolean: " + value);
+    }
+
+    /**
+     * @return Enum setting, case insensitive, or the default.
+     */
+    @NotNull
+    private static <E extends Enum<E>> E enumValue(@NotNull final Properties properties,
+                                                   @NotNull final String key,
+                                                   @NotNull final E defaultValue) {
+        final String value = properties.getProperty(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Enum.valueOf(defaultValue.getDeclaringClass(), value.trim().toUpperCase());
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException(key + " is invalid: " + value, e);
+        }
+    }
+}
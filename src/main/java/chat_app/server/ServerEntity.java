@@ -1,15 +1,27 @@
 package chat_app.server;
 
-import chat_app.utility.Connection;
+import chat_app.utility.FrameCompression;
+import chat_app.utility.FramedCodec;
+import chat_app.utility.ThreadMode;
 import com.google.common.base.Preconditions;
 import org.apache.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Chat-Server holds the {@link ChatRoom chat-rooms} and handles the first connection. <br/>
@@ -18,10 +30,29 @@ import java.util.List;
 class ServerEntity {
     private static final Logger LOG = Logger.getLogger(ServerEntity.class);
 
+    /**
+     * Buckets of the timing wheel, one turn takes that many ticks.
+     */
+    private static final int TIMING_WHEEL_SIZE = 512;
+
     /**
      * Unique ID for each connection
      */
-    private static int clientIdSequence;
+    @NotNull
+    private final AtomicInteger clientIdSequence = new AtomicInteger();
+
+    /**
+     * Holds the connected clients by their id, whatever room they are in.
+     */
+    @NotNull
+    private final ConcurrentMap<Integer, ConnectedClient> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Holds the connected clients by their {@link #key(String) lower case username}, for direct messages. A username
+     * used by several connections maps to all of them, until the last one disconnects.
+     */
+    @NotNull
+    private final ConcurrentMap<String, Set<ConnectedClient>> directory = new ConcurrentHashMap<>();
 
     /**
      * Holds the server socket.
@@ -29,10 +60,22 @@ class ServerEntity {
     private ServerSocket serverSocket;
 
     /**
-     * Holds the chat rooms.
+     * Holds the chat rooms by their {@link #key(String) lower case name}.
      */
     @NotNull
-    private List<ChatRoom> chatRooms;
+    private final ConcurrentMap<String, ChatRoom> chatRooms = new ConcurrentHashMap<>();
+
+    /**
+     * Chat rooms by the {@link #roomCounter number} they were created with, so they are listed in that order.
+     */
+    @NotNull
+    private final ConcurrentNavigableMap<Long, ChatRoom> chatRoomsByCreation = new ConcurrentSkipListMap<>();
+
+    /**
+     * Numbers the chat rooms as they are created.
+     */
+    @NotNull
+    private final AtomicLong roomCounter = new AtomicLong();
 
     /**
      * Holds the waiting hall.
@@ -50,19 +93,126 @@ class ServerEntity {
     @NotNull
     private Integer port;
 
+    /**
+     * Kind of thread each connected client runs on.
+     */
+    @NotNull
+    private ThreadMode threadMode;
 
     /**
-     * Constructor.
+     * Holds the tuning of the server.
+     */
+    @NotNull
+    private ServerConfig config;
+
+    /**
+     * Holds the clock that stamps the messages.
+     */
+    @NotNull
+    private final ServerClock clock = new ServerClock();
+
+    /**
+     * Holds the metrics of the server.
+     */
+    @NotNull
+    private final ServerMetrics metrics = new ServerMetrics(this);
+
+    /**
+     * Reads the usernames of new clients, off the accept loop.
+     */
+    @NotNull
+    private final HandshakeStage handshakeStage;
+
+    /**
+     * Appends the messages of the rooms to their logs, null if the server keeps no logs.
+     */
+    @Nullable
+    private final RoomLogWriter roomLogWriter;
+
+    /**
+     * Links this node to the other nodes, null if it doesn't federate.
+     */
+    @Nullable
+    private final Federation federation;
+
+    /**
+     * Holds the threads that own the rooms, null if room work runs on the threads of the clients.
+     */
+    @Nullable
+    private final RoomShards roomShards;
+
+    /**
+     * Holds the codec for clients that offer compression, null if the server declines compression.
+     */
+    @Nullable
+    private final FramedCodec compressedCodec;
+
+    /**
+     * Issues resume tokens and resumes sessions.
+     */
+    @NotNull
+    private final ResumeStage resumeStage;
+
+    /**
+     * Runs the heartbeat timers of all clients.
+     */
+    @NotNull
+    private final TimingWheel timingWheel;
+
+    /**
+     * Constructor for platform threads.
      *
      * @param port server port. Not null.
      */
     ServerEntity(@NotNull final Integer port) {
+        this(port, ThreadMode.PLATFORM);
+    }
+
+    /**
+     * Constructor with the config from the system properties.
+     *
+     * @param port       server port. Not null.
+     * @param threadMode Kind of thread each connected client runs on. Not null.
+     */
+    ServerEntity(@NotNull final Integer port, @NotNull final ThreadMode threadMode) {
+        this(port, threadMode, ServerConfig.fromSystemProperties());
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param port       server port. Not null.
+     * @param threadMode Kind of thread each connected client runs on. Not null.
+     * @param config     Tuning of the server. Not null.
+     */
+    ServerEntity(@NotNull final Integer port,
+                 @NotNull final ThreadMode threadMode,
+                 @NotNull final ServerConfig config) {
         Preconditions.checkNotNull(port, "port must not be null.");
+        Preconditions.checkNotNull(threadMode, "threadMode must not be null.");
+        Preconditions.checkNotNull(config, "config must not be null.");
 
         this.port = port;
-        chatRooms = new ArrayList<>();
+        this.threadMode = threadMode;
+        this.config = config;
+        metrics.register();
+        roomShards = config.getRoomShards() > 0 ? new RoomShards(config.getRoomShards()) : null;
+        compressedCodec = config.getCompressionThreshold() > 0
+                ? FramedCodec.compressed(new FrameCompression(config.getCompressionThreshold())) : null;
+        roomLogWriter = config.getLogDirectory() == null ? null : createRoomLogWriter(config);
         waitingHall = new ChatRoom(this, "Waiting-Hall");
-        chatRooms.add(waitingHall);
+        publishRoom(key(waitingHall.getName()), waitingHall);
+        handshakeStage = new HandshakeStage(this);
+        resumeStage = new ResumeStage(this);
+        resumeStage.start();
+        timingWheel = new TimingWheel(config.getTimerTick(), TIMING_WHEEL_SIZE);
+        if (roomLogWriter != null) {
+            restoreRooms(roomLogWriter);
+            roomLogWriter.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(roomLogWriter::close, "room-log-shutdown"));
+        }
+        federation = config.getFederationPort() > 0 || !config.getFederationPeers().isEmpty()
+                ? startFederation() : null;
         LOG.debug("ServerEntity created.");
     }
 
@@ -80,7 +230,7 @@ class ServerEntity {
             // Infinite loop to wait for connections
             while (keepGoing) {
                 Socket socket = serverSocket.accept();    // accept connection
-                waitingHall.enterChatRoom(Connection.to(socket));
+                handshakeStage.admit(socket);
                 if (!keepGoing)
                     break;
             }
@@ -96,49 +246,133 @@ class ServerEntity {
     }
 
     /**
-     * Creates and adds a new chat room.
+     * Creates and adds a new chat room, unless a room with that name exists already. The room is built without a
+     * lock, if two clients create the same room at once, the room of the loser is dropped. Opening its log is safe,
+     * the {@link RoomLogWriter} opens each log once.
      *
-     * @param name Name of the room. Not null.
+     * @param name Name of the room, case is ignored. Not null.
+     * @return True, if the room was created.
      */
-    synchronized void addRoom(@NotNull final String name) {
+    boolean addRoom(@NotNull final String name) {
         Preconditions.checkNotNull(name, "name must not be null.");
 
-        this.chatRooms.add(new ChatRoom(this, name));
+        final String key = key(name);
+        if (chatRooms.containsKey(key)) {
+            return false;
+        }
+        return publishRoom(key, new ChatRoom(this, name));
+    }
+
+    /**
+     * Adds a room unless its name is taken, then lists it and registers its metrics.
+     *
+     * @param key  {@link #key(String) Key} of the room. Not null.
+     * @param room Not null.
+     * @return False, if a room with that name exists already.
+     */
+    private boolean publishRoom(@NotNull final String key, @NotNull final ChatRoom room) {
+        if (chatRooms.putIfAbsent(key, room) != null) {
+            return false;
+        }
+        chatRoomsByCreation.put(roomCounter.incrementAndGet(), room);
+        metrics.register(room.getMetrics());
+        return true;
     }
 
     /**
-     * Returns room by name or null if not found.
+     * Returns room by name.
      *
-     * @param name Name of the Room. Not null.
+     * @param name Name of the Room, case is ignored. Not null.
      * @return Not null.
      * @throws ChatRoomNotFoundException If no room with given name exists.
      */
     @NotNull
-    synchronized ChatRoom getRoomByName(@NotNull final String name) throws ChatRoomNotFoundException {
+    ChatRoom getRoomByName(@NotNull final String name) throws ChatRoomNotFoundException {
         Preconditions.checkNotNull(name, "name must not be null.");
 
-        for (final ChatRoom room : chatRooms) {
-            if (room.getName().equalsIgnoreCase(name)) {
-                return room;
+        final ChatRoom room = chatRooms.get(key(name));
+        if (room == null) {
+            throw new ChatRoomNotFoundException();
+        }
+        return room;
+    }
+
+    /**
+     * @return new client id.
+     */
+    int getClientIdFromSequence() {
+        return clientIdSequence.incrementAndGet();
+    }
+
+    /**
+     * Registers a connected client.
+     *
+     * @param client Not null.
+     */
+    void addSession(@NotNull final ConnectedClient client) {
+        Preconditions.checkNotNull(client, "client must not be null.");
+
+        sessions.put(client.clientId, client);
+        directory.compute(key(client.getUsername()), (key, clients) -> {
+            final Set<ConnectedClient> named = clients == null ? ConcurrentHashMap.newKeySet() : clients;
+            named.add(client);
+            return named;
+        });
+    }
+
+    /**
+     * Unregisters a client that has disconnected.
+     *
+     * @param client Not null.
+     */
+    void removeSession(@NotNull final ConnectedClient client) {
+        Preconditions.checkNotNull(client, "client must not be null.");
+
+        sessions.remove(client.clientId, client);
+        directory.computeIfPresent(key(client.getUsername()), (key, clients) -> {
+            clients.remove(client);
+            return clients.isEmpty() ? null : clients;
+        });
+    }
+
+    /**
+     * Looks up the recipient of a direct message. Only the connections with the username are looked at, whatever the
+     * number of clients and rooms.
+     *
+     * @param username Case is ignored. Not null.
+     * @return Connected client with the username that logged in last, null if there is none.
+     */
+    @Nullable
+    ConnectedClient findClient(@NotNull final String username) {
+        Preconditions.checkNotNull(username, "username must not be null.");
+
+        final Set<ConnectedClient> clients = directory.get(key(username));
+        if (clients == null) {
+            return null;
+        }
+        ConnectedClient found = null;
+        for (final ConnectedClient client : clients) {
+            if (client.isConnected() && (found == null || client.clientId > found.clientId)) {
+                found = client;
             }
         }
-        throw new ChatRoomNotFoundException();
+        return found;
     }
 
     /**
-     * @return new client id. Not null.
+     * @return Unmodifiable view of the connected clients. Not null.
      */
     @NotNull
-    Integer getClientIdFromSequence() {
-        return ++clientIdSequence;
+    Collection<ConnectedClient> getSessions() {
+        return Collections.unmodifiableCollection(sessions.values());
     }
 
     /**
-     * @return List of all chat-rooms. Not null.
+     * @return Unmodifiable view of all chat-rooms in the order they were created. Not null.
      */
     @NotNull
-    List<ChatRoom> getAllChatRooms() {
-        return chatRooms;
+    Collection<ChatRoom> getAllChatRooms() {
+        return Collections.unmodifiableCollection(chatRoomsByCreation.values());
     }
 
     /**
@@ -148,20 +382,182 @@ class ServerEntity {
         LOG.debug("Close all connections...");
         try {
             serverSocket.close();
-            for (final ChatRoom chatRoom : chatRooms) {
-                for (final ConnectedClient client : chatRoom.getClients()) {
-                    client.disconnect();
-                }
+            for (final ConnectedClient client : sessions.values()) {
+                client.disconnect();
             }
 
         } catch (final Exception ignored) {
         }
+        if (federation != null) {
+            federation.close();
+        }
+        resumeStage.close();
+        timingWheel.close();
+        if (roomShards != null) {
+            roomShards.close();
+        }
+        if (roomLogWriter != null) {
+            roomLogWriter.close();
+        }
         LOG.debug("All connections closed!");
     }
 
+    /**
+     * @return Writer of the room logs. Not null.
+     * @throws IllegalArgumentException If the log directory can't be used.
+     */
+    @NotNull
+    private static RoomLogWriter createRoomLogWriter(@NotNull final ServerConfig config) {
+        try {
+            return new RoomLogWriter(config);
+        } catch (final IOException e) {
+            throw new IllegalArgumentException(ServerConfig.LOG_DIRECTORY + " can't be used: "
+                    + config.getLogDirectory(), e);
+        }
+    }
+
+    /**
+     * @return Federation that links to the other nodes, started. Not null.
+     * @throws IllegalArgumentException If the federation port can't be used.
+     */
+    @NotNull
+    private Federation startFederation() {
+        final Federation started = new Federation(this);
+        try {
+            started.start();
+        } catch (final IOException e) {
+            throw new IllegalArgumentException(ServerConfig.FEDERATION_PORT + " can't be used: "
+                    + config.getFederationPort(), e);
+        }
+        return started;
+    }
+
+    /**
+     * Creates the rooms that have a log, in the order of their names.
+     */
+    private void restoreRooms(@NotNull final RoomLogWriter writer) {
+        final List<String> names;
+        try {
+            names = writer.getRoomNames();
+        } catch (final IOException e) {
+            LOG.error("Couldn't list the logged rooms", e);
+            return;
+        }
+        names.sort(String.CASE_INSENSITIVE_ORDER);
+        for (final String name : names) {
+            addRoom(name);
+        }
+        LOG.debug("Restored " + names.size() + " logged rooms.");
+    }
+
+    /**
+     * @return Key of a room name or username in its index. Not null.
+     */
+    @NotNull
+    private static String key(@NotNull final String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
     public ChatRoom getWaitingHall() {
         return waitingHall;
     }
+
+    /**
+     * @return Kind of thread each connected client runs on. Not null.
+     */
+    @NotNull
+    ThreadMode getThreadMode() {
+        return threadMode;
+    }
+
+    /**
+     * @return Tuning of the server. Not null.
+     */
+    @NotNull
+    ServerConfig getConfig() {
+        return config;
+    }
+
+    /**
+     * @return Writer of the room logs, null if the server keeps no logs.
+     */
+    @Nullable
+    RoomLogWriter getRoomLogWriter() {
+        return roomLogWriter;
+    }
+
+    /**
+     * @return Links to the other nodes, null if the server doesn't federate.
+     */
+    @Nullable
+    Federation getFederation() {
+        return federation;
+    }
+
+    /**
+     * @return Threads that own the rooms, null if room work runs on the threads of the clients.
+     */
+    @Nullable
+    RoomShards getRoomShards() {
+        return roomShards;
+    }
+
+    /**
+     * @return Codec for clients that offer compression, shared by all of them, null if the server declines
+     * compression.
+     */
+    @Nullable
+    FramedCodec getCompressedCodec() {
+        return compressedCodec;
+    }
+
+    /**
+     * @return Stage that admits new clients. Not null.
+     */
+    @NotNull
+    HandshakeStage getHandshakeStage() {
+        return handshakeStage;
+    }
+
+    /**
+     * @return Stage that resumes sessions. Not null.
+     */
+    @NotNull
+    ResumeStage getResumeStage() {
+        return resumeStage;
+    }
+
+    /**
+     * @return Timing wheel for the timers of the clients. Not null.
+     */
+    @NotNull
+    TimingWheel getTimingWheel() {
+        return timingWheel;
+    }
+
+    /**
+     * @return Metrics of the server. Not null.
+     */
+    @NotNull
+    ServerMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return Clock that stamps the messages. Not null.
+     */
+    @NotNull
+    ServerClock getClock() {
+        return clock;
+    }
+
+    /**
+     * @return ServerEntity port. Not null.
+     */
+    @NotNull
+    Integer getPort() {
+        return port;
+    }
 }
 
 
@@ -1,9 +1,15 @@
 package chat_app.server;
 
+import chat_app.utility.ThreadMode;
+
+import java.io.IOException;
+
 /**
  * Runs with:
- * <p>> java Server [port]</p>
- * If the port is not specified 1500 is used
+ * <p>> java Server [port] [engine]</p>
+ * If the port is not specified 1500 is used. <br />
+ * The engine is "blocking" (one platform thread per client, default), "virtual" (one virtual thread per client)
+ * or "nio" (a few event loop threads for all clients).
  */
 public class ServerMain {
 
@@ -13,8 +19,11 @@ public class ServerMain {
     public static void main(String[] args) {
         // default port
         int portNumber = 1500;
+        String engine = "blocking";
 
         switch (args.length) {
+            case 2: // with engine
+                engine = args[1];
             case 1: // with port
                 try {
                     portNumber = Integer.parseInt(args[0]);
@@ -30,12 +39,24 @@ public class ServerMain {
         }
 
         // create a server object and start it
-        ServerEntity server = new ServerEntity(portNumber);
-        server.start();
+        if (engine.equalsIgnoreCase("nio")) {
+            try {
+                final ServerEntity server = new ServerEntity(portNumber);
+                new NioServerEngine(server, Runtime.getRuntime().availableProcessors()).start();
+            } catch (IOException e) {
+                System.out.println("Couldn't start NIO engine: " + e.getMessage());
+            }
+        } else if (engine.equalsIgnoreCase("blocking")) {
+            new ServerEntity(portNumber, ThreadMode.PLATFORM).start();
+        } else if (engine.equalsIgnoreCase("virtual")) {
+            new ServerEntity(portNumber, ThreadMode.VIRTUAL).start();
+        } else {
+            usage();
+        }
     }
 
     public static void usage() {
-        System.out.println("Server usage: > java Server [port]");
+        System.out.println("Server usage: > java Server [port] [blocking|virtual|nio]");
     }
 
 }
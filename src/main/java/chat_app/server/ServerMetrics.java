@@ -0,0 +1,499 @@
+package chat_app.server;
+
+import chat_app.utility.FrameCompression;
+import chat_app.utility.FramedCodec;
+import chat_app.utility.LatencyHistogram;
+import com.google.common.base.Preconditions;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters, latency histograms and gauges of the server. <br/>
+ * The hot paths only add to striped counters and histograms, without a lock. Gauges such as the queued messages are
+ * computed when read. Everything is readable over JMX and, as text, with {@link chat_app.transfer_object.MessageType#STATS}.
+ */
+class ServerMetrics implements ServerMetricsMXBean {
+    private static final Logger LOG = Logger.getLogger(ServerMetrics.class);
+
+    /**
+     * Busiest rooms in the text of STATS.
+     */
+    private static final int TOP_ROOMS = 10;
+
+    /**
+     * Latencies while compression is off.
+     */
+    @NotNull
+    private static final LatencyHistogram.Snapshot NO_SAMPLES = new LatencyHistogram.Snapshot(0, 0, 0, 0, 0);
+
+    /**
+     * Holds the server instance.
+     */
+    @NotNull
+    private final ServerEntity server;
+
+    @NotNull
+    private final LongAdder messagesIn = new LongAdder();
+
+    @NotNull
+    private final LongAdder messagesOut = new LongAdder();
+
+    @NotNull
+    private final LongAdder bytesIn = new LongAdder();
+
+    @NotNull
+    private final LongAdder bytesOut = new LongAdder();
+
+    @NotNull
+    private final LongAdder directMessages = new LongAdder();
+
+    @NotNull
+    private final LongAdder pingsSent = new LongAdder();
+
+    /**
+     * Clients disconnected because they stayed silent too long.
+     */
+    @NotNull
+    private final LongAdder readTimeouts = new LongAdder();
+
+    /**
+     * Messages over a rate limit, with their payload bytes and the time they were held back.
+     */
+    @NotNull
+    private final LongAdder throttledMessages = new LongAdder();
+
+    @NotNull
+    private final LongAdder throttledBytes = new LongAdder();
+
+    @NotNull
+    private final LongAdder throttleDelay = new LongAdder();
+
+    /**
+     * Room tasks rejected because the mailbox of their shard was full.
+     */
+    @NotNull
+    private final LongAdder rejectedRoomTasks = new LongAdder();
+
+    /**
+     * Fan-out times by room size: up to 10, 100, 1000 and above.
+     */
+    @NotNull
+    private final LatencyHistogram[] fanOut = {
+            new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram(), new LatencyHistogram()};
+
+    @NotNull
+    private final LatencyHistogram encodeTime = new LatencyHistogram();
+
+    @NotNull
+    private final LatencyHistogram decodeTime = new LatencyHistogram();
+
+    /**
+     * Constructor.
+     *
+     * @param server Server to read the gauges from. Not null.
+     */
+    ServerMetrics(@NotNull final ServerEntity server) {
+        Preconditions.checkNotNull(server, "server must not be null.");
+
+        this.server = server;
+    }
+
+    /**
+     * Registers the server MBean, if JMX is on.
+     */
+    void register() {
+        register(this, "chat_app:type=Server,port=" + server.getPort());
+    }
+
+    /**
+     * Registers the MBean of a room, if JMX is on.
+     *
+     * @param room Not null.
+     */
+    void register(@NotNull final RoomMetrics room) {
+        Preconditions.checkNotNull(room, "room must not be null.");
+
+        register(room, "chat_app:type=Room,port=" + server.getPort() + ",name=" + ObjectName.quote(room.getName()));
+    }
+
+    /**
+     * Counts a message received from a client.
+     */
+    void countMessageIn() {
+        messagesIn.increment();
+    }
+
+    /**
+     * Counts a direct message delivered to its recipient.
+     */
+    void countDirectMessage() {
+        directMessages.increment();
+    }
+
+    /**
+     * Counts a ping sent to a silent client.
+     */
+    void countPing() {
+        pingsSent.increment();
+    }
+
+    /**
+     * Counts a client disconnected because it stayed silent too long.
+     */
+    void countReadTimeout() {
+        readTimeouts.increment();
+    }
+
+    /**
+     * Counts a message over a rate limit.
+     *
+     * @param bytes Payload bytes of the message.
+     * @param nanos Time it is held back, 0 if it isn't delayed.
+     */
+    void countThrottled(final int bytes, final long nanos) {
+        throttledMessages.increment();
+        throttledBytes.add(bytes);
+        throttleDelay.add(nanos);
+    }
+
+    /**
+     * Counts a room task rejected by a full shard.
+     */
+    void countRejectedRoomTask() {
+        rejectedRoomTasks.increment();
+    }
+
+    /**
+     * Counts messages queued for a client.
+     *
+     * @param count Number of messages.
+     */
+    void countMessagesOut(final int count) {
+        messagesOut.add(count);
+    }
+
+    /**
+     * Counts bytes read from a client.
+     *
+     * @param count Number of bytes.
+     */
+    void countBytesIn(final long count) {
+        bytesIn.add(count);
+    }
+
+    /**
+     * Counts bytes written to a client.
+     *
+     * @param count Number of bytes.
+     */
+    void countBytesOut(final long count) {
+        bytesOut.add(count);
+    }
+
+    /**
+     * Records the time a room took to distribute a message.
+     *
+     * @param members Members of the room.
+     * @param nanos   Duration.
+     */
+    void recordFanOut(final int members, final long nanos) {
+        final int index = members <= 10 ? 0 : members <= 100 ? 1 : members <= 1000 ? 2 : 3;
+        fanOut[index].record(nanos);
+    }
+
+    /**
+     * Records the time to encode a message.
+     *
+     * @param nanos Duration.
+     */
+    void recordEncode(final long nanos) {
+        encodeTime.record(nanos);
+    }
+
+    /**
+     * Records the time to decode a message.
+     *
+     * @param nanos Duration.
+     */
+    void recordDecode(final long nanos) {
+        decodeTime.record(nanos);
+    }
+
+    @Override
+    public long getMessagesIn() {
+        return messagesIn.sum();
+    }
+
+    @Override
+    public long getMessagesOut() {
+        return messagesOut.sum();
+    }
+
+    @Override
+    public long getBytesIn() {
+        return bytesIn.sum();
+    }
+
+    @Override
+    public long getBytesOut() {
+        return bytesOut.sum();
+    }
+
+    @Override
+    public int getConnectedClients() {
+        return server.getSessions().size();
+    }
+
+    @Override
+    public int getRooms() {
+        return server.getAllChatRooms().size();
+    }
+
+    @Override
+    public long getOutboundQueued() {
+        long queued = 0;
+        for (final ConnectedClient client : server.getSessions()) {
+            queued += client.getOutboundDepth();
+        }
+        return queued;
+    }
+
+    @Override
+    public long getOutboundDropped() {
+        long dropped = 0;
+        for (final ConnectedClient client : server.getSessions()) {
+            dropped += client.getOutboundDropped();
+        }
+        return dropped;
+    }
+
+    @Override
+    public int getPlatformThreads() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getFanOutTo10() {
+        return fanOut[0].snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getFanOutTo100() {
+        return fanOut[1].snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getFanOutTo1000() {
+        return fanOut[2].snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getFanOutAbove1000() {
+        return fanOut[3].snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getEncodeTime() {
+        return encodeTime.snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getDecodeTime() {
+        return decodeTime.snapshot();
+    }
+
+    @Override
+    public long getDirectMessages() {
+        return directMessages.sum();
+    }
+
+    @Override
+    public long getPingsSent() {
+        return pingsSent.sum();
+    }
+
+    @Override
+    public long getReadTimeouts() {
+        return readTimeouts.sum();
+    }
+
+    @Override
+    public long getThrottledMessages() {
+        return throttledMessages.sum();
+    }
+
+    @Override
+    public long getThrottledBytes() {
+        return throttledBytes.sum();
+    }
+
+    @Override
+    public long getThrottleDelayMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(throttleDelay.sum());
+    }
+
+    @Override
+    public long getRejectedRoomTasks() {
+        return rejectedRoomTasks.sum();
+    }
+
+    @Override
+    public int getPendingTimers() {
+        return server.getTimingWheel().getPending();
+    }
+
+    @Override
+    public long getResumedSessions() {
+        return server.getResumeStage().getResumed();
+    }
+
+    @Override
+    public long getRenewedResumes() {
+        return server.getResumeStage().getRenewed();
+    }
+
+    @Override
+    public long getCompressedFrames() {
+        final FrameCompression compression = compression();
+        return compression == null ? 0 : compression.getCompressed();
+    }
+
+    @Override
+    public long getCompressionBytesBefore() {
+        final FrameCompression compression = compression();
+        return compression == null ? 0 : compression.getBytesBefore();
+    }
+
+    @Override
+    public long getCompressionBytesAfter() {
+        final FrameCompression compression = compression();
+        return compression == null ? 0 : compression.getBytesAfter();
+    }
+
+    @Override
+    public long getIncompressibleFrames() {
+        final FrameCompression compression = compression();
+        return compression == null ? 0 : compression.getIncompressible();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getCompressTime() {
+        final FrameCompression compression = compression();
+        return compression == null ? NO_SAMPLES : compression.getCompressTime().snapshot();
+    }
+
+    @Override
+    public LatencyHistogram.Snapshot getInflateTime() {
+        final FrameCompression compression = compression();
+        return compression == null ? NO_SAMPLES : compression.getInflateTime().snapshot();
+    }
+
+    /**
+     * @return All metrics as text, with the busiest rooms. Not null.
+     */
+    @NotNull
+    String render() {
+        final StringBuilder text = new StringBuilder("Server statistics at ")
+                .append(server.getClock().timeOfDay()).append('\n');
+        text.append("Clients: ").append(getConnectedClients())
+                .append(", rooms: ").append(getRooms())
+                .append(", platform threads: ").append(getPlatformThreads()).append('\n');
+        text.append("Messages in: ").append(getMessagesIn())
+                .append(", out: ").append(getMessagesOut())
+                .append(", direct: ").append(getDirectMessages()).append('\n');
+        text.append("Bytes in: ").append(getBytesIn())
+                .append(", out: ").append(getBytesOut()).append('\n');
+        text.append("Outbound queued: ").append(getOutboundQueued())
+                .append(", dropped: ").append(getOutboundDropped()).append('\n');
+        final Federation federation = server.getFederation();
+        if (federation != null) {
+            text.append("Node ").append(federation.getNodeName())
+                    .append(", linked to: ").append(federation.getLinkedNodes()).append('\n');
+        }
+        final RoomShards shards = server.getRoomShards();
+        if (shards != null) {
+            text.append("Room shards: ").append(shards.getCount())
+                    .append(", tasks queued: ").append(shards.getQueued())
+                    .append(", rejected: ").append(getRejectedRoomTasks()).append('\n');
+        }
+        text.append("Pings sent: ").append(getPingsSent())
+                .append(", read timeouts: ").append(getReadTimeouts())
+                .append(", timers: ").append(getPendingTimers()).append('\n');
+        text.append("Throttled messages: ").append(getThrottledMessages())
+                .append(", bytes: ").append(getThrottledBytes())
+                .append(", delayed: ").append(getThrottleDelayMillis()).append(" ms (")
+                .append(server.getConfig().getThrottlePolicy()).append(")\n");
+        final ResumeStage resumes = server.getResumeStage();
+        text.append("Sessions resumed: ").append(getResumedSessions())
+                .append(", with new tokens: ").append(getRenewedResumes())
+                .append(", waiting: ").append(resumes.getPending())
+                .append(", resumable: ").append(resumes.getSessions()).append('\n');
+        text.append("Fan-out to 10 members: ").append(getFanOutTo10()).append('\n');
+        text.append("Fan-out to 100 members: ").append(getFanOutTo100()).append('\n');
+        text.append("Fan-out to 1000 members: ").append(getFanOutTo1000()).append('\n');
+        text.append("Fan-out above 1000 members: ").append(getFanOutAbove1000()).append('\n');
+        text.append("Encode: ").append(getEncodeTime()).append('\n');
+        text.append("Decode: ").append(getDecodeTime()).append('\n');
+        final FrameCompression compression = compression();
+        if (compression != null) {
+            final long before = compression.getBytesBefore();
+            final long after = compression.getBytesAfter();
+            text.append("Compressed frames: ").append(compression.getCompressed())
+                    .append(" from ").append(compression.getThreshold()).append(" bytes, ")
+                    .append(before).append(" -> ").append(after).append(" bytes, saved ")
+                    .append(before == 0 ? 0 : 100 * (before - after) / before).append("%, incompressible: ")
+                    .append(compression.getIncompressible()).append('\n');
+            text.append("Compress: ").append(getCompressTime()).append('\n');
+            text.append("Inflate: ").append(getInflateTime()).append('\n');
+        }
+
+        final List<RoomMetrics> rooms = new ArrayList<>();
+        for (final ChatRoom room : server.getAllChatRooms()) {
+            rooms.add(room.getMetrics());
+        }
+        rooms.sort(Comparator.comparingLong(RoomMetrics::getMessagesIn).reversed());
+        text.append("Busiest rooms:\n");
+        for (final RoomMetrics room : rooms.subList(0, Math.min(TOP_ROOMS, rooms.size()))) {
+            text.append("  ").append(room.getName())
+                    .append(": ").append(room.getMembers()).append(" members, ")
+                    .append(room.getMessagesIn()).append(" in, ")
+                    .append(room.getMessagesOut()).append(" out, ")
+                    .append(room.getThrottled()).append(" throttled\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return Compression of the server, null if it declines compression.
+     */
+    @Nullable
+    private FrameCompression compression() {
+        final FramedCodec codec = server.getCompressedCodec();
+        return codec == null ? null : codec.getCompression();
+    }
+
+    /**
+     * Registers an MBean with the platform server. A name that is taken, e.g. by a second server in the same JVM,
+     * is only logged.
+     */
+    private void register(@NotNull final Object bean, @NotNull final String name) {
+        if (!server.getConfig().isJmx()) {
+            return;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, new ObjectName(name));
+        } catch (final JMException e) {
+            LOG.warn("Couldn't register MBean " + name, e);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package chat_app.server;
+
+import chat_app.utility.LatencyHistogram;
+
+/**
+ * Metrics of the server over JMX, registered as {@code chat_app:type=Server,port=<port>}. Counters run since the
+ * start, latencies are in nanoseconds.
+ */
+public interface ServerMetricsMXBean {
+
+    /**
+     * @return Messages received from clients.
+     */
+    long getMessagesIn();
+
+    /**
+     * @return Messages queued for clients.
+     */
+    long getMessagesOut();
+
+    /**
+     * @return Bytes read from clients.
+     */
+    long getBytesIn();
+
+    /**
+     * @return Bytes written to clients.
+     */
+    long getBytesOut();
+
+    /**
+     * @return Clients connected now.
+     */
+    int getConnectedClients();
+
+    /**
+     * @return Chat rooms.
+     */
+    int getRooms();
+
+    /**
+     * @return Messages waiting in all outbound queues now.
+     */
+    long getOutboundQueued();
+
+    /**
+     * @return Messages dropped by the overflow policy of the connected clients.
+     */
+    long getOutboundDropped();
+
+    /**
+     * @return Live platform threads, virtual threads aren't counted.
+     */
+    int getPlatformThreads();
+
+    /**
+     * @return Time to distribute a message in rooms of up to 10 members.
+     */
+    LatencyHistogram.Snapshot getFanOutTo10();
+
+    /**
+     * @return Time to distribute a message in rooms of 11 to 100 members.
+     */
+    LatencyHistogram.Snapshot getFanOutTo100();
+
+    /**
+     * @return Time to distribute a message in rooms of 101 to 1000 members.
+     */
+    LatencyHistogram.Snapshot getFanOutTo1000();
+
+    /**
+     * @return Time to distribute a message in rooms of more than 1000 members.
+     */
+    LatencyHistogram.Snapshot getFanOutAbove1000();
+
+    /**
+     * @return Time to encode a room message in frames.
+     */
+    LatencyHistogram.Snapshot getEncodeTime();
+
+    /**
+     * @return Time to decode a message from a client, measured by the nio engine.
+     */
+    LatencyHistogram.Snapshot getDecodeTime();
+
+    /**
+     * @return Direct messages delivered to their recipient.
+     */
+    long getDirectMessages();
+
+    /**
+     * @return Pings sent to silent clients.
+     */
+    long getPingsSent();
+
+    /**
+     * @return Clients disconnected because they stayed silent longer than the read timeout.
+     */
+    long getReadTimeouts();
+
+    /**
+     * @return Messages over the rate limit of their client or room.
+     */
+    long getThrottledMessages();
+
+    /**
+     * @return Payload bytes of these messages.
+     */
+    long getThrottledBytes();
+
+    /**
+     * @return Milliseconds these messages were held back in total, with the policy DELAY.
+     */
+    long getThrottleDelayMillis();
+
+    /**
+     * @return Messages, entrances and departures rejected because the shard of their room was full.
+     */
+    long getRejectedRoomTasks();
+
+    /**
+     * @return Timers waiting on the timing wheel, about one per connected client.
+     */
+    int getPendingTimers();
+
+    /**
+     * @return Sessions resumed by clients that had lost their connection.
+     */
+    long getResumedSessions();
+
+    /**
+     * @return Sessions resumed with a new token, because the old one was unknown, e.g. after a restart, or had expired.
+     */
+    long getRenewedResumes();
+
+    /**
+     * @return Frames compressed for clients that accepted compression, once per message.
+     */
+    long getCompressedFrames();
+
+    /**
+     * @return Payload bytes of the compressed frames before compression.
+     */
+    long getCompressionBytesBefore();
+
+    /**
+     * @return Payload bytes of the compressed frames after compression.
+     */
+    long getCompressionBytesAfter();
+
+    /**
+     * @return Payloads above the threshold that didn't get smaller and went out as they were.
+     */
+    long getIncompressibleFrames();
+
+    /**
+     * @return Time to compress a payload.
+     */
+    LatencyHistogram.Snapshot getCompressTime();
+
+    /**
+     * @return Time to inflate a payload from a client.
+     */
+    LatencyHistogram.Snapshot getInflateTime();
+}
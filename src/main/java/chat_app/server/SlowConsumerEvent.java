@@ -0,0 +1,31 @@
+package chat_app.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event of a client whose {@link OutboundQueue} starts to overflow. Recorded once until the client has
+ * caught up, however many messages are dropped meanwhile.
+ */
+@Name("chat_app.SlowConsumer")
+@Label("Slow Consumer")
+@Category({"Chat App", "Connections"})
+@Description("Client that doesn't read as fast as messages are queued for it")
+class SlowConsumerEvent extends Event {
+
+    @Label("Remote Address")
+    String remoteAddress;
+
+    @Label("Overflow Policy")
+    String policy;
+
+    @Label("Capacity")
+    int capacity;
+
+    @Label("Dropped")
+    @Description("Messages dropped for the client before")
+    long dropped;
+}
@@ -0,0 +1,23 @@
+package chat_app.server;
+
+/**
+ * What happens to a message of a client that exceeds the {@link TokenBucket rate limit} of the client or its room.
+ */
+enum ThrottlePolicy {
+
+    /**
+     * Holds the message back until the buckets allow it, and with it everything the client sends after it. The
+     * client is slowed down by the flow control of TCP.
+     */
+    DELAY,
+
+    /**
+     * Discards the message and tells the client, at most once per second.
+     */
+    DROP,
+
+    /**
+     * Distributes the message and tells the client, at most once per second.
+     */
+    WARN
+}
@@ -0,0 +1,275 @@
+package chat_app.server;
+
+import chat_app.utility.ThreadMode;
+import com.google.common.base.Preconditions;
+import org.apache.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hashed timing wheel that runs the timers of all connections on one thread. <br/>
+ * The wheel is a ring of buckets, one per tick. A timer goes into the bucket of its deadline, modulo the size of the
+ * ring, with the number of rounds the wheel has to turn before it is due. Scheduling only appends to a lock-free
+ * queue and cancelling only marks the timer, so both take constant time whatever the number of timers; the thread
+ * moves new timers into their buckets and drops cancelled ones when it passes them. <br/>
+ * Timers run on the thread of the wheel, late by up to one tick, and must not block.
+ */
+class TimingWheel {
+    private static final Logger LOG = Logger.getLogger(TimingWheel.class);
+
+    /**
+     * Holds the buckets, each a doubly linked list of timers with a sentinel.
+     */
+    @NotNull
+    private final Timeout[] buckets;
+
+    /**
+     * Size of the ring minus 1, the size is a power of 2.
+     */
+    private final int mask;
+
+    /**
+     * Nanoseconds of one tick.
+     */
+    private final long tickNanos;
+
+    /**
+     * Holds the timers scheduled since the last tick.
+     */
+    @NotNull
+    private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Number of timers that are neither expired nor cancelled.
+     */
+    @NotNull
+    private final AtomicInteger pending = new AtomicInteger();
+
+    /**
+     * Nanotime the wheel started at, ticks are counted from it.
+     */
+    private final long start;
+
+    /**
+     * Holds the thread of the wheel.
+     */
+    @NotNull
+    private final Thread worker;
+
+    /**
+     * Will be turned off to stop the wheel.
+     */
+    private volatile boolean keepGoing = true;
+
+    /**
+     * Constructor, starts the thread of the wheel.
+     *
+     * @param tickMillis Milliseconds of one tick, the precision of the timers.
+     * @param size       Number of buckets, rounded up to a power of 2.
+     */
+    TimingWheel(final long tickMillis, final int size) {
+        Preconditions.checkArgument(tickMillis > 0, "tickMillis must be positive.");
+        Preconditions.checkArgument(size > 0 && size <= 1 << 30, "size must be positive.");
+
+        int buckets = 1;
+        while (buckets < size) {
+            buckets <<= 1;
+        }
+        this.buckets = new Timeout[buckets];
+        for (int i = 0; i < buckets; ++i) {
+            this.buckets[i] = new Timeout(null, 0, null);
+        }
+        this.mask = buckets - 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        this.start = System.nanoTime();
+        this.worker = ThreadMode.PLATFORM.start(this::work, "timing-wheel");
+    }
+
+    /**
+     * Runs a task after a delay. Takes constant time.
+     *
+     * @param task  Runs on the thread of the wheel, must not block. Not null.
+     * @param delay Milliseconds from now.
+     * @return Timer to cancel the task with. Not null.
+     */
+    @NotNull
+    Timeout schedule(@NotNull final Runnable task, final long delay) {
+        Preconditions.checkNotNull(task, "task must not be null.");
+
+        final Timeout timeout = new Timeout(this, System.nanoTime() - start + TimeUnit.MILLISECONDS.toNanos(delay),
+                task);
+        pending.incrementAndGet();
+        incoming.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * @return Number of timers that are neither expired nor cancelled.
+     */
+    int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * Stops the wheel, pending timers don't run.
+     */
+    void close() {
+        keepGoing = false;
+        worker.interrupt();
+    }
+
+    /**
+     * Turns the wheel one tick after the other until it is closed.
+     */
+    private void work() {
+        long tick = 0;
+        while (keepGoing) {
+            final long sleep = (tick + 1) * tickNanos - (System.nanoTime() - start);
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (final InterruptedException e) {
+                    break;
+                }
+            }
+            ++tick;
+            transferIncoming(tick);
+            expire(buckets[(int) (tick & mask)], tick);
+        }
+    }
+
+    /**
+     * Puts the timers scheduled since the last tick into their buckets.
+     */
+    private void transferIncoming(final long tick) {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            if (timeout.isCancelled()) {
+                continue;
+            }
+            // timers that are due already run with this tick
+            final long due = Math.max(tick, (timeout.deadline + tickNanos - 1) / tickNanos);
+            timeout.rounds = (due - tick) / buckets.length;
+            buckets[(int) (due & mask)].append(timeout);
+        }
+    }
+
+    /**
+     * Runs the timers of a bucket that are due and drops the cancelled ones.
+     */
+    private void expire(@NotNull final Timeout bucket, final long tick) {
+        Timeout timeout = bucket.next;
+        while (timeout != bucket) {
+            final Timeout next = timeout.next;
+            if (timeout.isCancelled()) {
+                timeout.unlink();
+            } else if (timeout.rounds > 0) {
+                --timeout.rounds;
+            } else {
+                timeout.unlink();
+                if (timeout.expire()) {
+                    try {
+                        timeout.task.run();
+                    } catch (final RuntimeException e) {
+                        LOG.error("Timer failed at tick " + tick, e);
+                    }
+                }
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * One scheduled task. Also serves as sentinel of a bucket.
+     */
+    static final class Timeout {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        @Nullable
+        private final TimingWheel wheel;
+
+        /**
+         * Nanoseconds after the start of the wheel when the task is due.
+         */
+        private final long deadline;
+
+        @Nullable
+        private final Runnable task;
+
+        @NotNull
+        private final AtomicInteger state = new AtomicInteger(WAITING);
+
+        /**
+         * Turns of the wheel left before the task is due. Only used by the thread of the wheel.
+         */
+        private long rounds;
+
+        private Timeout previous = this;
+
+        private Timeout next = this;
+
+        private Timeout(@Nullable final TimingWheel wheel, final long deadline, @Nullable final Runnable task) {
+            this.wheel = wheel;
+            this.deadline = deadline;
+            this.task = task;
+        }
+
+        /**
+         * Keeps the task from running. Takes constant time.
+         *
+         * @return False, if it has already run or was cancelled before.
+         */
+        boolean cancel() {
+            if (!state.compareAndSet(WAITING, CANCELLED)) {
+                return false;
+            }
+            wheel.pending.decrementAndGet();
+            return true;
+        }
+
+        /**
+         * @return True, if the task was cancelled.
+         */
+        boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        /**
+         * @return False, if the task was cancelled meanwhile.
+         */
+        private boolean expire() {
+            if (!state.compareAndSet(WAITING, EXPIRED)) {
+                return false;
+            }
+            wheel.pending.decrementAndGet();
+            return true;
+        }
+
+        /**
+         * Adds a timer at the end of the bucket of this sentinel.
+         */
+        private void append(@NotNull final Timeout timeout) {
+            timeout.previous = previous;
+            timeout.next = this;
+            previous.next = timeout;
+            previous = timeout;
+        }
+
+        /**
+         * Removes the timer from its bucket.
+         */
+        private void unlink() {
+            previous.next = next;
+            next.previous = previous;
+            previous = this;
+            next = this;
+        }
+    }
+}
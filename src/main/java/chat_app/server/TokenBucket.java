@@ -0,0 +1,102 @@
+package chat_app.server;
+
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket that refills at a fixed rate and holds the tokens of one second. <br/>
+ * The state is one number, the time at which the bucket would be full again, updated by compare-and-set: taking
+ * tokens needs no lock and allocates nothing, so the bucket of a room can be shared by all its members. A bucket that
+ * is full lets anything through, also more than it holds, and takes what the amount is over in debt.
+ */
+class TokenBucket {
+
+    /**
+     * Nanoseconds to refill one token.
+     */
+    private final long nanosPerToken;
+
+    /**
+     * Nanoseconds to refill the whole bucket.
+     */
+    private final long capacityNanos;
+
+    /**
+     * Nanotime at which the bucket is full again, in the past if it is full.
+     */
+    @NotNull
+    private final AtomicLong fullAt = new AtomicLong(Long.MIN_VALUE / 2);
+
+    /**
+     * Constructor.
+     *
+     * @param perSecond Tokens refilled per second and held at most.
+     */
+    TokenBucket(final int perSecond) {
+        Preconditions.checkArgument(perSecond > 0, "perSecond must be positive.");
+
+        this.nanosPerToken = Math.max(1, TimeUnit.SECONDS.toNanos(1) / perSecond);
+        this.capacityNanos = nanosPerToken * perSecond;
+    }
+
+    /**
+     * @param perSecond Tokens per second, 0 for no limit.
+     * @return Bucket, null if there is no limit.
+     */
+    @Nullable
+    static TokenBucket perSecond(final int perSecond) {
+        return perSecond == 0 ? null : new TokenBucket(perSecond);
+    }
+
+    /**
+     * Takes tokens if the bucket holds enough.
+     *
+     * @param amount Tokens to take.
+     * @param now    Nanotime.
+     * @return True, if the tokens were taken.
+     */
+    boolean tryTake(final long amount, final long now) {
+        while (true) {
+            final long current = fullAt.get();
+            final long base = Math.max(current, now);
+            final long next = base + amount * nanosPerToken;
+            if (current > now && next - now > capacityNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Takes tokens, also those the bucket doesn't hold yet.
+     *
+     * @param amount Tokens to take.
+     * @param now    Nanotime.
+     * @return Nanoseconds until the bucket has refilled the missing tokens, 0 if it held enough.
+     */
+    long take(final long amount, final long now) {
+        while (true) {
+            final long current = fullAt.get();
+            final long base = Math.max(current, now);
+            final long next = base + amount * nanosPerToken;
+            if (fullAt.compareAndSet(current, next)) {
+                return current > now ? Math.max(0, next - now - capacityNanos) : 0;
+            }
+        }
+    }
+
+    /**
+     * Gives back tokens that were taken for a message that didn't pass after all.
+     *
+     * @param amount Tokens to give back.
+     */
+    void giveBack(final long amount) {
+        fullAt.addAndGet(-amount * nanosPerToken);
+    }
+}
@@ -0,0 +1,147 @@
+package chat_app.transfer_object;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a list the server sends in a single message, e.g. the users of a room. <br/>
+ * The payload is JSON; clients of the object stream format get the {@link #render() rendered} text instead.
+ */
+public class ListPage {
+
+    @NotNull
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @NotNull
+    private static final ObjectReader READER = MAPPER.readerFor(ListPage.class);
+
+    @NotNull
+    private static final ObjectWriter WRITER = MAPPER.writerFor(ListPage.class);
+
+    @NotNull
+    private String title;
+
+    private int offset;
+
+    private int total;
+
+    @NotNull
+    private List<String> entries;
+
+    /**
+     * Constructor for JSON.
+     */
+    @SuppressWarnings("unused")
+    public ListPage() {
+        this.title = "";
+        this.entries = new ArrayList<>();
+    }
+
+    /**
+     * Full Constructor.
+     *
+     * @param title   Line in front of the entries. Not null.
+     * @param offset  Position of the first entry in the whole list.
+     * @param total   Number of entries in the whole list.
+     * @param entries Entries of this page. Not null.
+     */
+    public ListPage(@NotNull final String title,
+                    final int offset,
+                    final int total,
+                    @NotNull final List<String> entries) {
+        Preconditions.checkNotNull(title, "title must not be null.");
+        Preconditions.checkNotNull(entries, "entries must not be null.");
+
+        this.title = title;
+        this.offset = offset;
+        this.total = total;
+        this.entries = entries;
+    }
+
+    /**
+     * Maps a payload to a page.
+     *
+     * @param json Payload of a list message. Not null.
+     * @return Not null.
+     */
+    @NotNull
+    public static ListPage fromJson(@NotNull final String json) throws IOException {
+        Preconditions.checkNotNull(json, "json must not be null.");
+
+        return READER.readValue(json);
+    }
+
+    /**
+     * @return Page as payload. Not null.
+     */
+    @NotNull
+    public String toJson() {
+        try {
+            return WRITER.writeValueAsString(this);
+        } catch (final JsonProcessingException e) {
+            throw new IllegalStateException("ListPage can't be mapped to JSON", e);
+        }
+    }
+
+    /**
+     * @return Page as text to display, one numbered entry per line. Not null.
+     */
+    @NotNull
+    public String render() {
+        final StringBuilder text = new StringBuilder(title).append('\n');
+        if (entries.isEmpty()) {
+            text.append("(none)\n");
+        }
+        for (int i = 0; i < entries.size(); ++i) {
+            text.append(offset + i + 1).append(".) ").append(entries.get(i)).append('\n');
+        }
+        final int end = offset + entries.size();
+        if (!entries.isEmpty() && (offset > 0 || end < total)) {
+            text.append("Showing ").append(offset + 1).append('-').append(end).append(" of ").append(total);
+            if (end < total) {
+                text.append(", next page with offset=").append(end);
+            }
+            text.append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return title.
+     */
+    @NotNull
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * @return Position of the first entry in the whole list.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return Number of entries in the whole list.
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return Entries of this page. Not null.
+     */
+    @NotNull
+    public List<String> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+}
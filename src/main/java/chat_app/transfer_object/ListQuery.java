@@ -0,0 +1,129 @@
+package chat_app.transfer_object;
+
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Locale;
+
+/**
+ * Page of a list the client asks for with {@link MessageType#WHO_IS_IN} or {@link MessageType#AVAILABLE_ROOMS}. <br/>
+ * The payload holds optional settings separated by spaces: {@code offset=50 limit=50 prefix=al}. An empty payload
+ * asks for the first page.
+ */
+public class ListQuery {
+
+    /**
+     * Entries per page if the client doesn't say.
+     */
+    public static final int DEFAULT_LIMIT = 100;
+
+    /**
+     * Most entries the server sends in one page.
+     */
+    public static final int MAX_LIMIT = 1000;
+
+    private final int offset;
+
+    private final int limit;
+
+    @NotNull
+    private final String prefix;
+
+    /**
+     * Constructor.
+     *
+     * @param offset Number of entries to skip, not negative.
+     * @param limit  Number of entries to send at most, between 1 and {@link #MAX_LIMIT}.
+     * @param prefix Start of the names to list, case is ignored. Empty for all. Not null.
+     */
+    public ListQuery(final int offset, final int limit, @NotNull final String prefix) {
+        Preconditions.checkArgument(offset >= 0, "offset must not be negative.");
+        Preconditions.checkArgument(limit > 0 && limit <= MAX_LIMIT, "limit must be between 1 and %s.", MAX_LIMIT);
+        Preconditions.checkNotNull(prefix, "prefix must not be null.");
+
+        this.offset = offset;
+        this.limit = limit;
+        this.prefix = prefix;
+    }
+
+    /**
+     * Reads the query from the payload of a request.
+     *
+     * @param payload Settings separated by spaces, may be empty. Not null.
+     * @return Not null.
+     * @throws IllegalArgumentException If a setting is unknown or invalid.
+     */
+    @NotNull
+    public static ListQuery parse(@NotNull final String payload) {
+        Preconditions.checkNotNull(payload, "payload must not be null.");
+
+        int offset = 0;
+        int limit = DEFAULT_LIMIT;
+        String prefix = "";
+        for (final String setting : payload.trim().split("\\s+")) {
+            if (setting.isEmpty()) {
+                continue;
+            }
+            final int separator = setting.indexOf('=');
+            Preconditions.checkArgument(separator > 0, "expected name=value instead of %s", setting);
+            final String name = setting.substring(0, separator).toLowerCase(Locale.ROOT);
+            final String value = setting.substring(separator + 1);
+            switch (name) {
+                case "offset":
+                    offset = number(name, value);
+                    break;
+                case "limit":
+                    limit = number(name, value);
+                    break;
+                case "prefix":
+                    prefix = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("unknown setting " + name);
+            }
+        }
+        return new ListQuery(offset, limit, prefix);
+    }
+
+    /**
+     * @return True, if the name starts with the prefix, ignoring case.
+     */
+    public boolean matches(@NotNull final String name) {
+        Preconditions.checkNotNull(name, "name must not be null.");
+
+        return name.regionMatches(true, 0, prefix, 0, prefix.length());
+    }
+
+    /**
+     * @return Number of entries to skip.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return Number of entries to send at most.
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return Start of the names to list, empty for all. Not null.
+     */
+    @NotNull
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * @return Number setting.
+     */
+    private static int number(@NotNull final String name, @NotNull final String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (final NumberFormatException e) {
+            throw new IllegalArgumentException(name + " is not a number: " + value, e);
+        }
+    }
+}
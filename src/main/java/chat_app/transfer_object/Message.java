@@ -1,5 +1,6 @@
 package chat_app.transfer_object;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.google.common.base.Preconditions;
 import org.jetbrains.annotations.NotNull;
 
@@ -15,6 +16,18 @@ public class Message {
     @NotNull
     private String payload;
 
+    /**
+     * Milliseconds since the epoch when the server sent the message, 0 if unknown. Not part of the JSON, so clients
+     * of the object stream format still read it.
+     */
+    private long timestamp;
+
+    /**
+     * Number of the message in its room, counted by the server from 1, 0 for messages outside of the order of a
+     * room. Not part of the JSON either.
+     */
+    private long sequence;
+
     /**
      * Constructor for JSON.
      */
@@ -51,11 +64,39 @@ public class Message {
      * @param payload Not null.
      */
     public Message(@NotNull final MessageType type, @NotNull final String payload) {
+        this(type, payload, 0);
+    }
+
+    /**
+     * Full Constructor with timestamp.
+     *
+     * @param type      Not null.
+     * @param payload   Not null.
+     * @param timestamp Milliseconds since the epoch, 0 if unknown.
+     */
+    public Message(@NotNull final MessageType type, @NotNull final String payload, final long timestamp) {
+        this(type, payload, timestamp, 0);
+    }
+
+    /**
+     * Full Constructor with timestamp and sequence number.
+     *
+     * @param type      Not null.
+     * @param payload   Not null.
+     * @param timestamp Milliseconds since the epoch, 0 if unknown.
+     * @param sequence  Number of the message in its room, 0 if none.
+     */
+    public Message(@NotNull final MessageType type,
+                   @NotNull final String payload,
+                   final long timestamp,
+                   final long sequence) {
         Preconditions.checkNotNull(type, "type must not be null.");
         Preconditions.checkNotNull(payload, "payload must not be null.");
 
         this.type = type;
         this.payload = payload;
+        this.timestamp = timestamp;
+        this.sequence = sequence;
     }
 
     /**
@@ -74,4 +115,20 @@ public class Message {
         return payload;
     }
 
+    /**
+     * @return Milliseconds since the epoch when the server sent the message, 0 if unknown.
+     */
+    @JsonIgnore
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return Number of the message in its room, 0 if none.
+     */
+    @JsonIgnore
+    public long getSequence() {
+        return sequence;
+    }
+
 }
@@ -1,8 +1,13 @@
 package chat_app.transfer_object;
 
 /**
- * Type for {@link Message}
+ * Type for {@link Message}. <br/>
+ * The ordinal goes on the wire, so new types are appended. STATS asks the server for its metrics, the payload is the admin secret. <br/>
+ * SESSION tells a client the {@link SessionTicket ticket} to resume its session with, RESUME is sent instead of the
+ * username by a client that reconnects. PING asks the peer for a PONG, so silent but dead connections are noticed. <br/>
+ * DIRECT goes to one user only: from the client the payload is the username, a space and the text, from the server
+ * it is the formatted text.
  */
 public enum MessageType {
-    WHO_IS_IN, MESSAGE, LOGOUT, CREATE_ROOM, SWITCH_ROOM, AVAILABLE_ROOMS, HELP;
+    WHO_IS_IN, MESSAGE, LOGOUT, CREATE_ROOM, SWITCH_ROOM, AVAILABLE_ROOMS, HELP, STATS, SESSION, RESUME, PING, PONG, DIRECT;
 }
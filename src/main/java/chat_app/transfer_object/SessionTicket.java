@@ -0,0 +1,128 @@
+package chat_app.transfer_object;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Resume token of a session together with the room and the last sequence number. <br/>
+ * The server sends one in a {@link MessageType#SESSION} message whenever the client enters a room, with the sequence
+ * number of the last message of the room. A client that lost the connection sends it back in a
+ * {@link MessageType#RESUME} message, with its username and the sequence number of the last message it got, and
+ * receives only the messages after it.
+ */
+public class SessionTicket {
+
+    @NotNull
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @NotNull
+    private static final ObjectReader READER = MAPPER.readerFor(SessionTicket.class);
+
+    @NotNull
+    private static final ObjectWriter WRITER = MAPPER.writerFor(SessionTicket.class);
+
+    @NotNull
+    private String token;
+
+    @NotNull
+    private String username;
+
+    @NotNull
+    private String room;
+
+    private long sequence;
+
+    /**
+     * Constructor for JSON.
+     */
+    @SuppressWarnings("unused")
+    public SessionTicket() {
+        this.token = "";
+        this.username = "";
+        this.room = "";
+    }
+
+    /**
+     * Full Constructor.
+     *
+     * @param token    Resume token issued by the server. Not null.
+     * @param username Username of the client, empty in tickets of the server. Not null.
+     * @param room     Name of the room, empty in tickets of the client. Not null.
+     * @param sequence Sequence number of the last message of the room.
+     */
+    public SessionTicket(@NotNull final String token,
+                         @NotNull final String username,
+                         @NotNull final String room,
+                         final long sequence) {
+        Preconditions.checkNotNull(token, "token must not be null.");
+        Preconditions.checkNotNull(username, "username must not be null.");
+        Preconditions.checkNotNull(room, "room must not be null.");
+
+        this.token = token;
+        this.username = username;
+        this.room = room;
+        this.sequence = sequence;
+    }
+
+    /**
+     * Maps a payload to a ticket.
+     *
+     * @param json Payload of a session or resume message. Not null.
+     * @return Not null.
+     */
+    @NotNull
+    public static SessionTicket fromJson(@NotNull final String json) throws IOException {
+        Preconditions.checkNotNull(json, "json must not be null.");
+
+        return READER.readValue(json);
+    }
+
+    /**
+     * @return Ticket as payload. Not null.
+     */
+    @NotNull
+    public String toJson() {
+        try {
+            return WRITER.writeValueAsString(this);
+        } catch (final JsonProcessingException e) {
+            throw new IllegalStateException("SessionTicket can't be mapped to JSON", e);
+        }
+    }
+
+    /**
+     * @return Resume token. Not null.
+     */
+    @NotNull
+    public String getToken() {
+        return token;
+    }
+
+    /**
+     * @return username. Not null.
+     */
+    @NotNull
+    public String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return Name of the room. Not null.
+     */
+    @NotNull
+    public String getRoom() {
+        return room;
+    }
+
+    /**
+     * @return Sequence number of the last message of the room.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+}
@@ -2,99 +2,205 @@ package chat_app.utility;
 
 import chat_app.transfer_object.Message;
 import com.google.common.base.Preconditions;
+import com.google.common.io.CountingInputStream;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
 import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
- * Holds all useful stuff for connection.
+ * Holds all useful stuff for connection. <br/>
+ * Messages are written with a {@link WireCodec}: clients use {@link FramedCodec frames}, servers answer in
+ * whatever the client has offered, so clients with {@link ObjectStreamCodec object streams} still work. Clients may
+ * offer compression, which the server may decline. <br/>
+ * Outgoing bytes are buffered. {@link #send(Message)} flushes right away; a writer can collect several frames with
+ * {@link #writeFrame(byte[])} and hand them to the socket at once with {@link #flush()}.
  */
-public class Connection {
+public class Connection implements ReceivingTransport {
 
     private Socket socket;
-    private ObjectOutputStream outputStream;
-    private ObjectInputStream inputStream;
+    private OutputStream outputStream;
+    private DataInputStream inputStream;
+    private CountingInputStream countingStream;
+    private WireCodec codec;
+
+    /**
+     * Serializes writes from different threads.
+     */
+    private final ReentrantLock writeLock = new ReentrantLock();
 
     private String serverAddress;
     private Integer port;
 
+    /**
+     * Size of the write buffer.
+     */
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
     private Connection(Socket socket) throws IOException {
         this.socket = socket;
-        this.outputStream = new ObjectOutputStream(socket.getOutputStream()); // Must be declared before Input
-        this.inputStream = new ObjectInputStream(socket.getInputStream());
+        this.outputStream = new BufferedOutputStream(socket.getOutputStream(), WRITE_BUFFER_SIZE);
+        this.countingStream = new CountingInputStream(socket.getInputStream());
+        this.inputStream = new DataInputStream(new BufferedInputStream(countingStream));
 
         this.serverAddress = socket.getInetAddress().toString();
         this.port = socket.getPort();
     }
 
     /**
-     * Creates new instance.
+     * Creates new instance for a socket accepted by the server, which declines compression. Blocks until the client
+     * has sent its preamble.
+     */
+    public static Connection to(@NotNull final Socket socket) throws IOException {
+        return to(socket, null);
+    }
+
+    /**
+     * Creates new instance for a socket accepted by the server. Blocks until the client has sent its preamble.
+     *
+     * @param compressed Codec for clients that offer compression, null to answer them without.
      */
-    public synchronized static Connection to(@NotNull final Socket socket) throws IOException {
+    public static Connection to(@NotNull final Socket socket,
+                                @Nullable final FramedCodec compressed) throws IOException {
         Preconditions.checkNotNull(socket, "socket must not be null.");
 
-        return new Connection(socket);
+        final Connection connection = new Connection(socket);
+        try {
+            // the client offers first, answer with the same codec or without compression
+            final WireCodec offered = WireCodec.detect(connection.peek());
+            offered.readPreamble(connection.inputStream);
+            connection.writePreamble(WireCodec.answer(offered, compressed));
+        } catch (final IOException e) {
+            connection.kill();
+            throw e;
+        }
+        return connection;
+    }
+
+    /**
+     * Creates new instance without compression. Blocks until the server has answered the preamble.
+     */
+    public static Connection to(@NotNull final String serverAddress,
+                                @NotNull final Integer port) throws IOException {
+        return to(serverAddress, port, null);
     }
 
     /**
-     * Creates new instance.
+     * Creates new instance. Blocks until the server has answered the preamble.
+     *
+     * @param compressed Codec to offer compression with, null to offer none.
      */
-    public synchronized static Connection to(@NotNull final String serverAddress,
-                                             @NotNull final Integer port) throws IOException {
+    public static Connection to(@NotNull final String serverAddress,
+                                @NotNull final Integer port,
+                                @Nullable final FramedCodec compressed) throws IOException {
         Preconditions.checkNotNull(serverAddress, "serverAddress must not be null.");
         Preconditions.checkNotNull(port, "port must not be null.");
 
-        return to(new Socket(serverAddress, port));
+        final Connection connection = new Connection(new Socket(serverAddress, port));
+        try {
+            connection.socket.setTcpNoDelay(true);
+            connection.writePreamble(compressed == null ? FramedCodec.INSTANCE : compressed);
+            // the server answers with the offer or, declining compression, with plain frames
+            final WireCodec answer = WireCodec.detect(connection.peek());
+            answer.readPreamble(connection.inputStream);
+            if (answer == FramedCodec.INSTANCE) {
+                connection.codec = FramedCodec.INSTANCE;
+            } else if (answer != FramedCodec.COMPRESSED || compressed == null) {
+                throw new StreamCorruptedException("unexpected answer: " + answer.name());
+            }
+        } catch (final IOException e) {
+            connection.kill();
+            throw e;
+        }
+        return connection;
     }
 
     /**
      * Receives {@link Message} from socket.
      */
     @NotNull
-    public Message receive() throws IOException, ClassNotFoundException {
-        return JSON.valueOf((String) inputStream.readObject()).to(Message.class);
+    @Override
+    public Message receive() throws IOException {
+        return codec.read(inputStream);
+    }
+
+    /**
+     * Receives {@link Message} from socket, a larger one is turned away before it arrives.
+     *
+     * @param maxLength Most bytes the message may take after its length.
+     */
+    @NotNull
+    public Message receive(final int maxLength) throws IOException {
+        return codec.read(inputStream, maxLength);
     }
 
     /**
      * Sends {@link Message}.
      */
+    @Override
     public void send(@NotNull final Message message) throws IOException {
-        outputStream.writeObject(JSON.format(message));
+        write(codec.encode(message));
     }
 
     /**
-     * Wraps string to default {@link Message} and sends it.
+     * Sends {@link EncodedMessage}, encoded at most once per codec.
      */
-    public void send(@NotNull final String message) throws IOException {
-        send(new Message(message));
+    @Override
+    public void send(@NotNull final EncodedMessage message) throws IOException {
+        write(message.encode(codec));
     }
 
     /**
-     * @return True, if still connected.
+     * Buffers a message that was already encoded with {@link #getCodec()}. It is sent when the buffer is full or
+     * on {@link #flush()}.
+     *
+     * @param frame Not null.
      */
-    public boolean isActive() {
-        return !socket.isClosed();
+    public void writeFrame(@NotNull final byte[] frame) throws IOException {
+        Preconditions.checkNotNull(frame, "frame must not be null.");
+
+        writeLock.lock();
+        try {
+            outputStream.write(frame);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Sends the buffered bytes.
+     */
+    public void flush() throws IOException {
+        writeLock.lock();
+        try {
+            outputStream.flush();
+        } finally {
+            writeLock.unlock();
+        }
     }
 
     /**
-     * @return True, if connection is closed.
+     * @return True, if still connected.
      */
-    public boolean isInactive() {
-        return !isActive();
+    @Override
+    public boolean isActive() {
+        return !socket.isClosed();
     }
 
     /**
-     * Closes the connection.
+     * Closes the connection. Buffered bytes are discarded, closing the socket closes its streams.
      */
+    @Override
     public void kill() {
         try {
-            if (outputStream != null)
-                outputStream.close();
-            if (inputStream != null)
-                inputStream.close();
             if (socket != null)
                 socket.close();
         } catch (Exception ignored) {
@@ -102,6 +208,22 @@ public class Connection {
         }
     }
 
+    /**
+     * Limits how long {@link #receive()} waits for the peer.
+     *
+     * @param millis Milliseconds, 0 to wait for ever.
+     */
+    public void setReadTimeout(final int millis) throws SocketException {
+        socket.setSoTimeout(millis);
+    }
+
+    /**
+     * @return Bytes read from the socket so far, including those still buffered.
+     */
+    public long getBytesRead() {
+        return countingStream.getCount();
+    }
+
     public String getServerAddress() {
         return serverAddress;
     }
@@ -109,4 +231,42 @@ public class Connection {
     public Integer getPort() {
         return port;
     }
+
+    /**
+     * @return Codec negotiated with the peer.
+     */
+    public WireCodec getCodec() {
+        return codec;
+    }
+
+    /**
+     * Uses the codec from now on and sends its preamble.
+     */
+    private void writePreamble(@NotNull final WireCodec codec) throws IOException {
+        this.codec = codec;
+        write(codec.preamble());
+    }
+
+    /**
+     * @return Next byte from the peer without consuming it.
+     */
+    private byte peek() throws IOException {
+        inputStream.mark(1);
+        final byte next = inputStream.readByte();
+        inputStream.reset();
+        return next;
+    }
+
+    /**
+     * Writes the bytes in one piece.
+     */
+    private void write(@NotNull final byte[] bytes) throws IOException {
+        writeLock.lock();
+        try {
+            outputStream.write(bytes);
+            outputStream.flush();
+        } finally {
+            writeLock.unlock();
+        }
+    }
 }
@@ -0,0 +1,132 @@
+package chat_app.utility;
+
+import chat_app.transfer_object.Message;
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * {@link Message} that remembers its bytes per {@link WireCodec}. When the same message goes to many peers, it is
+ * encoded once per codec and all peers share the same bytes, which must not be modified. The first caller of a codec
+ * encodes, later callers of the same codec wait for its bytes, so expensive encodings such as compression run once.
+ */
+public final class EncodedMessage {
+
+    /**
+     * Holds the message.
+     */
+    @NotNull
+    private final Message message;
+
+    /**
+     * Encodings made so far. Replaced, never modified, so readers need no lock.
+     */
+    @NotNull
+    private volatile Encoding[] encodings = new Encoding[0];
+
+    /**
+     * Serializes the encodings that aren't made yet.
+     */
+    @NotNull
+    private final ReentrantLock encodeLock = new ReentrantLock();
+
+    /**
+     * Constructor.
+     *
+     * @param message Not null.
+     */
+    public EncodedMessage(@NotNull final Message message) {
+        Preconditions.checkNotNull(message, "message must not be null.");
+
+        this.message = message;
+    }
+
+    /**
+     * Constructor for a message whose bytes in one codec are known, e.g. because it was decoded from them.
+     *
+     * @param message Not null.
+     * @param codec   Codec that made the bytes. Not null.
+     * @param bytes   Shared bytes, must not be modified. Not null.
+     */
+    public EncodedMessage(@NotNull final Message message, @NotNull final WireCodec codec, @NotNull final byte[] bytes) {
+        this(message);
+        Preconditions.checkNotNull(codec, "codec must not be null.");
+        Preconditions.checkNotNull(bytes, "bytes must not be null.");
+
+        this.encodings = new Encoding[]{new Encoding(codec, bytes)};
+    }
+
+    /**
+     * @return message. Not null.
+     */
+    @NotNull
+    public Message getMessage() {
+        return message;
+    }
+
+    /**
+     * Encodes the message or returns the bytes of an earlier call with the same codec.
+     *
+     * @param codec Not null.
+     * @return Shared bytes, must not be modified. Not null.
+     */
+    @NotNull
+    public byte[] encode(@NotNull final WireCodec codec) throws IOException {
+        Preconditions.checkNotNull(codec, "codec must not be null.");
+
+        final byte[] cached = find(encodings, codec);
+        if (cached != null) {
+            return cached;
+        }
+
+        encodeLock.lock();
+        try {
+            final Encoding[] current = encodings;
+            final byte[] encodedMeanwhile = find(current, codec);
+            if (encodedMeanwhile != null) {
+                return encodedMeanwhile;
+            }
+            final byte[] bytes = codec.encode(message);
+            final Encoding[] extended = Arrays.copyOf(current, current.length + 1);
+            extended[current.length] = new Encoding(codec, bytes);
+            encodings = extended;
+            return bytes;
+        } finally {
+            encodeLock.unlock();
+        }
+    }
+
+    /**
+     * @return Bytes for the codec, null if it has none yet.
+     */
+    @Nullable
+    private static byte[] find(@NotNull final Encoding[] encodings, @NotNull final WireCodec codec) {
+        for (final Encoding encoding : encodings) {
+            if (encoding.codec == codec) {
+                return encoding.bytes;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Bytes of the message in one codec.
+     */
+    private static final class Encoding {
+
+        @NotNull
+        private final WireCodec codec;
+
+        @NotNull
+        private final byte[] bytes;
+
+        private Encoding(@NotNull final WireCodec codec, @NotNull final byte[] bytes) {
+            this.codec = codec;
+            this.bytes = bytes;
+        }
+    }
+}
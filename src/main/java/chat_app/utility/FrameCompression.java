@@ -0,0 +1,268 @@
+package chat_app.utility;
+
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflates the payloads of {@link FramedCodec frames} from a size on and counts what it saves and costs. <br/>
+ * Each payload is compressed on its own, so the bytes can be shared by all peers, with a preset dictionary of the
+ * phrases that recur in lists and room messages. Deflaters and inflaters are pooled, they hold native memory.
+ */
+public final class FrameCompression {
+
+    /**
+     * Payload size from which frames are compressed by default.
+     */
+    public static final int DEFAULT_THRESHOLD = 512;
+
+    /**
+     * Idle deflaters and inflaters kept for reuse.
+     */
+    private static final int MAX_IDLE = 8;
+
+    /**
+     * Most bytes deflate restores from one compressed byte, a payload claiming more is corrupt.
+     */
+    private static final int MAX_RATIO = 1032;
+
+    /**
+     * Buffer to inflate into at first, it grows with the bytes that really come out.
+     */
+    private static final int INITIAL_BUFFER = 4096;
+
+    /**
+     * Phrases the peers share, the most frequent last.
+     */
+    @NotNull
+    private static final byte[] DICTIONARY = ("Mon Tue Wed Thu Fri Sat Sun Jan Feb Mar Apr May Jun Jul Aug Sep Oct "
+            + "Nov Dec UTC 20 has entered.\n Welcome in Room List of all chat-rooms: Waiting-Hall "
+            + "{\"title\":\"List of the users connected at \",\"offset\":0,\"total\":,\"entries\":[\""
+            + "\",\"\" since \" since ").getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * Smallest payload that is compressed.
+     */
+    private final int threshold;
+
+    @NotNull
+    private final Queue<Deflater> deflaters = new ConcurrentLinkedQueue<>();
+
+    @NotNull
+    private final Queue<Inflater> inflaters = new ConcurrentLinkedQueue<>();
+
+    @NotNull
+    private final LongAdder compressed = new LongAdder();
+
+    /**
+     * Payload bytes of the compressed frames before compression.
+     */
+    @NotNull
+    private final LongAdder bytesBefore = new LongAdder();
+
+    /**
+     * Payload bytes of the compressed frames after compression.
+     */
+    @NotNull
+    private final LongAdder bytesAfter = new LongAdder();
+
+    /**
+     * Payloads above the threshold that didn't get smaller.
+     */
+    @NotNull
+    private final LongAdder incompressible = new LongAdder();
+
+    @NotNull
+    private final LatencyHistogram compressTime = new LatencyHistogram();
+
+    @NotNull
+    private final LatencyHistogram inflateTime = new LatencyHistogram();
+
+    /**
+     * Constructor.
+     *
+     * @param threshold Smallest payload in bytes that is compressed.
+     */
+    public FrameCompression(final int threshold) {
+        Preconditions.checkArgument(threshold > 0, "threshold must be positive.");
+
+        this.threshold = threshold;
+    }
+
+    /**
+     * Compresses a payload, if it reaches the threshold and gets smaller.
+     *
+     * @param payload Not null.
+     * @param limit   Size the compressed bytes must stay below.
+     * @return Compressed bytes, null if the payload is sent as it is.
+     */
+    @Nullable
+    byte[] compress(@NotNull final byte[] payload, final int limit) {
+        if (payload.length < threshold || limit <= 0) {
+            return null;
+        }
+        final long start = System.nanoTime();
+        Deflater deflater = deflaters.poll();
+        if (deflater == null) {
+            deflater = new Deflater();
+        }
+        final byte[] buffer = new byte[limit];
+        int length = 0;
+        try {
+            deflater.setDictionary(DICTIONARY);
+            deflater.setInput(payload);
+            deflater.finish();
+            while (!deflater.finished() && length < buffer.length) {
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            if (!deflater.finished()) {
+                incompressible.increment();
+                return null;
+            }
+        } finally {
+            deflater.reset();
+            release(deflater);
+        }
+        compressTime.record(System.nanoTime() - start);
+        compressed.increment();
+        bytesBefore.add(payload.length);
+        bytesAfter.add(length);
+        final byte[] result = new byte[length];
+        System.arraycopy(buffer, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * Restores a compressed payload. The size is sent by the peer, so the buffer only grows with the bytes that are
+     * really inflated.
+     *
+     * @param data   Holds the compressed bytes. Not null.
+     * @param offset Start of the compressed bytes.
+     * @param length Number of compressed bytes.
+     * @param size   Size of the payload.
+     * @return Payload. Not null.
+     * @throws StreamCorruptedException If the bytes don't inflate to the size.
+     */
+    @NotNull
+    byte[] inflate(@NotNull final byte[] data, final int offset, final int length, final int size)
+            throws StreamCorruptedException {
+        if (size < 0 || size > (long) length * MAX_RATIO) {
+            throw new StreamCorruptedException(length + " compressed bytes can't inflate to " + size + " bytes");
+        }
+        final long start = System.nanoTime();
+        Inflater inflater = inflaters.poll();
+        if (inflater == null) {
+            inflater = new Inflater();
+        }
+        byte[] payload = new byte[Math.min(size, INITIAL_BUFFER)];
+        try {
+            inflater.setInput(data, offset, length);
+            int inflated = 0;
+            while (!inflater.finished() && inflated < size) {
+                if (inflated == payload.length) {
+                    payload = Arrays.copyOf(payload, (int) Math.min(size, 2L * payload.length));
+                }
+                final int count = inflater.inflate(payload, inflated, payload.length - inflated);
+                if (count == 0 && inflater.needsDictionary()) {
+                    inflater.setDictionary(DICTIONARY);
+                } else if (count == 0) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (!inflater.finished() || inflated != size) {
+                throw new StreamCorruptedException("compressed payload doesn't inflate to " + size + " bytes");
+            }
+        } catch (final DataFormatException | IllegalArgumentException e) {
+            throw new StreamCorruptedException("invalid compressed payload: " + e.getMessage());
+        } finally {
+            inflater.reset();
+            release(inflater);
+        }
+        inflateTime.record(System.nanoTime() - start);
+        return payload;
+    }
+
+    /**
+     * @return Smallest payload in bytes that is compressed.
+     */
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * @return Number of compressed payloads.
+     */
+    public long getCompressed() {
+        return compressed.sum();
+    }
+
+    /**
+     * @return Bytes that the compressed payloads had before.
+     */
+    public long getBytesBefore() {
+        return bytesBefore.sum();
+    }
+
+    /**
+     * @return Bytes that the compressed payloads have after.
+     */
+    public long getBytesAfter() {
+        return bytesAfter.sum();
+    }
+
+    /**
+     * @return Number of payloads above the threshold that didn't get smaller and were sent as they are.
+     */
+    public long getIncompressible() {
+        return incompressible.sum();
+    }
+
+    /**
+     * @return Time to compress a payload. Not null.
+     */
+    @NotNull
+    public LatencyHistogram getCompressTime() {
+        return compressTime;
+    }
+
+    /**
+     * @return Time to inflate a payload. Not null.
+     */
+    @NotNull
+    public LatencyHistogram getInflateTime() {
+        return inflateTime;
+    }
+
+    /**
+     * Keeps a deflater for reuse or frees it.
+     */
+    private void release(@NotNull final Deflater deflater) {
+        if (deflaters.size() < MAX_IDLE) {
+            deflaters.offer(deflater);
+        } else {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Keeps an inflater for reuse or frees it.
+     */
+    private void release(@NotNull final Inflater inflater) {
+        if (inflaters.size() < MAX_IDLE) {
+            inflaters.offer(inflater);
+        } else {
+            inflater.end();
+        }
+    }
+}
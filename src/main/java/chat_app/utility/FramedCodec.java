@@ -0,0 +1,323 @@
+package chat_app.utility;
+
+import chat_app.transfer_object.Message;
+import chat_app.transfer_object.MessageType;
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Length-prefixed binary frames: <br/>
+ * {@code int length | byte type | long timestamp | UTF-8 payload}, where the length counts everything after itself
+ * and the timestamp is in milliseconds since the epoch. <br/>
+ * The type is the ordinal of the {@link MessageType}, so new types must be appended. <br/>
+ * Peers that offer compression with the {@link #COMPRESSED} preamble may get frames whose payload is deflated by
+ * {@link FrameCompression}. Such frames set the high bit of the type and carry the size of the payload: <br/>
+ * {@code int length | byte type + 0x80 | long timestamp | int payload size | deflated payload} <br/>
+ * Messages of a room carry their sequence number, marked by the next bit of the type: <br/>
+ * {@code int length | byte type + 0x40 | long timestamp | long sequence | ...} <br/>
+ * Version 3 of the protocol added the sequence numbers, peers of version 2 are turned away by the preamble.
+ */
+public final class FramedCodec implements WireCodec {
+
+    /**
+     * Largest frame a peer may send.
+     */
+    public static final int MAX_FRAME_LENGTH = 16 * 1024 * 1024;
+
+    /**
+     * Largest first frame, with the username or the ticket of a session, a peer may send before it has logged in.
+     */
+    public static final int MAX_HANDSHAKE_LENGTH = 8 * 1024;
+
+    /**
+     * Bytes read into a payload before it grows, so a peer that announces a large frame and stalls only costs what
+     * it has sent.
+     */
+    private static final int READ_CHUNK = 64 * 1024;
+
+    /**
+     * Magic "CHAT" followed by the protocol version.
+     */
+    @NotNull
+    private static final byte[] PREAMBLE = {'C', 'H', 'A', 'T', 3};
+
+    /**
+     * Magic "ZCHAT" followed by the protocol version, offers compression.
+     */
+    @NotNull
+    private static final byte[] COMPRESSED_PREAMBLE = {'Z', 'C', 'H', 'A', 'T', 3};
+
+    /**
+     * Size of the length prefix.
+     */
+    private static final int LENGTH_SIZE = 4;
+
+    /**
+     * Size of type and timestamp.
+     */
+    private static final int HEADER_SIZE = 1 + 8;
+
+    /**
+     * Size of the payload size in compressed frames.
+     */
+    private static final int SIZE_SIZE = 4;
+
+    /**
+     * Size of the sequence number in frames that carry one.
+     */
+    private static final int SEQUENCE_SIZE = 8;
+
+    /**
+     * Bit of the type that marks a compressed payload.
+     */
+    private static final int COMPRESSED_BIT = 0x80;
+
+    /**
+     * Bit of the type that marks a sequence number.
+     */
+    private static final int SEQUENCED_BIT = 0x40;
+
+    @NotNull
+    private static final MessageType[] TYPES = MessageType.values();
+
+    /**
+     * Shared instance for plain frames, the codec has no state.
+     */
+    @NotNull
+    public static final FramedCodec INSTANCE = new FramedCodec(PREAMBLE, null);
+
+    /**
+     * Codec that offers compression, with the default threshold.
+     */
+    @NotNull
+    public static final FramedCodec COMPRESSED =
+            new FramedCodec(COMPRESSED_PREAMBLE, new FrameCompression(FrameCompression.DEFAULT_THRESHOLD));
+
+    /**
+     * Holds the preamble.
+     */
+    @NotNull
+    private final byte[] preamble;
+
+    /**
+     * Holds the compression, null if the codec sends and accepts plain frames only.
+     */
+    @Nullable
+    private final FrameCompression compression;
+
+    private FramedCodec(@NotNull final byte[] preamble, @Nullable final FrameCompression compression) {
+        this.preamble = preamble;
+        this.compression = compression;
+    }
+
+    /**
+     * Creates a codec that compresses. Peers that share the codec also share the compressed bytes of a message.
+     *
+     * @param compression Not null.
+     * @return Codec with the {@link #COMPRESSED} preamble. Not null.
+     */
+    @NotNull
+    public static FramedCodec compressed(@NotNull final FrameCompression compression) {
+        Preconditions.checkNotNull(compression, "compression must not be null.");
+
+        return new FramedCodec(COMPRESSED_PREAMBLE, compression);
+    }
+
+    /**
+     * @return Compression, null if the codec sends plain frames only.
+     */
+    @Nullable
+    public FrameCompression getCompression() {
+        return compression;
+    }
+
+    @NotNull
+    @Override
+    public byte[] preamble() {
+        return preamble.clone();
+    }
+
+    @NotNull
+    @Override
+    public String name() {
+        return compression == null ? "FramedCodec" : "FramedCodec+deflate";
+    }
+
+    @NotNull
+    @Override
+    public byte[] encode(@NotNull final Message message) {
+        Preconditions.checkNotNull(message, "message must not be null.");
+
+        final byte[] payload = message.getPayload().getBytes(StandardCharsets.UTF_8);
+        final byte[] compressed = compression == null ? null : compression.compress(payload, payload.length - SIZE_SIZE);
+        final int header = message.getSequence() == 0 ? HEADER_SIZE : HEADER_SIZE + SEQUENCE_SIZE;
+        final int code = message.getType().ordinal() | (message.getSequence() == 0 ? 0 : SEQUENCED_BIT);
+        if (compressed != null) {
+            final ByteBuffer frame = ByteBuffer.allocate(LENGTH_SIZE + header + SIZE_SIZE + compressed.length);
+            frame.putInt(header + SIZE_SIZE + compressed.length);
+            putHeader(frame, code | COMPRESSED_BIT, message);
+            frame.putInt(payload.length);
+            frame.put(compressed);
+            return frame.array();
+        }
+        final ByteBuffer frame = ByteBuffer.allocate(LENGTH_SIZE + header + payload.length);
+        frame.putInt(header + payload.length);
+        putHeader(frame, code, message);
+        frame.put(payload);
+        return frame.array();
+    }
+
+    @Nullable
+    @Override
+    public Message decode(@NotNull final ByteBuffer buffer, final int maxLength) throws IOException {
+        Preconditions.checkNotNull(buffer, "buffer must not be null.");
+
+        if (buffer.remaining() < LENGTH_SIZE) {
+            return null;
+        }
+        final int start = buffer.position();
+        final int length = checkLength(buffer.getInt(start), maxLength);
+        if (buffer.remaining() < LENGTH_SIZE + length) {
+            return null;
+        }
+
+        buffer.position(start + LENGTH_SIZE);
+        final byte code = buffer.get();
+        final MessageType type = type(code);
+        final long timestamp = buffer.getLong();
+        final int header = headerSize(code, length);
+        final long sequence = header == HEADER_SIZE ? 0 : buffer.getLong();
+        final String payload;
+        if (isCompressed(code)) {
+            final int size = checkSize(length, header, buffer.getInt());
+            final byte[] bytes = new byte[length - header - SIZE_SIZE];
+            buffer.get(bytes);
+            payload = new String(compression.inflate(bytes, 0, bytes.length, size), StandardCharsets.UTF_8);
+        } else if (buffer.hasArray()) {
+            payload = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length - header,
+                    StandardCharsets.UTF_8);
+            buffer.position(start + LENGTH_SIZE + length);
+        } else {
+            final byte[] bytes = new byte[length - header];
+            buffer.get(bytes);
+            payload = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return new Message(type, payload, timestamp, sequence);
+    }
+
+    @NotNull
+    @Override
+    public Message read(@NotNull final DataInputStream in, final int maxLength) throws IOException {
+        Preconditions.checkNotNull(in, "in must not be null.");
+
+        final int length = checkLength(in.readInt(), maxLength);
+        final byte code = in.readByte();
+        final MessageType type = type(code);
+        final long timestamp = in.readLong();
+        final int header = headerSize(code, length);
+        final long sequence = header == HEADER_SIZE ? 0 : in.readLong();
+        if (isCompressed(code)) {
+            final int size = checkSize(length, header, in.readInt());
+            final byte[] bytes = readBytes(in, length - header - SIZE_SIZE);
+            return new Message(type, new String(compression.inflate(bytes, 0, bytes.length, size),
+                    StandardCharsets.UTF_8), timestamp, sequence);
+        }
+        final byte[] payload = readBytes(in, length - header);
+        return new Message(type, new String(payload, StandardCharsets.UTF_8), timestamp, sequence);
+    }
+
+    /**
+     * @return Length, if the frame can hold at least type and timestamp and isn't larger than the limit.
+     */
+    private static int checkLength(final int length, final int maxLength) throws StreamCorruptedException {
+        if (length < HEADER_SIZE || length > maxLength) {
+            throw new StreamCorruptedException("invalid frame length: " + length);
+        }
+        return length;
+    }
+
+    /**
+     * Reads the announced bytes into a buffer that grows with the bytes that really arrive.
+     *
+     * @param count Number of bytes.
+     * @return Not null.
+     */
+    @NotNull
+    private static byte[] readBytes(@NotNull final DataInputStream in, final int count) throws IOException {
+        byte[] bytes = new byte[Math.min(count, READ_CHUNK)];
+        in.readFully(bytes);
+        while (bytes.length < count) {
+            final int read = bytes.length;
+            bytes = Arrays.copyOf(bytes, (int) Math.min(count, 2L * read));
+            in.readFully(bytes, read, bytes.length - read);
+        }
+        return bytes;
+    }
+
+    /**
+     * Writes type, timestamp and, if the message has one, the sequence number.
+     */
+    private static void putHeader(@NotNull final ByteBuffer frame, final int code, @NotNull final Message message) {
+        frame.put((byte) code);
+        frame.putLong(message.getTimestamp());
+        if (message.getSequence() != 0) {
+            frame.putLong(message.getSequence());
+        }
+    }
+
+    /**
+     * @return Size of type, timestamp and sequence number, if the frame can hold them.
+     */
+    private static int headerSize(final byte code, final int length) throws StreamCorruptedException {
+        if ((code & SEQUENCED_BIT) == 0) {
+            return HEADER_SIZE;
+        }
+        if (length < HEADER_SIZE + SEQUENCE_SIZE) {
+            throw new StreamCorruptedException("invalid frame length for a sequence number: " + length);
+        }
+        return HEADER_SIZE + SEQUENCE_SIZE;
+    }
+
+    /**
+     * @return Payload size of a compressed frame, if the frame can hold it and it isn't too large.
+     */
+    private static int checkSize(final int length, final int header, final int size) throws StreamCorruptedException {
+        if (length < header + SIZE_SIZE || size < 0 || size > MAX_FRAME_LENGTH) {
+            throw new StreamCorruptedException("invalid compressed frame: " + length + " bytes of " + size);
+        }
+        return size;
+    }
+
+    /**
+     * @return True, if the code marks a compressed payload, which only codecs that compress accept.
+     */
+    private boolean isCompressed(final byte code) throws StreamCorruptedException {
+        if ((code & COMPRESSED_BIT) == 0) {
+            return false;
+        }
+        if (compression == null) {
+            throw new StreamCorruptedException("compressed frame without compression");
+        }
+        return true;
+    }
+
+    /**
+     * @return Message type for the code on the wire, without the compressed and sequenced bits.
+     */
+    @NotNull
+    private static MessageType type(final byte code) throws StreamCorruptedException {
+        final int ordinal = code & ~(COMPRESSED_BIT | SEQUENCED_BIT) & 0xFF;
+        if (ordinal >= TYPES.length) {
+            throw new StreamCorruptedException("unknown message type: " + code);
+        }
+        return TYPES[ordinal];
+    }
+}
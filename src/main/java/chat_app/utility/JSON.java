@@ -1,66 +1,81 @@
 package chat_app.utility;
 
+import chat_app.transfer_object.Message;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.json.JsonWriteFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.google.common.base.Preconditions;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
+import java.io.InputStream;
 
 /**
- * JSON MapperWrapper.
+ * JSON mapping of {@link Message messages}. <br/>
+ * Reader and writer are built once and are immutable, so all threads share them without locking. Messages are read
+ * from and written to bytes directly, without intermediate strings.
  */
-class JSON {
+final class JSON {
 
     @NotNull
-    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
 
     @NotNull
-    private String json;
+    private static final ObjectReader MESSAGE_READER = MAPPER.readerFor(Message.class);
 
     /**
-     * Use {@link #valueOf(String)}.
+     * Escapes everything beyond ASCII, so the output is the same in UTF-8 and in the modified UTF-8 of object streams.
      */
-    private JSON(@NotNull final String json) {
-        this.json = json;
+    @NotNull
+    private static final ObjectWriter MESSAGE_WRITER = MAPPER.writerFor(Message.class)
+            .with(JsonWriteFeature.ESCAPE_NON_ASCII);
+
+    private JSON() {
     }
 
     /**
-     * Maps JSON to given clazz.
+     * Maps a message to JSON.
      *
-     * @param clazz Convert to this type. Not null.
-     * @return New instance from clazz. Not null.
+     * @param message Not null.
+     * @return JSON with ASCII characters only. Not null.
      */
     @NotNull
-    <T> T to(@NotNull final Class<T> clazz) throws IOException {
-        Preconditions.checkNotNull(clazz, "clazz must not be null.");
+    static byte[] format(@NotNull final Message message) throws IOException {
+        Preconditions.checkNotNull(message, "message must not be null.");
 
-        return JSON.MAPPER.readValue(json, clazz);
+        return MESSAGE_WRITER.writeValueAsBytes(message);
     }
 
     /**
-     * Creates a JSON instance.
+     * Maps JSON to a message.
      *
-     * @param json has be in JSON format.
-     * @return new instance.
+     * @param json   UTF-8 or modified UTF-8. Not null.
+     * @param offset Start of the JSON in the array.
+     * @param length Length of the JSON.
+     * @return Not null.
      */
     @NotNull
-    synchronized static JSON valueOf(@NotNull final String json) throws IOException {
+    static Message parse(@NotNull final byte[] json, final int offset, final int length) throws IOException {
         Preconditions.checkNotNull(json, "json must not be null.");
 
-        return new JSON(json);
+        return MESSAGE_READER.readValue(json, offset, length);
     }
 
-
     /**
-     * Maps an object to JSON as string.
+     * Maps JSON from a stream to a message. The stream is not closed.
      *
-     * @param obj Not null.
-     * @return String with JSON format. Not null.
+     * @param in UTF-8 or modified UTF-8, must end after the JSON. Not null.
+     * @return Not null.
      */
     @NotNull
-    synchronized static String format(@NotNull final Object obj) throws IOException {
-        Preconditions.checkNotNull(obj, "obj must not be null.");
+    static Message parse(@NotNull final InputStream in) throws IOException {
+        Preconditions.checkNotNull(in, "in must not be null.");
 
-        return MAPPER.writeValueAsString(obj);
+        return MESSAGE_READER.readValue(in);
     }
 }
@@ -0,0 +1,232 @@
+package chat_app.utility;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.beans.ConstructorProperties;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latencies in nanoseconds, counted in buckets of a few percent width, so many threads record without a lock and
+ * percentiles can be read at any time. <br/>
+ * Below 64 ns every value has its own bucket; above, every power of two is split into 32 buckets. The counts are
+ * striped by thread, so threads on different cores rarely increment the same cache line.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * Sub-buckets per power of two, as a power of two.
+     */
+    private static final int SUB_BITS = 5;
+
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    /**
+     * Values that have a bucket of their own.
+     */
+    private static final int LINEAR = 2 * SUB_COUNT;
+
+    /**
+     * Largest value with a bucket of its own range, about 73 minutes. Larger ones are counted there.
+     */
+    private static final int MAX_EXPONENT = 42;
+
+    private static final int BUCKETS = LINEAR + (MAX_EXPONENT - SUB_BITS) * SUB_COUNT;
+
+    /**
+     * Stripes of counts, a power of two.
+     */
+    private static final int STRIPES =
+            Math.min(8, Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors())));
+
+    /**
+     * Counts by bucket, one array per stripe.
+     */
+    @NotNull
+    private final AtomicLongArray[] counts = new AtomicLongArray[STRIPES];
+
+    /**
+     * Constructor.
+     */
+    public LatencyHistogram() {
+        for (int i = 0; i < STRIPES; ++i) {
+            counts[i] = new AtomicLongArray(BUCKETS);
+        }
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos Latency in nanoseconds, negative ones count as 0.
+     */
+    public void record(final long nanos) {
+        final int stripe = (int) Thread.currentThread().threadId() & (STRIPES - 1);
+        counts[stripe].incrementAndGet(index(Math.max(0, nanos)));
+    }
+
+    /**
+     * @return Number of recorded latencies.
+     */
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            count += count(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile Between 0 and 100.
+     * @return Nanoseconds that the percentile of the latencies doesn't exceed, 0 if none were recorded.
+     */
+    public long getPercentile(final double percentile) {
+        final long count = getCount();
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            seen += count(i);
+            if (seen >= rank) {
+                return highestValue(i);
+            }
+        }
+        return highestValue(BUCKETS - 1);
+    }
+
+    /**
+     * @return Nanoseconds of the highest recorded latency, rounded up to its bucket.
+     */
+    public long getMax() {
+        for (int i = BUCKETS - 1; i >= 0; --i) {
+            if (count(i) > 0) {
+                return highestValue(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return Count and percentiles, as of now. Not null.
+     */
+    @NotNull
+    public Snapshot snapshot() {
+        return new Snapshot(getCount(), getPercentile(50), getPercentile(99), getPercentile(99.9), getMax());
+    }
+
+    /**
+     * @return p50, p99, p99.9 and max in microseconds as text. Not null.
+     */
+    @NotNull
+    public String summary() {
+        return snapshot().toString();
+    }
+
+    /**
+     * @return Sum of a bucket over the stripes.
+     */
+    private long count(final int index) {
+        long count = 0;
+        for (final AtomicLongArray stripe : counts) {
+            count += stripe.get(index);
+        }
+        return count;
+    }
+
+    /**
+     * @return Bucket of a value.
+     */
+    private static int index(final long nanos) {
+        if (nanos < LINEAR) {
+            return (int) nanos;
+        }
+        final int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        final int top = (int) (nanos >>> (exponent - SUB_BITS));
+        return LINEAR + (exponent - SUB_BITS - 1) * SUB_COUNT + top - SUB_COUNT;
+    }
+
+    /**
+     * @return Highest value of a bucket.
+     */
+    private static long highestValue(final int index) {
+        if (index < LINEAR) {
+            return index;
+        }
+        final int exponent = (index - LINEAR) / SUB_COUNT + SUB_BITS + 1;
+        final long top = SUB_COUNT + (index - LINEAR) % SUB_COUNT;
+        final int shift = exponent - SUB_BITS;
+        return ((top + 1) << shift) - 1;
+    }
+
+    /**
+     * Count and percentiles at one point in time, in nanoseconds. Also an open type for JMX.
+     */
+    public static final class Snapshot {
+
+        private final long count;
+
+        private final long p50;
+
+        private final long p99;
+
+        private final long p999;
+
+        private final long max;
+
+        /**
+         * Constructor.
+         */
+        @ConstructorProperties({"count", "p50", "p99", "p999", "max"})
+        public Snapshot(final long count, final long p50, final long p99, final long p999, final long max) {
+            this.count = count;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.p999 = p999;
+            this.max = max;
+        }
+
+        /**
+         * @return Number of recorded latencies.
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return Median in nanoseconds.
+         */
+        public long getP50() {
+            return p50;
+        }
+
+        /**
+         * @return 99th percentile in nanoseconds.
+         */
+        public long getP99() {
+            return p99;
+        }
+
+        /**
+         * @return 99.9th percentile in nanoseconds.
+         */
+        public long getP999() {
+            return p999;
+        }
+
+        /**
+         * @return Highest latency in nanoseconds.
+         */
+        public long getMax() {
+            return max;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("p50 %.1f us, p99 %.1f us, p99.9 %.1f us, max %.1f us (%d samples)",
+                    p50 / 1e3, p99 / 1e3, p999 / 1e3, max / 1e3, count);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package chat_app.utility;
+
+import chat_app.transfer_object.Message;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamConstants;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads and writes messages in the original format of the chat: JSON strings in a Java serialization stream.
+ * Only the part of the format that {@link java.io.ObjectOutputStream} produces for strings is supported. <br/>
+ * Every string is written after a reset marker, so the handle table of the peer's object stream doesn't grow. <br/>
+ * The JSON is ASCII only, which is the same in UTF-8 and modified UTF-8, so it is copied into the record as is. Read
+ * strings are parsed straight from their bytes, Jackson understands the modified UTF-8 of other writers.
+ */
+public final class ObjectStreamCodec implements WireCodec {
+
+    /**
+     * Shared instance, the codec has no state.
+     */
+    @NotNull
+    public static final ObjectStreamCodec INSTANCE = new ObjectStreamCodec();
+
+    /**
+     * Magic and version every object stream starts with.
+     */
+    @NotNull
+    private static final byte[] STREAM_HEADER = {
+            (byte) (ObjectStreamConstants.STREAM_MAGIC >>> 8), (byte) ObjectStreamConstants.STREAM_MAGIC,
+            (byte) (ObjectStreamConstants.STREAM_VERSION >>> 8), (byte) ObjectStreamConstants.STREAM_VERSION
+    };
+
+    /**
+     * Longest modified UTF-8 string that fits into a short string record.
+     */
+    private static final int MAX_SHORT_STRING = 0xFFFF;
+
+    private ObjectStreamCodec() {
+    }
+
+    @NotNull
+    @Override
+    public byte[] preamble() {
+        return STREAM_HEADER.clone();
+    }
+
+    /**
+     * Encodes the message as reset marker and string record.
+     */
+    @NotNull
+    @Override
+    public byte[] encode(@NotNull final Message message) throws IOException {
+        Preconditions.checkNotNull(message, "message must not be null.");
+
+        final byte[] json = JSON.format(message);
+        final int length = json.length;
+        final byte[] record;
+        if (length <= MAX_SHORT_STRING) {
+            record = new byte[4 + length];
+            record[0] = ObjectStreamConstants.TC_RESET;
+            record[1] = ObjectStreamConstants.TC_STRING;
+            record[2] = (byte) (length >>> 8);
+            record[3] = (byte) length;
+        } else {
+            record = new byte[10 + length];
+            record[0] = ObjectStreamConstants.TC_RESET;
+            record[1] = ObjectStreamConstants.TC_LONGSTRING;
+            for (int i = 0; i < 8; ++i) {
+                record[2 + i] = (byte) ((long) length >>> (56 - 8 * i));
+            }
+        }
+        System.arraycopy(json, 0, record, record.length - length, length);
+        return record;
+    }
+
+    /**
+     * Decodes the next message. Reset markers in front of it are skipped.
+     *
+     * @throws StreamCorruptedException If the stream contains anything else than strings.
+     */
+    @Nullable
+    @Override
+    public Message decode(@NotNull final ByteBuffer buffer, final int maxLength) throws IOException {
+        Preconditions.checkNotNull(buffer, "buffer must not be null.");
+
+        while (buffer.hasRemaining() && buffer.get(buffer.position()) == ObjectStreamConstants.TC_RESET) {
+            buffer.get();
+        }
+        if (!buffer.hasRemaining()) {
+            return null;
+        }
+
+        final int start = buffer.position();
+        final byte tag = buffer.get(start);
+        final int headerLength;
+        final long length;
+        if (tag == ObjectStreamConstants.TC_STRING) {
+            headerLength = 3;
+            if (buffer.remaining() < headerLength) {
+                return null;
+            }
+            length = buffer.getShort(start + 1) & 0xFFFF;
+        } else if (tag == ObjectStreamConstants.TC_LONGSTRING) {
+            headerLength = 9;
+            if (buffer.remaining() < headerLength) {
+                return null;
+            }
+            length = buffer.getLong(start + 1);
+        } else {
+            throw new StreamCorruptedException(String.format("unsupported type code: %02X", tag));
+        }
+
+        checkLength(length, maxLength);
+        if (buffer.remaining() < headerLength + length) {
+            return null;
+        }
+
+        final int offset = start + headerLength;
+        buffer.position(offset + (int) length);
+        if (buffer.hasArray()) {
+            return JSON.parse(buffer.array(), buffer.arrayOffset() + offset, (int) length);
+        }
+        final byte[] json = new byte[(int) length];
+        buffer.get(offset, json);
+        return JSON.parse(json, 0, json.length);
+    }
+
+    /**
+     * Reads the next message. Reset markers in front of it are skipped.
+     *
+     * @throws StreamCorruptedException If the stream contains anything else than strings.
+     */
+    @NotNull
+    @Override
+    public Message read(@NotNull final DataInputStream in, final int maxLength) throws IOException {
+        Preconditions.checkNotNull(in, "in must not be null.");
+
+        byte tag;
+        do {
+            tag = in.readByte();
+        } while (tag == ObjectStreamConstants.TC_RESET);
+
+        final long length;
+        if (tag == ObjectStreamConstants.TC_STRING) {
+            length = in.readUnsignedShort();
+        } else if (tag == ObjectStreamConstants.TC_LONGSTRING) {
+            length = in.readLong();
+        } else {
+            throw new StreamCorruptedException(String.format("unsupported type code: %02X", tag));
+        }
+        checkLength(length, maxLength);
+
+        final InputStream json = ByteStreams.limit(in, length);
+        final Message message = JSON.parse(json);
+        ByteStreams.exhaust(json);
+        return message;
+    }
+
+    /**
+     * Rejects strings that are longer than a frame may be.
+     */
+    private static void checkLength(final long length, final int maxLength) throws StreamCorruptedException {
+        if (length < 0 || length > maxLength) {
+            throw new StreamCorruptedException("invalid string length: " + length);
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package chat_app.utility;
+
+import chat_app.transfer_object.Message;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Transport that its owner reads with blocking calls. Transports of the non-blocking engine are read by their event
+ * loop and don't implement it.
+ */
+public interface ReceivingTransport extends Transport {
+
+    /**
+     * Blocks until the next {@link Message} arrives.
+     */
+    @NotNull
+    Message receive() throws IOException;
+}
@@ -0,0 +1,50 @@
+package chat_app.utility;
+
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Kind of thread that runs a blocking loop, e.g. one per connected client.
+ */
+public enum ThreadMode {
+
+    /**
+     * Platform thread with its own OS thread and stack.
+     */
+    PLATFORM {
+        @NotNull
+        @Override
+        Thread.Builder builder() {
+            return Thread.ofPlatform();
+        }
+    },
+
+    /**
+     * Virtual thread, parks instead of holding an OS thread while waiting for the socket.
+     */
+    VIRTUAL {
+        @NotNull
+        @Override
+        Thread.Builder builder() {
+            return Thread.ofVirtual();
+        }
+    };
+
+    /**
+     * Starts the task in a new thread of this kind.
+     *
+     * @param task Not null.
+     * @param name Name of the thread. Not null.
+     * @return Started thread. Not null.
+     */
+    @NotNull
+    public Thread start(@NotNull final Runnable task, @NotNull final String name) {
+        Preconditions.checkNotNull(task, "task must not be null.");
+        Preconditions.checkNotNull(name, "name must not be null.");
+
+        return builder().name(name).start(task);
+    }
+
+    @NotNull
+    abstract Thread.Builder builder();
+}
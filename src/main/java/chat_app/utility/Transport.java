@@ -0,0 +1,49 @@
+package chat_app.utility;
+
+import chat_app.transfer_object.Message;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+
+/**
+ * Connection to one peer as seen by the chat logic, independent of blocking or non-blocking IO. How messages are
+ * received depends on the IO, see {@link ReceivingTransport}.
+ */
+public interface Transport {
+
+    /**
+     * Sends {@link Message}.
+     */
+    void send(@NotNull Message message) throws IOException;
+
+    /**
+     * Sends a message that may go to other peers as well.
+     */
+    default void send(@NotNull final EncodedMessage message) throws IOException {
+        send(message.getMessage());
+    }
+
+    /**
+     * Wraps string to default {@link Message} and sends it.
+     */
+    default void send(@NotNull final String message) throws IOException {
+        send(new Message(message));
+    }
+
+    /**
+     * @return True, if still connected.
+     */
+    boolean isActive();
+
+    /**
+     * @return True, if connection is closed.
+     */
+    default boolean isInactive() {
+        return !isActive();
+    }
+
+    /**
+     * Closes the connection.
+     */
+    void kill();
+}
@@ -0,0 +1,165 @@
+package chat_app.utility;
+
+import chat_app.transfer_object.Message;
+import com.google.common.base.Preconditions;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Encodes and decodes {@link Message messages} for the wire. <br/>
+ * Both peers start with the {@link #preamble() preamble} of their codec. The client sends first, so the server can
+ * pick the codec by the first byte it receives and still talk to clients that only know object streams. <br/>
+ * A client may offer {@link FramedCodec#COMPRESSED compression}, the server {@link #answer(WireCodec, FramedCodec)
+ * answers} with the preamble of the codec both use from then on.
+ */
+public interface WireCodec {
+
+    /**
+     * Picks the codec that starts its preamble with the given byte.
+     *
+     * @param firstByte First byte a peer has sent.
+     * @return Not null.
+     * @throws StreamCorruptedException If no codec matches.
+     */
+    @NotNull
+    static WireCodec detect(final byte firstByte) throws StreamCorruptedException {
+        if (firstByte == FramedCodec.INSTANCE.preamble()[0]) {
+            return FramedCodec.INSTANCE;
+        }
+        if (firstByte == FramedCodec.COMPRESSED.preamble()[0]) {
+            return FramedCodec.COMPRESSED;
+        }
+        if (firstByte == ObjectStreamCodec.INSTANCE.preamble()[0]) {
+            return ObjectStreamCodec.INSTANCE;
+        }
+        throw new StreamCorruptedException(String.format("unknown protocol: %02X", firstByte));
+    }
+
+    /**
+     * Picks the codec a server answers an offer with.
+     *
+     * @param offered    Codec of the client's preamble. Not null.
+     * @param compressed Codec of the server that compresses, null to answer offers of compression without.
+     * @return Not null.
+     */
+    @NotNull
+    static WireCodec answer(@NotNull final WireCodec offered, @Nullable final FramedCodec compressed) {
+        Preconditions.checkNotNull(offered, "offered must not be null.");
+
+        if (offered instanceof FramedCodec && ((FramedCodec) offered).getCompression() != null) {
+            return compressed == null ? FramedCodec.INSTANCE : compressed;
+        }
+        return offered;
+    }
+
+    /**
+     * @return Name of the codec for logs and events. Not null.
+     */
+    @NotNull
+    default String name() {
+        return getClass().getSimpleName();
+    }
+
+    /**
+     * @return Bytes each peer sends once before the first message. Not null.
+     */
+    @NotNull
+    byte[] preamble();
+
+    /**
+     * Consumes the preamble of the peer if it is complete.
+     *
+     * @param buffer In read mode. Not null.
+     * @return True, if the preamble was consumed.
+     * @throws StreamCorruptedException If the peer speaks another protocol.
+     */
+    default boolean readPreamble(@NotNull final ByteBuffer buffer) throws StreamCorruptedException {
+        Preconditions.checkNotNull(buffer, "buffer must not be null.");
+
+        final byte[] expected = preamble();
+        if (buffer.remaining() < expected.length) {
+            return false;
+        }
+        final byte[] actual = new byte[expected.length];
+        buffer.get(actual);
+        if (!Arrays.equals(expected, actual)) {
+            throw new StreamCorruptedException("invalid preamble");
+        }
+        return true;
+    }
+
+    /**
+     * Reads the preamble of the peer.
+     *
+     * @param in Not null.
+     * @throws StreamCorruptedException If the peer speaks another protocol.
+     */
+    default void readPreamble(@NotNull final DataInputStream in) throws IOException {
+        Preconditions.checkNotNull(in, "in must not be null.");
+
+        final byte[] actual = new byte[preamble().length];
+        in.readFully(actual);
+        if (!Arrays.equals(preamble(), actual)) {
+            throw new StreamCorruptedException("invalid preamble");
+        }
+    }
+
+    /**
+     * Encodes a message.
+     *
+     * @param message Not null.
+     * @return Bytes on the wire. Not null.
+     */
+    @NotNull
+    byte[] encode(@NotNull Message message) throws IOException;
+
+    /**
+     * Decodes the next message from a buffer.
+     *
+     * @param buffer In read mode. Not null.
+     * @return Decoded message or null if it is not complete yet.
+     */
+    @Nullable
+    default Message decode(@NotNull final ByteBuffer buffer) throws IOException {
+        return decode(buffer, FramedCodec.MAX_FRAME_LENGTH);
+    }
+
+    /**
+     * Decodes the next message from a buffer. A larger message is turned away by its length, before it arrives.
+     *
+     * @param buffer    In read mode. Not null.
+     * @param maxLength Most bytes the message may take after its length.
+     * @return Decoded message or null if it is not complete yet.
+     * @throws StreamCorruptedException If the message is larger.
+     */
+    @Nullable
+    Message decode(@NotNull ByteBuffer buffer, int maxLength) throws IOException;
+
+    /**
+     * Blocks until the next message was read.
+     *
+     * @param in Not null.
+     * @return Not null.
+     */
+    @NotNull
+    default Message read(@NotNull final DataInputStream in) throws IOException {
+        return read(in, FramedCodec.MAX_FRAME_LENGTH);
+    }
+
+    /**
+     * Blocks until the next message was read. A larger message is turned away by its length, before it arrives.
+     *
+     * @param in        Not null.
+     * @param maxLength Most bytes the message may take after its length.
+     * @return Not null.
+     * @throws StreamCorruptedException If the message is larger.
+     */
+    @NotNull
+    Message read(@NotNull DataInputStream in, int maxLength) throws IOException;
+}